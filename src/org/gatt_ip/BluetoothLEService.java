@@ -9,6 +9,7 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -21,23 +22,30 @@ import android.util.Log;
 import org.gatt_ip.lescanner.BluetoothLEScanner;
 import org.gatt_ip.lescanner.BluetoothLEScannerForLollipop;
 import org.gatt_ip.lescanner.BluetoothLEScannerForMR2;
+import org.gatt_ip.lescanner.ScanCriteria;
+import org.gatt_ip.lescanner.ScanScheduler;
+import org.gatt_ip.util.UUIDCodec;
 import org.gatt_ip.util.Util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Locale;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by vensi on 9/25/15.
  */
 public class BluetoothLEService extends InterfaceService {
     public static final String CCC_UUID = "00002902-0000-1000-8000-00805f9b34fb";
+    public static final int DEFAULT_MTU = 23;
     private static final String TAG = BluetoothLEService.class.getName();
 
     private List<BluetoothGatt> m_connected_devices;
@@ -47,6 +55,49 @@ public class BluetoothLEService extends InterfaceService {
 
     private BluetoothAdapter m_bluetooth_adapter;
 
+    // negotiated ATT MTU per device address
+    private final ConcurrentHashMap<String, Integer> m_device_mtus = new ConcurrentHashMap<>();
+
+    // connection priority last requested per device address
+    private final ConcurrentHashMap<String, Integer> m_device_priorities = new ConcurrentHashMap<>();
+
+    // writes without response being sent in MTU-sized segments, per device
+    private final ConcurrentHashMap<BluetoothGatt, SegmentedWrite> m_segmented_writes = new ConcurrentHashMap<>();
+
+    // MTU requested right after a device connects, 0 to keep the default
+    private volatile int m_auto_mtu;
+
+    // devices whose connection is reported once the MTU asked for on connection is settled, so
+    // service discovery does not start while the MTU exchange is still outstanding
+    private final Set<String> m_connecting_mtus = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+
+    // a value longer than one write without response can carry, sent one segment per onCharacteristicWrite
+    private static final class SegmentedWrite {
+        final BluetoothGattCharacteristic m_characteristic;
+        final byte[] m_data;
+        final int m_segment_size;
+        int m_offset;
+
+        SegmentedWrite(BluetoothGattCharacteristic characteristic, byte[] data, int segmentSize) {
+            m_characteristic = characteristic;
+            m_data = data;
+            m_segment_size = segmentSize;
+        }
+
+        boolean hasNext() {
+            return m_offset < m_data.length;
+        }
+
+        byte[] next() {
+            int length = Math.min(m_segment_size, m_data.length - m_offset);
+            byte[] segment = new byte[length];
+
+            System.arraycopy(m_data, m_offset, segment, 0, length);
+            m_offset += length;
+            return segment;
+        }
+    }
 
     public class BluetoothLEBinder extends InterfaceService.InterfaceBinder {
         @Override
@@ -105,7 +156,18 @@ public class BluetoothLEService extends InterfaceService {
         return m_connected_devices;
     }
 
+    // negotiate the given MTU with every device as soon as it connects; 0 turns negotiation off
+    public void setAutoNegotiateMtu(int mtu)
+    {
+        m_auto_mtu = mtu;
+    }
+
     public void startDeviceDiscovery(int timeout, boolean duplicates)
+    {
+        startDeviceDiscovery(timeout, duplicates, ScanCriteria.ANY, 0, ScanScheduler.Policy.CONTINUOUS);
+    }
+
+    public void startDeviceDiscovery(int timeout, boolean duplicates, ScanCriteria criteria, long reportDelay, ScanScheduler.Policy policy)
     {
         if( (m_le_scanner == null) || ( m_le_scanner!= null && !m_le_scanner.mScanning) ) {
             int apiVersion = android.os.Build.VERSION.SDK_INT;
@@ -115,8 +177,16 @@ public class BluetoothLEService extends InterfaceService {
             } else {
                 m_le_scanner = new BluetoothLEScannerForMR2(this.getApplicationContext(), duplicates);
             }
+            m_le_scanner.setScanCriteria(criteria);
+            m_le_scanner.setReportDelay(reportDelay);
+            m_le_scanner.setScanPolicy(policy);
             m_le_scanner.registerScanListener(m_le_scan_listener);
             m_le_scanner.startLEScan();
+        } else {
+            // a running scan takes up the new options at the end of its current window
+            m_le_scanner.setScanCriteria(criteria);
+            m_le_scanner.setReportDelay(reportDelay);
+            m_le_scanner.setScanPolicy(policy);
         }
     }
 
@@ -164,9 +234,9 @@ public class BluetoothLEService extends InterfaceService {
     }
 
     @Override
-    public void getDeviceAttributes(String serviceIdentifier) {
-        UUID serviceUUID = UUID.fromString(Util.ConvertUUID_16bitInto128bit(serviceIdentifier));
-        HashMap<BluetoothGatt, BluetoothGattService> requestedPeripheralAndService = Util.serviceIn(m_connected_devices, serviceUUID);
+    public void getDeviceAttributes(String deviceIdentifier, String serviceIdentifier) {
+        UUID serviceUUID = UUIDCodec.toUUID(serviceIdentifier);
+        HashMap<BluetoothGatt, BluetoothGattService> requestedPeripheralAndService = Util.serviceIn(devicesFor(deviceIdentifier), serviceUUID);
         Set<BluetoothGatt> keySet = requestedPeripheralAndService.keySet();
         BluetoothGatt gatt = null;
 
@@ -194,14 +264,15 @@ public class BluetoothLEService extends InterfaceService {
     }
 
     @Override
-    public void getDeviceAttributeDescriptors(String attributeIdentifier) {
+    public void getDeviceAttributeDescriptors(String deviceIdentifier, String attributeIdentifier) {
         BluetoothGatt gatt = null;
-        UUID characteristicsUUID = UUID.fromString(Util.ConvertUUID_16bitInto128bit(attributeIdentifier));
-        HashMap<BluetoothGatt, BluetoothGattCharacteristic> peripheralAndCharacteristic = Util.characteristicIn(m_connected_devices, characteristicsUUID);
-        Set<BluetoothGatt> keySet = peripheralAndCharacteristic.keySet();
+        UUID characteristicsUUID = UUIDCodec.toUUID(attributeIdentifier);
+        HashMap<BluetoothGatt, BluetoothGattCharacteristic> peripheralAndCharacteristic = Util.characteristicIn(devicesFor(deviceIdentifier), characteristicsUUID);
 
-        for (BluetoothGatt bGatt : keySet) {
-            gatt = bGatt;
+        if (peripheralAndCharacteristic != null) {
+            for (BluetoothGatt bGatt : peripheralAndCharacteristic.keySet()) {
+                gatt = bGatt;
+            }
         }
 
         if (gatt == null) {
@@ -217,8 +288,8 @@ public class BluetoothLEService extends InterfaceService {
                 }
             } else {
                 String peripheralUUID = gatt.getDevice().getAddress().toUpperCase(Locale.getDefault());
-                String serviceUUID = characteristic.getService().getUuid().toString().toUpperCase(Locale.getDefault());
-                String characteristicUUID = characteristic.getUuid().toString().toUpperCase(Locale.getDefault());
+                String serviceUUID = UUIDCodec.longForm(characteristic.getService().getUuid());
+                String characteristicUUID = UUIDCodec.longForm(characteristic.getUuid());
 
                 for(DeviceEventListener listener : m_listeners)
                     listener.onDeviceAttributeDescriptors(peripheralUUID, serviceUUID, characteristicUUID, characteristic.getDescriptors());
@@ -227,10 +298,20 @@ public class BluetoothLEService extends InterfaceService {
     }
 
     @Override
-    public void getDeviceAttributeValue(String attributeIdentifier) {
-        UUID characteristicUUID = UUID.fromString(attributeIdentifier);
-        if(m_connected_devices.size() > 0 && characteristicUUID != null) {
-            HashMap<BluetoothGatt, BluetoothGattCharacteristic> characteristics = Util.characteristicIn(m_connected_devices, characteristicUUID);
+    public void getDeviceAttributeValue(String deviceIdentifier, String attributeIdentifier) {
+        UUID characteristicUUID = UUIDCodec.toUUID(attributeIdentifier);
+        List<BluetoothGatt> devices = devicesFor(deviceIdentifier);
+
+        if(devices.size() > 0 && characteristicUUID != null) {
+            HashMap<BluetoothGatt, BluetoothGattCharacteristic> characteristics = Util.characteristicIn(devices, characteristicUUID);
+
+            if (characteristics == null) {
+                for (DeviceEventListener listener : m_listeners) {
+                    listener.onError(Error.DEVICE_ATTRIBUTES_NOT_FOUND);
+                }
+                return;
+            }
+
             Set<BluetoothGatt> keySet = characteristics.keySet();
 
             for (BluetoothGatt gatt : keySet) {
@@ -253,11 +334,21 @@ public class BluetoothLEService extends InterfaceService {
     }
 
     @Override
-    public void getDeviceAttributeNotifications(String attributeIdentifier, boolean enable) {
-        UUID characteristicUUID = UUID.fromString(attributeIdentifier);
-        if(m_connected_devices.size()>0 && characteristicUUID!=null) {
+    public void getDeviceAttributeNotifications(String deviceIdentifier, String attributeIdentifier, boolean enable) {
+        UUID characteristicUUID = UUIDCodec.toUUID(attributeIdentifier);
+        List<BluetoothGatt> devices = devicesFor(deviceIdentifier);
+
+        if(devices.size()>0 && characteristicUUID!=null) {
+
+            HashMap<BluetoothGatt, BluetoothGattCharacteristic> characteristics = Util.characteristicIn(devices, characteristicUUID);
+
+            if (characteristics == null) {
+                for (DeviceEventListener listener : m_listeners) {
+                    listener.onError(Error.DEVICE_ATTRIBUTES_NOT_FOUND);
+                }
+                return;
+            }
 
-            HashMap<BluetoothGatt, BluetoothGattCharacteristic> characteristics = Util.characteristicIn(m_connected_devices, characteristicUUID);
             Set<BluetoothGatt> keySet = characteristics.keySet();
 
             for (BluetoothGatt gatt : keySet) {
@@ -271,7 +362,7 @@ public class BluetoothLEService extends InterfaceService {
                     boolean status = false;
 
                     // client characteristic configuration.
-                    UUID descUUID = UUID.fromString(CCC_UUID);
+                    UUID descUUID = UUIDCodec.toUUID(CCC_UUID);
                     BluetoothGattDescriptor desc = characteristic.getDescriptor(descUUID);
 
                     // check whether characteristic having notify or indicate property
@@ -308,12 +399,13 @@ public class BluetoothLEService extends InterfaceService {
     }
 
     @Override
-    public void writeDeviceAttributeValue(String attributeIdentifier, String writeType, byte[] data) {
-        UUID characteristicUUID = UUID.fromString(attributeIdentifier);
+    public void writeDeviceAttributeValue(String deviceIdentifier, String attributeIdentifier, String writeType, byte[] data) {
+        UUID characteristicUUID = UUIDCodec.toUUID(attributeIdentifier);
+        List<BluetoothGatt> devices = devicesFor(deviceIdentifier);
 
-        if(m_connected_devices.size()>0 && characteristicUUID!=null){
+        if(devices.size()>0 && characteristicUUID!=null){
 
-            HashMap<BluetoothGatt, BluetoothGattCharacteristic> characteristics = Util.characteristicIn(m_connected_devices, characteristicUUID);
+            HashMap<BluetoothGatt, BluetoothGattCharacteristic> characteristics = Util.characteristicIn(devices, characteristicUUID);
             if(characteristics!=null) {
                 Set<BluetoothGatt> keySet = characteristics.keySet();
 
@@ -324,6 +416,8 @@ public class BluetoothLEService extends InterfaceService {
                         for(DeviceEventListener listener : m_listeners) {
                             listener.onError(Error.DEVICE_ATTRIBUTES_NOT_FOUND);
                         }
+                    } else if (data.length > getDeviceMtu(gatt.getDevice().getAddress()) - 3) {
+                        writeSegmented(gatt, characteristic, data);
                     } else {
                         // TODO: Handle remaining write types, if any
                         int writType = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
@@ -352,19 +446,103 @@ public class BluetoothLEService extends InterfaceService {
         }
     }
 
+    // a value that does not fit into one ATT write goes out as a long write when the characteristic
+    // takes writes with response, the stack then segments it with prepare/execute write requests.
+    // Otherwise it is sent in MTU-sized writes without response. Either way the listeners hear of
+    // it once, when the whole value has been written.
+    private void writeSegmented(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] data) {
+        boolean written;
+
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0) {
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            characteristic.setValue(data);
+            written = gatt.writeCharacteristic(characteristic);
+        } else {
+            SegmentedWrite write = new SegmentedWrite(characteristic, data, getDeviceMtu(gatt.getDevice().getAddress()) - 3);
+
+            m_segmented_writes.put(gatt, write);
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            characteristic.setValue(write.next());
+            written = gatt.writeCharacteristic(characteristic);
+
+            if (!written) {
+                m_segmented_writes.remove(gatt);
+            }
+        }
+
+        if (!written) {
+            Log.e(TAG, "failed to write the Characteristic value.");
+            for (DeviceEventListener listener : m_listeners) {
+                listener.onError(Error.ATTRIBUTE_WRITE_FAILED);
+            }
+        }
+    }
+
+    @Override
+    public void writeDeviceAttributeStream(String deviceIdentifier, String attributeIdentifier, byte[] data) {
+        UUID characteristicUUID = UUIDCodec.toUUID(attributeIdentifier);
+        List<BluetoothGatt> devices = devicesFor(deviceIdentifier);
+
+        if (devices.size() == 0) {
+            for (DeviceEventListener listener : m_listeners) {
+                listener.noConnectedDevices();
+            }
+            return;
+        }
+
+        HashMap<BluetoothGatt, BluetoothGattCharacteristic> characteristics = Util.characteristicIn(devices, characteristicUUID);
+        BluetoothGatt gatt = null;
+        BluetoothGattCharacteristic characteristic = null;
+
+        // the peripheral that has the characteristic, which need not be the first when none is named
+        if (characteristics != null) {
+            for (Map.Entry<BluetoothGatt, BluetoothGattCharacteristic> entry : characteristics.entrySet()) {
+                gatt = entry.getKey();
+                characteristic = entry.getValue();
+            }
+        }
+
+        if (characteristic == null) {
+            for(DeviceEventListener listener : m_listeners) {
+                listener.onError(Error.DEVICE_ATTRIBUTES_NOT_FOUND);
+            }
+            return;
+        }
+
+        // callers keep a streamed value within one write, the stack would truncate a longer one
+        if (data.length > getDeviceMtu(gatt.getDevice().getAddress()) - 3) {
+            for (DeviceEventListener listener : m_listeners) {
+                listener.onError(Error.ATTRIBUTE_WRITE_FAILED);
+            }
+            return;
+        }
+
+        // onCharacteristicWrite reports when the stack has taken the data, which gates the next write
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        characteristic.setValue(data);
+        if(!gatt.writeCharacteristic(characteristic)){
+            Log.e(TAG, "failed to write the Characteristic value.");
+            for (DeviceEventListener listener : m_listeners) {
+                listener.onError(Error.ATTRIBUTE_WRITE_FAILED);
+            }
+        }
+    }
+
     @Override
-    public void getDeviceAttributeDescriptorValue(String attributeDescriptorIdentifier, String attributeIdentifier, String serviceIdentifier) {
-        UUID descriptorUUID = UUID.fromString(attributeDescriptorIdentifier);
-        UUID characteristicsUUID = UUID.fromString(attributeIdentifier);
+    public void getDeviceAttributeDescriptorValue(String deviceIdentifier, String attributeDescriptorIdentifier, String attributeIdentifier, String serviceIdentifier) {
+        UUID descriptorUUID = UUIDCodec.toUUID(attributeDescriptorIdentifier);
+        UUID characteristicsUUID = UUIDCodec.toUUID(attributeIdentifier);
+        List<BluetoothGatt> devices = devicesFor(deviceIdentifier);
         BluetoothGatt gatt = null;
 
-        if(m_connected_devices.size()>0 && descriptorUUID!=null && characteristicsUUID!=null) {
+        if(devices.size()>0 && descriptorUUID!=null && characteristicsUUID!=null) {
 
-            HashMap<BluetoothGatt, BluetoothGattCharacteristic> peripheralAndCharacteristic = Util.characteristicIn(m_connected_devices, characteristicsUUID);
-            Set<BluetoothGatt> keySet = peripheralAndCharacteristic.keySet();
+            HashMap<BluetoothGatt, BluetoothGattCharacteristic> peripheralAndCharacteristic = Util.characteristicIn(devices, characteristicsUUID);
 
-            for (BluetoothGatt bGatt : keySet) {
-                gatt = bGatt;
+            if (peripheralAndCharacteristic != null) {
+                for (BluetoothGatt bGatt : peripheralAndCharacteristic.keySet()) {
+                    gatt = bGatt;
+                }
             }
 
             if (gatt == null) {
@@ -400,11 +578,21 @@ public class BluetoothLEService extends InterfaceService {
     }
 
     @Override
-    public void writeDeviceAttributeDescriptorValue(String attributeDescriptorIdentifier, byte[] data) {
-        UUID descriptorUUID = UUID.fromString(attributeDescriptorIdentifier);
-        if(m_connected_devices.size()>0 && descriptorUUID!=null) {
+    public void writeDeviceAttributeDescriptorValue(String deviceIdentifier, String attributeDescriptorIdentifier, byte[] data) {
+        UUID descriptorUUID = UUIDCodec.toUUID(attributeDescriptorIdentifier);
+        List<BluetoothGatt> devices = devicesFor(deviceIdentifier);
+
+        if(devices.size()>0 && descriptorUUID!=null) {
+
+            HashMap<BluetoothGatt, BluetoothGattDescriptor> descriptors = Util.descriptorIn(devices, descriptorUUID);
+
+            if (descriptors == null) {
+                for (DeviceEventListener listener : m_listeners) {
+                    listener.onError(Error.ATTRIBUTE_DESCRIPTOR_NOT_FOUND);
+                }
+                return;
+            }
 
-            HashMap<BluetoothGatt, BluetoothGattDescriptor> descriptors = Util.descriptorIn(m_connected_devices, descriptorUUID);
             Set<BluetoothGatt> keySet = descriptors.keySet();
 
             for (BluetoothGatt gatt : keySet) {
@@ -440,14 +628,80 @@ public class BluetoothLEService extends InterfaceService {
         }
     }
 
+    @Override
+    public void requestDeviceMtu(String deviceIdentifier, int mtu) {
+        BluetoothGatt gatt = Util.peripheralIn(m_connected_devices, deviceIdentifier);
+
+        if (gatt == null) {
+            for(DeviceEventListener listener : m_listeners) {
+                listener.onError(Error.DEVICE_NOT_FOUND);
+            }
+        } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || !gatt.requestMtu(mtu)) {
+            Log.e(TAG, "failed to request the MTU.");
+            for(DeviceEventListener listener : m_listeners) {
+                listener.onError(Error.MTU_REQUEST_FAILED);
+            }
+        }
+    }
+
+    @Override
+    public int getDeviceMtu(String deviceIdentifier) {
+        Integer mtu = m_device_mtus.get(deviceIdentifier.toUpperCase(Locale.getDefault()));
+        return mtu == null ? DEFAULT_MTU : mtu;
+    }
+
+    @Override
+    public boolean requestDeviceConnectionPriority(String deviceIdentifier, int priority) {
+        BluetoothGatt gatt = Util.peripheralIn(m_connected_devices, deviceIdentifier);
+
+        if (gatt == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || !gatt.requestConnectionPriority(priority)) {
+            Log.e(TAG, "failed to request the connection priority.");
+            return false;
+        }
+
+        m_device_priorities.put(deviceIdentifier.toUpperCase(Locale.getDefault()), priority);
+        return true;
+    }
+
+    @Override
+    public int getDeviceConnectionPriority(String deviceIdentifier) {
+        Integer priority = m_device_priorities.get(deviceIdentifier.toUpperCase(Locale.getDefault()));
+        return priority == null ? BluetoothGatt.CONNECTION_PRIORITY_BALANCED : priority;
+    }
+
+    // connected devices an attribute operation applies to: the addressed device, or all of them
+    private List<BluetoothGatt> devicesFor(String deviceIdentifier) {
+        if (deviceIdentifier == null) {
+            return m_connected_devices;
+        }
+
+        List<BluetoothGatt> devices = new ArrayList<>(1);
+        BluetoothGatt gatt = Util.peripheralIn(m_connected_devices, deviceIdentifier);
+
+        if (gatt != null) {
+            devices.add(gatt);
+        }
+        return devices;
+    }
+
     private BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
 
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status,int newState) {
             BluetoothDevice device = gatt.getDevice();
+
+            // an MTU exchange asked for on connection ends with the link, however it ends
+            if (status != BluetoothGatt.GATT_SUCCESS || newState != BluetoothProfile.STATE_CONNECTED) {
+                m_connecting_mtus.remove(device.getAddress().toUpperCase(Locale.getDefault()));
+            }
+
             switch (status){
                 case BluetoothGatt.GATT_SUCCESS:
                     if(newState == BluetoothProfile.STATE_CONNECTED) {
+                        // a new link starts out with the default MTU and connection priority
+                        m_device_mtus.remove(device.getAddress().toUpperCase(Locale.getDefault()));
+                        m_device_priorities.remove(device.getAddress().toUpperCase(Locale.getDefault()));
+
                         if (m_connected_devices.contains(gatt)) {
                             for (int i = 0; i < m_connected_devices.size(); i++) {
                                 if (m_connected_devices.get(i).equals(gatt))
@@ -456,8 +710,27 @@ public class BluetoothLEService extends InterfaceService {
                         } else {
                             m_connected_devices.add(gatt);
                         }
-                        for(DeviceEventListener listener : m_listeners)
-                            listener.onDeviceConnection(device.getName(), device.getAddress());
+
+                        // the MTU is asked for first and the connection reported from onMtuChanged,
+                        // as listeners start service discovery on it
+                        int mtu = m_auto_mtu;
+                        String deviceIdentifier = device.getAddress().toUpperCase(Locale.getDefault());
+                        boolean mtuRequested = false;
+
+                        if (mtu > DEFAULT_MTU && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                            m_connecting_mtus.add(deviceIdentifier);
+                            mtuRequested = gatt.requestMtu(mtu);
+
+                            if (!mtuRequested) {
+                                m_connecting_mtus.remove(deviceIdentifier);
+                                Log.e(TAG, "failed to request the MTU on connection.");
+                            }
+                        }
+
+                        if (!mtuRequested) {
+                            for(DeviceEventListener listener : m_listeners)
+                                listener.onDeviceConnection(device.getName(), device.getAddress());
+                        }
                     } else if(newState == BluetoothProfile.STATE_DISCONNECTED) {
                         // delete connected device from list after disconnect device.
                         if (m_connected_devices.contains(gatt)) {
@@ -467,6 +740,9 @@ public class BluetoothLEService extends InterfaceService {
                             }
                         }
                         gatt.close();
+                        m_segmented_writes.remove(gatt);
+                        m_device_mtus.remove(device.getAddress().toUpperCase(Locale.getDefault()));
+                        m_device_priorities.remove(device.getAddress().toUpperCase(Locale.getDefault()));
                         for(DeviceEventListener listener : m_listeners) {
                             listener.onDeviceDisconnection(device.getName(), device.getAddress().toUpperCase(Locale.getDefault()));
                         }
@@ -549,8 +825,8 @@ public class BluetoothLEService extends InterfaceService {
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             String deviceIdentifier = gatt.getDevice().getAddress().toUpperCase(Locale.getDefault());
-            String serviceIdentifier = characteristic.getService().getUuid().toString().toUpperCase(Locale.getDefault());
-            String attributeIdentifier = characteristic.getUuid().toString().toUpperCase(Locale.getDefault());
+            String serviceIdentifier = UUIDCodec.longForm(characteristic.getService().getUuid());
+            String attributeIdentifier = UUIDCodec.longForm(characteristic.getUuid());
             byte[] attributeValue = characteristic.getValue();
 
             for(DeviceEventListener listener : m_listeners) {
@@ -561,19 +837,33 @@ public class BluetoothLEService extends InterfaceService {
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             String deviceIdentifier = gatt.getDevice().getAddress().toUpperCase(Locale.getDefault());
-            String serviceIdentifier = characteristic.getService().getUuid().toString().toUpperCase(Locale.getDefault());
-            String attributeIdentifier = characteristic.getUuid().toString().toUpperCase(Locale.getDefault());
+            String serviceIdentifier = UUIDCodec.longForm(characteristic.getService().getUuid());
+            String attributeIdentifier = UUIDCodec.longForm(characteristic.getUuid());
+            SegmentedWrite write = m_segmented_writes.get(gatt);
+
+            if (write != null && write.m_characteristic == characteristic) {
+                if (status == BluetoothGatt.GATT_SUCCESS && write.hasNext()) {
+                    characteristic.setValue(write.next());
+
+                    if (gatt.writeCharacteristic(characteristic)) {
+                        return;
+                    }
+                    Log.e(TAG, "failed to write the next segment of the Characteristic value.");
+                    status = BluetoothGatt.GATT_FAILURE;
+                }
+                m_segmented_writes.remove(gatt);
+            }
 
             for(DeviceEventListener listener : m_listeners) {
-                listener.onDeviceAttributeWrite(deviceIdentifier, serviceIdentifier, attributeIdentifier, 0);
+                listener.onDeviceAttributeWrite(deviceIdentifier, serviceIdentifier, attributeIdentifier, status);
             }
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,BluetoothGattCharacteristic characteristic) {
             String deviceIdentifier = gatt.getDevice().getAddress().toUpperCase(Locale.getDefault());
-            String serviceIdentifier = characteristic.getService().getUuid().toString().toUpperCase(Locale.getDefault());
-            String attributeIdentifier = characteristic.getUuid().toString().toUpperCase(Locale.getDefault());
+            String serviceIdentifier = UUIDCodec.longForm(characteristic.getService().getUuid());
+            String attributeIdentifier = UUIDCodec.longForm(characteristic.getUuid());
             byte[] attributeValue = characteristic.getValue();
 
             for(DeviceEventListener listener : m_listeners) {
@@ -584,9 +874,9 @@ public class BluetoothLEService extends InterfaceService {
         @Override
         public void onDescriptorRead(BluetoothGatt gatt,BluetoothGattDescriptor descriptor, int status) {
             String deviceIdentifier = gatt.getDevice().getAddress().toUpperCase(Locale.getDefault());
-            String serviceIdentifier = descriptor.getCharacteristic().getService().getUuid().toString().toUpperCase(Locale.getDefault());
-            String attributeIdentifier = descriptor.getCharacteristic().getUuid().toString().toUpperCase(Locale.getDefault());
-            String descriptorIdentifier = descriptor.getUuid().toString().toUpperCase(Locale.getDefault());
+            String serviceIdentifier = UUIDCodec.longForm(descriptor.getCharacteristic().getService().getUuid());
+            String attributeIdentifier = UUIDCodec.longForm(descriptor.getCharacteristic().getUuid());
+            String descriptorIdentifier = UUIDCodec.longForm(descriptor.getUuid());
             byte[] descriptorValue = descriptor.getValue();
 
             for(DeviceEventListener listener : m_listeners) {
@@ -597,15 +887,37 @@ public class BluetoothLEService extends InterfaceService {
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt,BluetoothGattDescriptor descriptor, int status) {
             String deviceIdentifier = gatt.getDevice().getAddress().toUpperCase(Locale.getDefault());
-            String serviceIdentifier = descriptor.getCharacteristic().getService().getUuid().toString().toUpperCase(Locale.getDefault());
-            String attributeIdentifier = descriptor.getCharacteristic().getUuid().toString().toUpperCase(Locale.getDefault());
-            String descriptorIdentifier = descriptor.getUuid().toString().toUpperCase(Locale.getDefault());
+            String serviceIdentifier = UUIDCodec.longForm(descriptor.getCharacteristic().getService().getUuid());
+            String attributeIdentifier = UUIDCodec.longForm(descriptor.getCharacteristic().getUuid());
+            String descriptorIdentifier = UUIDCodec.longForm(descriptor.getUuid());
 
             for(DeviceEventListener listener : m_listeners) {
                 listener.onDeviceAttributeDescriptoWrite(deviceIdentifier, serviceIdentifier, attributeIdentifier, descriptorIdentifier, status);
             }
         }
 
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            String deviceIdentifier = gatt.getDevice().getAddress().toUpperCase(Locale.getDefault());
+
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                m_device_mtus.put(deviceIdentifier, mtu);
+            }
+
+            for(DeviceEventListener listener : m_listeners) {
+                listener.onDeviceMtuChanged(deviceIdentifier, getDeviceMtu(deviceIdentifier), status);
+            }
+
+            // the exchange asked for on connection is over, whatever its outcome
+            if (m_connecting_mtus.remove(deviceIdentifier)) {
+                BluetoothDevice device = gatt.getDevice();
+
+                for(DeviceEventListener listener : m_listeners) {
+                    listener.onDeviceConnection(device.getName(), device.getAddress());
+                }
+            }
+        }
+
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
             for(DeviceEventListener listener : m_listeners) {
@@ -621,6 +933,28 @@ public class BluetoothLEService extends InterfaceService {
                 return;
             }
 
+            addAvailableDevice(device);
+
+            // listeners decode the record themselves, once, into the view they filter and report from
+            for (DeviceEventListener listener : m_listeners) {
+                listener.onDeviceFound(device.getAddress().toUpperCase(Locale.getDefault()), device.getName(), rssi, record, advertisementData);
+            }
+        }
+
+        @Override
+        public void onLeScanBatch(List<ScanResult> results) {
+            for (ScanResult result : results) {
+                if (result.getDevice() != null) {
+                    addAvailableDevice(result.getDevice());
+                }
+            }
+
+            for (DeviceEventListener listener : m_listeners) {
+                listener.onDevicesFound(results);
+            }
+        }
+
+        private void addAvailableDevice(BluetoothDevice device) {
             if (m_available_devices.contains(device)) {
                 for (int i = 0; i < m_available_devices.size(); i++) {
                     if (m_available_devices.get(i).equals(device))
@@ -629,12 +963,6 @@ public class BluetoothLEService extends InterfaceService {
             } else {
                 m_available_devices.add(device);
             }
-
-            List<String> serviceUUIDs = m_le_scanner.parseAdvertisementData(advertisementData);
-
-            for (DeviceEventListener listener : m_listeners) {
-                listener.onDeviceFound(device.getAddress().toUpperCase(Locale.getDefault()), device.getName(), rssi, serviceUUIDs, record, advertisementData);
-            }
         }
 
     };
@@ -0,0 +1,93 @@
+package org.gatt_ip;
+
+import android.bluetooth.BluetoothGatt;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raises a peripheral's link to high connection priority while its lane has bulk work and
+ * drops it back to balanced once the lane has been without bulk work for the idle timeout.
+ * Links the client has put on high or low-power priority itself are left alone.
+ */
+final class ConnectionPriorityPolicy {
+    private static final String TAG = ConnectionPriorityPolicy.class.getName();
+
+    private final ScheduledExecutorService m_executor;
+    private final RequestScheduler m_scheduler;
+
+    // pending drop-back per lane of the links this policy raised
+    private final HashMap<String, ScheduledFuture<?>> m_raised = new HashMap<>();
+
+    // 0 while the policy is off
+    private volatile long m_idle_ms;
+
+    ConnectionPriorityPolicy(ScheduledExecutorService executor, RequestScheduler scheduler) {
+        m_executor = executor;
+        m_scheduler = scheduler;
+    }
+
+    void setIdleTimeout(long idleMs) {
+        m_idle_ms = idleMs;
+    }
+
+    // called for every request a lane dispatches
+    synchronized void onDispatch(PendingRequest request, InterfaceService service) {
+        String lane = request.getLaneKey();
+        long idleMs = m_idle_ms;
+
+        if (idleMs <= 0 || service == null || request.getPriority() != PendingRequest.Priority.BULK
+                || lane.equals(RequestScheduler.CONTROL_LANE)) {
+            return;
+        }
+
+        ScheduledFuture<?> relax = m_raised.get(lane);
+
+        if (relax != null) {
+            relax.cancel(false);
+        } else if (service.getDeviceConnectionPriority(lane) == BluetoothGatt.CONNECTION_PRIORITY_BALANCED) {
+            if (!service.requestDeviceConnectionPriority(lane, BluetoothGatt.CONNECTION_PRIORITY_HIGH)) {
+                return;
+            }
+            Log.d(TAG, "Raised connection priority of " + lane + " for bulk work.");
+        } else {
+            return;
+        }
+
+        m_raised.put(lane, m_executor.schedule(relax(lane, service), idleMs, TimeUnit.MILLISECONDS));
+    }
+
+    // forgets a link the client changed itself, or one that is gone
+    synchronized void release(String lane) {
+        ScheduledFuture<?> relax = m_raised.remove(lane);
+
+        if (relax != null) {
+            relax.cancel(false);
+        }
+    }
+
+    private Runnable relax(final String lane, final InterfaceService service) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionPriorityPolicy.this) {
+                    if (!m_raised.containsKey(lane)) {
+                        return;
+                    }
+
+                    if (m_idle_ms > 0 && m_scheduler.hasWork(lane, PendingRequest.Priority.BULK)) {
+                        m_raised.put(lane, m_executor.schedule(this, m_idle_ms, TimeUnit.MILLISECONDS));
+                        return;
+                    }
+
+                    m_raised.remove(lane);
+                    service.requestDeviceConnectionPriority(lane, BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+                    Log.d(TAG, "Connection priority of " + lane + " back to balanced.");
+                }
+            }
+        };
+    }
+}
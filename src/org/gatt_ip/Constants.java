@@ -40,6 +40,10 @@ public class Constants {
 	public static final String kGetRSSI                            = "au";
 	public static final String kInvalidatedServices                = "av";
 	public static final String kPeripheralNameUpdate               = "aw";
+	public static final String kRequestMTU                         = "ax";
+	public static final String kSetConnectionPriority              = "ay";
+	public static final String kOpenWriteStream                    = "az";
+	public static final String kCloseWriteStream                   = "a0";
 	public static final String kMessage                            = "zz";
 
 	//-------------------------------------- Keys ----------------------------------------
@@ -73,6 +77,11 @@ public class Constants {
 	public static final String kIdentifierKey                      = "bz";
 	public static final String kScanOptionAllowDuplicatesKey       = "b0";
 	public static final String kScanOptionSolicitedServiceUUIDs    = "b1";
+	public static final String kScanOptionManufacturerIds          = "b3";
+	public static final String kScanOptionPeripheralAddresses      = "b4";
+	public static final String kScanOptionReportDelay              = "b5";//batch report delay in milliseconds
+	public static final String kScanOptionPolicy                   = "c0";
+	public static final String kDeadline                           = "b9";//request deadline in milliseconds
 
 	//Advertisment Data for Peripheral Keys
 	public static final String kAdvertisementDataKey                           = "b2";
@@ -86,6 +95,12 @@ public class Constants {
 	public static final String kPeripheralBtAddress                            = "c1";
 	public static final String kRawAdvertisementData                           = "c2";
 	public static final String kScanRecord                                     = "c3";
+	public static final String kPriority                                       = "c4";
+	public static final String kCoalesced                                      = "c5";
+	public static final String kMTU                                            = "c6";
+	public static final String kConnectionPriority                             = "c7";
+	public static final String kWindow                                         = "c8";
+	public static final String kCredits                                        = "c9";
 
 
 	//Will Restore State Keys
@@ -113,6 +128,21 @@ public class Constants {
 	public static final String kPoweredOff                       = "co";
 	public static final String kPoweredOn                        = "cp";
 
+	//Request priority classes
+	public static final String kPriorityControl                  = "cq";
+	public static final String kPriorityInteractive              = "cr";
+	public static final String kPriorityBulk                     = "cs";
+
+	//Connection priorities
+	public static final String kConnectionPriorityBalanced       = "ct";
+	public static final String kConnectionPriorityHigh           = "cu";
+	public static final String kConnectionPriorityLowPower       = "cv";
+
+	//Scan policies
+	public static final String kScanPolicyContinuous             = "cw";
+	public static final String kScanPolicyWindowed               = "cx";
+	public static final String kScanPolicyAdaptive               = "cy";
+
 	//----------------------------------------- Error Values ------------------------------------------------
 	public static final String kError32001                     = "-32001";//Peripheral not Found
 	public static final String kError32002                     = "-32002";//Service not found
@@ -122,6 +152,8 @@ public class Constants {
 	public static final String kError32006                     = "-32006";//No Service Specified
 	public static final String kError32007                     = "-32007";//No Peripheral Identifer specified
 	public static final String kError32008                     = "-32008";//State restoration is only allowed with "bluetooth-central" background mode enabled
+	public static final String kError32009                     = "-32009";//Request queue is full
+	public static final String kError32010                     = "-32010";//Request superseded by a newer request
 
 	public static final String kInvalidRequest                 = "-32600";
 	public static final String kMethodNotFound                 = "-32601";
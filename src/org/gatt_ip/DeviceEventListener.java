@@ -1,6 +1,7 @@
 package org.gatt_ip;
 
 import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
 
 import java.util.List;
 
@@ -8,7 +9,8 @@ import java.util.List;
  * Created by vensi on 9/25/15.
  */
 public interface DeviceEventListener {
-    void onDeviceFound(String deviceIdentifier, String deviceName, int deviceSignal, List<String> serviceUUIDs, ScanRecord record, byte[] deviceData);
+    void onDeviceFound(String deviceIdentifier, String deviceName, int deviceSignal, ScanRecord record, byte[] deviceData);
+    void onDevicesFound(List<ScanResult> results);
     void onDeviceConnection(String deviceName, String deviceIdentifier);
     void onDeviceDisconnection(String deviceName, String deviceIdentifier);
     void onDeviceConnectionFailure(String deviceName, String deviceIdentifier, int status);
@@ -22,6 +24,7 @@ public interface DeviceEventListener {
     void onDeviceAttributeDescriptorRead(String deviceIdentifier, String serviceIdentifier, String attribIdentifier, String attribDescriptorIdentifier, byte[] attributeDescriptorValue, int status);
     void onDeviceAttributeDescriptoWrite(String deviceIdentifier, String serviceIdentifier, String attribIdentifier, String attribDescriptorIdentifier, int status);
     void onDeviceSignal(String deviceIdentifier, String deviceName, int signal, int status);
+    void onDeviceMtuChanged(String deviceIdentifier, int mtu, int status);
     void onError(Enum error);
     void sendResponseForWriteTypeNoReponse();
     void noConnectedDevices();
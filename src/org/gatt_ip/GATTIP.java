@@ -1,38 +1,55 @@
 package org.gatt_ip;
 
-import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.IBinder;
-import android.os.ParcelUuid;
 import android.util.Log;
-import android.util.SparseArray;
 
+import org.gatt_ip.lescanner.Advertisement;
+import org.gatt_ip.lescanner.AdvertisementParser;
+import org.gatt_ip.lescanner.ScanCriteria;
+import org.gatt_ip.lescanner.ScanScheduler;
+import org.gatt_ip.util.CborDecoder;
+import org.gatt_ip.util.CborEncoder;
+import org.gatt_ip.util.HexCodec;
+import org.gatt_ip.util.JsonEncoder;
+import org.gatt_ip.util.MessageEncoder;
+import org.gatt_ip.util.UUIDCodec;
 import org.gatt_ip.util.Util;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 
 public class GATTIP implements ServiceConnection, DeviceEventListener
 {
     private static final String TAG = GATTIP.class.getName();
-    private static final int MAX_NUMBER_OF_REQUESTS = 30;
+    private static final int DEFAULT_QUEUE_CAPACITY = 30;
 
-    private static boolean requestIsProcessing = false;
+    // what request() does when the queue of a request's priority class is full
+    public enum OverloadPolicy {
+        REJECT,             // answer the new request with a busy error
+        DROP_OLDEST_BULK,   // a new bulk request displaces the oldest queued bulk request
+        COALESCE            // a new request takes the place of a queued duplicate
+    }
 
     private final ScheduledExecutorService worker = Executors.newScheduledThreadPool(1);
 
@@ -40,23 +57,85 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
 
     private GATTIPListener m_listener;
 
-    private LinkedBlockingQueue<JSONObject> m_message_queue;
-    private static final int REQ_TIME_OUT_IN_MSG_QUEUE = 1000;
+    private GATTIPBinaryListener m_binary_listener;
+
+    // takes precedence over the other listeners; messages go out in pooled buffers
+    private volatile GATTIPBufferListener m_buffer_listener;
+
+    private final GATTIPBuffer.Pool m_buffer_pool = new GATTIPBuffer.Pool();
+
+    // notifications go out as CBOR frames rather than JSON text; responses follow the format of their request
+    private volatile boolean m_binary_notifications;
+
+    private static final long REQ_TIME_OUT_IN_MSG_QUEUE_MS = 50000;
+
+    // default deadlines, counted from the moment a request is dispatched
+    private static final long CONNECT_TIME_OUT_MS = 30000;
+    private static final long DISCOVERY_TIME_OUT_MS = 10000;
+    private static final long ATTRIBUTE_TIME_OUT_MS = 5000;
+    private static final long LOCAL_TIME_OUT_MS = 2000;
+
+    private static final int MAX_ATTRIBUTE_VALUE_LENGTH = 512;
+
+    private final RequestScheduler m_scheduler;
+
+    private final ConnectionPriorityPolicy m_connection_priority_policy;
+
+    // open write streams by peripheral and characteristic
+    private final ConcurrentHashMap<String, WriteStream> m_write_streams = new ConcurrentHashMap<>();
+
+    private volatile OverloadPolicy m_overload_policy = OverloadPolicy.REJECT;
+
+    // MTU negotiated with devices as they connect, 0 to leave the default
+    private volatile int m_auto_mtu;
+
+    // encoder for notifications and scan results, one per callback thread
+    private final ThreadLocal<JsonEncoder> m_encoder = new ThreadLocal<JsonEncoder>() {
+        @Override
+        protected JsonEncoder initialValue() {
+            return new JsonEncoder();
+        }
+    };
+
+    private final ThreadLocal<CborEncoder> m_binary_encoder = new ThreadLocal<CborEncoder>() {
+        @Override
+        protected CborEncoder initialValue() {
+            return new CborEncoder();
+        }
+    };
+
+    // decoded view of the advertisement being reported, one per scan callback thread
+    private final ThreadLocal<Advertisement> m_advertisement = new ThreadLocal<Advertisement>() {
+        @Override
+        protected Advertisement initialValue() {
+            return new Advertisement();
+        }
+    };
+
+    // reads incoming request text, one per calling thread
+    private final ThreadLocal<RequestReader> m_reader = new ThreadLocal<RequestReader>() {
+        @Override
+        protected RequestReader initialValue() {
+            return new RequestReader();
+        }
+    };
+
+    // request being dispatched or timed out on the current thread, so synchronous responses and errors find their request
+    private final ThreadLocal<PendingRequest> m_dispatching = new ThreadLocal<>();
 
     public BluetoothLEService m_service;
 
-    private List<String> m_filtered_services;
+    // what the current scan looks for, checked again here for scanners that cannot filter
+    private volatile ScanCriteria m_scan_criteria = ScanCriteria.ANY;
 
     private boolean m_notifications;
 
-    private JSONObject m_current_request;
     private String serviceId, characteristicId;
 
     private JSONObject charc_json;
     private JSONArray desc_json;
     private JSONObject scanDevices;
 
-    private ScheduledFuture<?> m_time_error_future;
     protected final ArrayList<DeviceEventListener> m_listeners = new ArrayList<>();
 
     private static Boolean m_isNotifying;
@@ -71,6 +150,7 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         try {
             m_service = (BluetoothLEService) ((BluetoothLEService.BluetoothLEBinder) iBinder).getService();
             m_service.registerDeviceEventListener(this);
+            m_service.setAutoNegotiateMtu(m_auto_mtu);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -98,69 +178,78 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
      */
     public GATTIP(Context ctx)
     {
-        m_message_queue = new LinkedBlockingQueue<>(MAX_NUMBER_OF_REQUESTS);
+        m_scheduler = new RequestScheduler(worker, m_request_dispatcher, DEFAULT_QUEUE_CAPACITY, REQ_TIME_OUT_IN_MSG_QUEUE_MS);
+        m_connection_priority_policy = new ConnectionPriorityPolicy(worker, m_scheduler);
+
+        setRequestTimeout(Constants.kConnect, CONNECT_TIME_OUT_MS);
+        setRequestTimeout(Constants.kDisconnect, DISCOVERY_TIME_OUT_MS);
+        setRequestTimeout(Constants.kGetServices, DISCOVERY_TIME_OUT_MS);
+        setRequestTimeout(Constants.kGetCharacteristicValue, ATTRIBUTE_TIME_OUT_MS);
+        setRequestTimeout(Constants.kWriteCharacteristicValue, ATTRIBUTE_TIME_OUT_MS);
+        setRequestTimeout(Constants.kGetDescriptorValue, ATTRIBUTE_TIME_OUT_MS);
+        setRequestTimeout(Constants.kWriteDescriptorValue, ATTRIBUTE_TIME_OUT_MS);
+        setRequestTimeout(Constants.kSetValueNotification, ATTRIBUTE_TIME_OUT_MS);
+        setRequestTimeout(Constants.kGetRSSI, ATTRIBUTE_TIME_OUT_MS);
+        setRequestTimeout(Constants.kRequestMTU, ATTRIBUTE_TIME_OUT_MS);
+        setRequestTimeout(Constants.kSetConnectionPriority, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kOpenWriteStream, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kCloseWriteStream, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kConfigure, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kCentralState, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kScanForPeripherals, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kStopScanning, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kGetCharacteristics, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kGetDescriptors, LOCAL_TIME_OUT_MS);
+        setRequestTimeout(Constants.kGetPeripheralState, LOCAL_TIME_OUT_MS);
 
         m_context = ctx;
         m_context.bindService(new Intent(m_context, BluetoothLEService.class), this, 0);
         m_context.startService(new Intent(m_context, BluetoothLEService.class));
+    }
 
-        m_filtered_services = new ArrayList<>();
-        m_current_request = new JSONObject();
+    // deadline for requests of the given method; a request can shorten it with kDeadline in its params
+    public void setRequestTimeout(String method, long timeoutMs)
+    {
+        m_scheduler.setTimeout(method, timeoutMs);
+    }
 
-        final Thread processing_thread = new Thread() {
-            @Override
-            public void run() {
-                while (true) {
-                    try {
-//                        processRequest(m_message_queue.take());
-                        JSONObject request = m_message_queue.poll();
+    // number of requests each priority class can hold before the overload policy applies
+    public void setQueueCapacity(int capacity)
+    {
+        m_scheduler.setCapacity(capacity);
+    }
 
-                        if (request == null) {
-                            request = m_message_queue.take();
-                        }
+    public int getQueueCapacity()
+    {
+        return m_scheduler.getCapacity();
+    }
 
-                        processRequest(request);
-                    } catch (JSONException | InterruptedException e) {
-                        // TODO: perhaps properly handle InterruptedException
-                        throw new RuntimeException(e);
-                    }
+    public void setOverloadPolicy(OverloadPolicy policy)
+    {
+        m_overload_policy = policy;
+    }
 
-                    int couter = 0;
-                    while (requestIsProcessing) {
-                        couter++;
-                        Log.d("MSG_QUEUE :", Integer.toString(couter) +": "+ requestIsProcessing);
-
-                        if(couter == REQ_TIME_OUT_IN_MSG_QUEUE){
-                            JSONObject currentReq = new JSONObject();
-                            try {
-                                if (m_current_request.has(Constants.kMethod)) {
-                                    String method = m_current_request.getString(Constants.kMethod);
-                                    currentReq.put(Constants.kResult, method);
-                                    JSONObject errorObj = new JSONObject();
-                                    errorObj.put(Constants.kMessageField, "Timed out while processing the Request");
-                                    currentReq.put(Constants.kError, errorObj);
-                                    sendResponse(currentReq, false);
-                                }else{
-                                    Log.w(TAG,"Timeout occurred, but we are not sending the response");
-                                    requestIsProcessing = false;
-                                }
-                            }catch (JSONException ex){
-                                ex.printStackTrace();
-                            }
-                            break;
-                        }
+    // MTU to request from every device as soon as it connects; 0 keeps the default MTU
+    public void setAutoNegotiateMtu(int mtu)
+    {
+        m_auto_mtu = mtu;
 
-                        try {
-                            Thread.sleep(50);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            }
-        };
+        if (m_service != null) {
+            m_service.setAutoNegotiateMtu(mtu);
+        }
+    }
+
+    // raise links to high connection priority while they have bulk requests, and back to balanced
+    // after they have had none for idleTimeoutMs; 0 turns the policy off
+    public void setAutoConnectionPriority(long idleTimeoutMs)
+    {
+        m_connection_priority_policy.setIdleTimeout(idleTimeoutMs);
+    }
 
-        processing_thread.start();
+    // last writer wins: a queued characteristic write is replaced by a newer write to the same characteristic
+    public void setWriteCoalescing(boolean enabled)
+    {
+        m_scheduler.setCoalesceWrites(enabled);
     }
 
     // set the reference for listener when we got request from client
@@ -169,6 +258,25 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         m_listener = GATTIPlistener;
     }
 
+    // receives the responses to requests that came in as CBOR frames
+    public void setGATTIPBinaryListener(GATTIPBinaryListener binaryListener)
+    {
+        m_binary_listener = binaryListener;
+    }
+
+    // receives every message in a pooled buffer instead of a String or byte[], each response in the
+    // format its request came in; the listener releases each buffer once it is done with it
+    public void setGATTIPBufferListener(GATTIPBufferListener bufferListener)
+    {
+        m_buffer_listener = bufferListener;
+    }
+
+    // whether notifications are sent as CBOR frames; a client with only a binary listener gets them as CBOR regardless
+    public void setBinaryNotifications(boolean binary)
+    {
+        m_binary_notifications = binary;
+    }
+
     public boolean isPoweredOn() {
         boolean isPowerOn = false;
         if (m_service != null) {
@@ -188,35 +296,194 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
     public void request(String gattipMesg) throws JSONException
     {
         if (gattipMesg == null) {
-            sendInvalidRequest();
+            sendInvalidRequest(false);
+            return;
+        }
+
+        // a request is read in one pass; only one the reader cannot take as it stands is parsed in full
+        if (isArray(gattipMesg)) {
+            List<RequestRecord> records = m_reader.get().readBatch(gattipMesg);
+
+            requestBatch(records != null ? records : recordsOf(new JSONArray(gattipMesg)), false);
+            return;
+        }
+
+        RequestRecord record = m_reader.get().read(gattipMesg);
+
+        if (record != null) {
+            requestSingle(new PendingRequest(record), false);
+        } else {
+            requestSingle(new PendingRequest(RequestRecord.of(new JSONObject(gattipMesg))), false);
+        }
+    }
+
+    // same as request(String) for a message framed as CBOR; the responses are sent as CBOR as well
+    public void request(byte[] gattipFrame) throws JSONException
+    {
+        if (gattipFrame == null) {
+            sendInvalidRequest(true);
             return;
         }
 
+        Object message;
+
         try {
-            // for handling multiple commands from client
-            JSONObject request = new JSONObject(gattipMesg);
-
-            //Before processing req, check if the BLEService is exists
-            if(m_service == null) {
-                String method = request.getString(Constants.kMethod);
-                String requestID = getRequestID(request);
-                String requestSessionId = getRequestSessionID(request);
-                sendGatewayDownResponse(method, requestID, requestSessionId);
-                return;
+            message = CborDecoder.decode(gattipFrame);
+        } catch (JSONException e) {
+            // a malformed or too deeply nested frame is answered rather than thrown back
+            Log.w(TAG, "Invalid frame: " + e.getMessage());
+            sendInvalidRequest(true);
+            return;
+        }
+
+        if (message instanceof JSONArray) {
+            requestBatch(recordsOf((JSONArray) message), true);
+        } else if (message instanceof JSONObject) {
+            requestSingle(new PendingRequest(RequestRecord.of((JSONObject) message)), true);
+        } else {
+            sendInvalidRequest(true);
+        }
+    }
+
+    // whether the text starts with an array, looking no further than its first character
+    private static boolean isArray(String text)
+    {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return text.charAt(i) == '[';
             }
+        }
+        return false;
+    }
+
+    private void requestSingle(PendingRequest pending, boolean binary) throws JSONException
+    {
+        pending.setBinary(binary);
+
+        //Before processing req, check if the BLEService is exists
+        if(m_service == null) {
+            String requestID = getRequestID(pending.getRecord());
+            String requestSessionId = getRequestSessionID(pending.getRecord());
+            sendGatewayDownResponse(pending.getMethod(), requestID, requestSessionId);
+            return;
+        }
 
-            if (!m_message_queue.offer(request)) {
-                Log.d(TAG, "LinkedBlockingQueue.offer: capacity full.");
+        // never blocks; when the queue is full the overload policy decides which request gives way
+        OverloadPolicy policy = m_overload_policy;
 
-                // If queue is full, we wait until we can add element.
-                m_message_queue.put(request);
+        if (!admitToWriteStream(pending)) {
+            sendRequestError(pending, Constants.kError32009, "No credits left on the write stream");
+            return;
+        }
+
+        sendDisplacedResponse(pending, m_scheduler.submit(pending, policy), policy);
+    }
+
+    // the records of a batch parsed in full, null in place of a member that is not a request object
+    private static List<RequestRecord> recordsOf(JSONArray requests)
+    {
+        ArrayList<RequestRecord> records = new ArrayList<>(requests.length());
+
+        for (int i = 0; i < requests.length(); i++) {
+            JSONObject request = requests.optJSONObject(i);
+            records.add(request == null ? null : RequestRecord.of(request));
+        }
+        return records;
+    }
+
+    // JSON-RPC batch: the members are queued together and answered with one response array
+    private void requestBatch(List<RequestRecord> requests, boolean binary) throws JSONException
+    {
+        if (requests.size() == 0) {
+            sendInvalidRequest(binary);
+            return;
+        }
+
+        RequestBatch batch = new RequestBatch(requests.size());
+        ArrayList<PendingRequest> members = new ArrayList<>(requests.size());
+
+        for (int i = 0; i < requests.size(); i++) {
+            RequestRecord request = requests.get(i);
+
+            if (request == null) {
+                // not a request object, its place in the batch is answered right away
+                JSONObject errorObj = new JSONObject();
+                JSONObject response = new JSONObject();
+
+                errorObj.put(Constants.kCode, Constants.kInvalidRequest);
+                errorObj.put(Constants.kMessageField, "Invalid Request.");
+                response.put(Constants.kError, errorObj);
+                response.put(Constants.kResult, "InvalidRequest");
+
+                PendingRequest invalid = new PendingRequest(new RequestRecord(), batch, i);
+
+                invalid.setBinary(binary);
+                sendResponse(response, invalid);
+            } else {
+                PendingRequest member = new PendingRequest(request, batch, i);
+
+                member.setBinary(binary);
+
+                if (admitToWriteStream(member)) {
+                    members.add(member);
+                } else {
+                    sendRequestError(member, Constants.kError32009, "No credits left on the write stream");
+                }
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         }
 
-//        TODO: Evaluate proper time out error.
-//        m_time_error_future = worker.schedule(m_time_out_error_thread, 10L, TimeUnit.SECONDS);
+        //Before processing req, check if the BLEService is exists
+        if (m_service == null) {
+            for (PendingRequest member : members) {
+                sendRequestError(member, Constants.kError32603, "Device is Down, Please restart the app");
+            }
+            return;
+        }
+
+        OverloadPolicy policy = m_overload_policy;
+        ArrayList<PendingRequest> displaced = m_scheduler.submitAll(members, policy);
+
+        for (int i = 0; i < members.size(); i++) {
+            sendDisplacedResponse(members.get(i), displaced.get(i), policy);
+        }
+    }
+
+    // a write on an open write stream takes one of its credits; false if none are left
+    private boolean admitToWriteStream(PendingRequest pending)
+    {
+        if (!Constants.kWriteCharacteristicValue.equals(pending.getMethod())) {
+            return true;
+        }
+
+        WriteStream stream = m_write_streams.get(WriteStream.keyFor(pending.getLaneKey(), pending.getAttribute()));
+
+        if (stream == null) {
+            return true;
+        }
+        if (!stream.acquire()) {
+            return false;
+        }
+
+        pending.setWriteStream(stream);
+        return true;
+    }
+
+    // answers whichever request had to give way when the new one was submitted
+    private void sendDisplacedResponse(PendingRequest submitted, PendingRequest displaced, OverloadPolicy policy) throws JSONException
+    {
+        if (displaced == null) {
+            return;
+        }
+
+        if (displaced == submitted) {
+            sendRequestError(submitted, Constants.kError32009, "Gateway is busy, please retry the Request later");
+        } else if (submitted.supersedes(displaced)) {
+            sendCoalescedResponse(displaced);
+        } else if (policy == OverloadPolicy.COALESCE) {
+            sendRequestError(displaced, Constants.kError32010, "Request superseded by a newer duplicate Request");
+        } else {
+            sendRequestError(displaced, Constants.kError32009, "Request dropped, the request queue is full");
+        }
     }
 
     /*
@@ -225,27 +492,45 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
 
     private void sendResponse(JSONObject jsonData, boolean notification) throws JSONException
     {
-        String request="", response = "";
+        PendingRequest pending = null;
 
-        if (m_listener == null) {
-            return;
+        if (!notification) {
+            pending = pendingRequestFor(jsonData);
+
+            if (pending == null) {
+                Log.w(TAG, "---->>>>>>>>>>>>>>> Req & Res are not matching");
+            }
         }
 
-//        if (m_time_error_future != null) {
-//            m_time_error_future.cancel(true);
-//            m_time_error_future = null;
-//        }
+        sendResponse(jsonData, pending);
+    }
 
-        jsonData.put(Constants.kJsonrpc, Constants.kJsonrpcVersion);
+    // sends the response on behalf of the given request and releases its lane
+    private void sendResponse(JSONObject jsonData, PendingRequest pending) throws JSONException
+    {
+        // requests sharing this one's read get a copy of the response under their own ids
+        List<PendingRequest> followers = pending == null ? Collections.<PendingRequest>emptyList() : pending.takeFollowers();
+
+        for (PendingRequest follower : followers) {
+            sendResponse(copyResponse(jsonData), follower);
+        }
+
+        // a streamed write gives its credit back and tells the client how many it has
+        WriteStream stream = pending == null ? null : pending.takeWriteStream();
 
-        if(m_current_request.has(Constants.kMethod))
-            request = m_current_request.getString(Constants.kMethod);
-        if(jsonData.has(Constants.kResult))
-            response = jsonData.getString(Constants.kResult);
+        if (stream != null) {
+            JSONObject params = jsonData.optJSONObject(Constants.kParams);
 
-        if (request.equals(response) && !notification) {
-            String requestID = getRequestID(m_current_request);
-            String requestSessionId = getRequestSessionID(m_current_request);
+            if (params == null) {
+                params = new JSONObject();
+                jsonData.put(Constants.kParams, params);
+            }
+            params.put(Constants.kCredits, stream.release());
+        }
+
+        if (pending != null) {
+            String requestID = getRequestID(pending.getRecord());
+            String requestSessionId = getRequestSessionID(pending.getRecord());
 
             if (requestID != null) {
                 jsonData.put(Constants.kRequestId, requestID);
@@ -253,34 +538,209 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
             if (requestSessionId != null) {
                 jsonData.put(Constants.kRequestSessionId, requestSessionId);
             }
-            requestIsProcessing = false;
-        }else if(!notification){
-            Log.w(TAG, "---->>>>>>>>>>>>>>> Req & Res are not matching");
-            requestIsProcessing = false;
         }
-        Log.v(TAG, "Sending Response : ---------->"+jsonData.toString());
-        m_listener.response(jsonData.toString());
+
+        jsonData.put(Constants.kJsonrpc, Constants.kJsonrpcVersion);
+
+        // a response that answers no request goes out as a notification would
+        boolean binary = pending != null ? pending.isBinary() : isBinaryNotification();
+
+        if (pending != null && pending.getBatch() != null) {
+            // batch members are held back until the whole batch is answered
+            JSONArray responses = pending.getBatch().respond(pending.getBatchIndex(), jsonData);
+
+            if (responses != null) {
+                deliver(responses, binary);
+            }
+        } else {
+            deliver(jsonData, binary);
+        }
+
+        if (pending != null) {
+            m_scheduler.complete(pending);
+        }
     }
 
-    // sending response to client for requested command
-    private void sendResponse(JSONObject jsonData) throws JSONException
+    // the request a response answers: the one being dispatched on this thread, otherwise the
+    // in-flight request registered for the response's (peripheral, attribute, operation)
+    private PendingRequest pendingRequestFor(JSONObject jsonData) throws JSONException
     {
-        sendResponse(jsonData, false);
+        PendingRequest dispatching = m_dispatching.get();
+
+        if (dispatching != null && !dispatching.isCompleted()) {
+            return dispatching;
+        }
+
+        if (!jsonData.has(Constants.kResult)) {
+            return null;
+        }
+
+        String operation = jsonData.getString(Constants.kResult);
+        JSONObject params = jsonData.optJSONObject(Constants.kParams);
+        String peripheral = "";
+
+        if (params != null && params.has(Constants.kPeripheralUUID)) {
+            peripheral = params.getString(Constants.kPeripheralUUID).toUpperCase(Locale.getDefault());
+        }
+
+        return m_scheduler.correlate(peripheral, InFlightTable.attributeOf(operation, params), operation);
     }
 
-    private void processRequest(JSONObject request) throws JSONException
+    // the request a callback for the given peripheral belongs to
+    private RequestRecord currentRequestFor(String deviceIdentifier)
     {
-        Log.d(TAG, "Processing Request :  <--------"+request.toString());
-        String method = null;
-        requestIsProcessing = true;
+        PendingRequest pending = m_dispatching.get();
 
-        m_current_request = request;
+        if (pending == null && deviceIdentifier != null) {
+            pending = m_scheduler.inFlight(deviceIdentifier.toUpperCase(Locale.getDefault()));
+        }
+        if (pending == null) {
+            pending = m_scheduler.inFlight(RequestScheduler.CONTROL_LANE);
+        }
 
-        try {
-            method = m_current_request.getString(Constants.kMethod);
-        } catch (JSONException e) {
-            e.printStackTrace();
+        return pending == null ? new RequestRecord() : pending.getRecord();
+    }
+
+    private final RequestScheduler.Dispatcher m_request_dispatcher = new RequestScheduler.Dispatcher() {
+        @Override
+        public void dispatch(PendingRequest request) {
+            m_connection_priority_policy.onDispatch(request, m_service);
+            m_dispatching.set(request);
+            try {
+                processRequest(request.getRecord());
+            } catch (JSONException e) {
+                e.printStackTrace();
+                m_scheduler.complete(request);
+            } finally {
+                m_dispatching.remove();
+            }
+        }
+
+        @Override
+        public void timeout(PendingRequest request) {
+            m_dispatching.set(request);
+            try {
+                sendTimeoutError(request.getMethod(), getRequestID(request.getRecord()), getRequestSessionID(request.getRecord()));
+            } catch (JSONException ex) {
+                ex.printStackTrace();
+            } finally {
+                m_dispatching.remove();
+            }
+        }
+    };
+
+    // whether notifications go out as CBOR: asked for and a byte listener is set, or a binary listener is all there is
+    private boolean isBinaryNotification()
+    {
+        if (m_listener == null && m_buffer_listener == null) {
+            return m_binary_listener != null;
         }
+        return m_binary_notifications && (m_buffer_listener != null || m_binary_listener != null);
+    }
+
+    // a response or batch of responses, as CBOR if binary and there is a listener for it, as JSON text otherwise;
+    // either way it is streamed through the thread's encoder rather than copied into a String first
+    private void deliver(Object message, boolean binary) throws JSONException
+    {
+        GATTIPBufferListener bufferListener = m_buffer_listener;
+        GATTIPBinaryListener binaryListener = m_binary_listener;
+
+        if (bufferListener != null) {
+            GATTIPBuffer buffer = m_buffer_pool.acquire();
+
+            if (binary) {
+                CborEncoder encoder = m_binary_encoder.get().reset().message(message);
+                buffer.put(encoder.buffer(), encoder.length(), true);
+            } else {
+                buffer.putUtf8(m_encoder.get().reset().message(message).chars());
+            }
+
+            Log.v(TAG, "Sending Response : ----------> " + buffer.length() + " bytes");
+            bufferListener.response(buffer);
+        } else if (binary && binaryListener != null) {
+            byte[] frame = CborEncoder.encode(message);
+
+            Log.v(TAG, "Sending Response : ----------> " + frame.length + " byte frame");
+            binaryListener.response(frame);
+        } else if (m_listener != null) {
+            String text = m_encoder.get().reset().message(message).toString();
+
+            Log.v(TAG, "Sending Response : ---------->"+text);
+            m_listener.response(text);
+        }
+    }
+
+    // encoder for a notification on the current thread, in the notification format
+    private MessageEncoder notificationEncoder()
+    {
+        if (isBinaryNotification()) {
+            return m_binary_encoder.get().reset();
+        }
+        return m_encoder.get().reset();
+    }
+
+    // notifications on the hot paths are encoded straight into the thread's encoder
+    private void sendNotification(MessageEncoder encoder)
+    {
+        GATTIPBufferListener bufferListener = m_buffer_listener;
+        GATTIPBinaryListener binaryListener = m_binary_listener;
+
+        if (bufferListener != null) {
+            GATTIPBuffer buffer = m_buffer_pool.acquire();
+
+            if (encoder instanceof CborEncoder) {
+                buffer.put(((CborEncoder) encoder).buffer(), encoder.length(), true);
+            } else {
+                buffer.putUtf8(((JsonEncoder) encoder).chars());
+            }
+            bufferListener.response(buffer);
+        } else if (encoder instanceof CborEncoder) {
+            if (binaryListener != null) {
+                binaryListener.response(((CborEncoder) encoder).toByteArray());
+            }
+        } else if (m_listener != null) {
+            String message = encoder.toString();
+
+            Log.v(TAG, "Sending Notification : ---------->"+message);
+            m_listener.response(message);
+        }
+    }
+
+    // a copy of the response a follower can put its own ids and credits into; only the top level
+    // and the params are copied, the values under them are shared and left as they are
+    private static JSONObject copyResponse(JSONObject jsonData) throws JSONException
+    {
+        JSONObject copy = copyMembers(jsonData);
+        JSONObject params = jsonData.optJSONObject(Constants.kParams);
+
+        if (params != null) {
+            copy.put(Constants.kParams, copyMembers(params));
+        }
+        return copy;
+    }
+
+    private static JSONObject copyMembers(JSONObject object) throws JSONException
+    {
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = object.keys();
+
+        while (keys.hasNext()) {
+            String key = keys.next();
+            copy.put(key, object.get(key));
+        }
+        return copy;
+    }
+
+    // sending response to client for requested command
+    private void sendResponse(JSONObject jsonData) throws JSONException
+    {
+        sendResponse(jsonData, false);
+    }
+
+    private void processRequest(RequestRecord request) throws JSONException
+    {
+        Log.d(TAG, "Processing Request :  <--------"+request.method+" "+request.id);
+        String method = request.method;
 
         if (method == null) {
             JSONObject errorObj = new JSONObject();
@@ -289,8 +749,8 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
             JSONObject jsonData = new JSONObject();
             jsonData.put(Constants.kError, errorObj);
 
-            String requestID = getRequestID(m_current_request);
-            String requestSessionID = getRequestSessionID(m_current_request);
+            String requestID = getRequestID(request);
+            String requestSessionID = getRequestSessionID(request);
 
             if(requestID != null) {
                 jsonData.put(Constants.kRequestId, requestID);
@@ -349,6 +809,18 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
             case Constants.kGetRSSI:
                 getRSSI(request);
                 break;
+            case Constants.kRequestMTU:
+                requestMTU(request);
+                break;
+            case Constants.kSetConnectionPriority:
+                setConnectionPriority(request);
+                break;
+            case Constants.kOpenWriteStream:
+                openWriteStream(request);
+                break;
+            case Constants.kCloseWriteStream:
+                closeWriteStream(request);
+                break;
             default:
                 JSONObject invalidMethod = new JSONObject();
                 invalidMethod.put("Error", "Your Method is invalid");
@@ -359,7 +831,7 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         Log.d(TAG, "Proccessing complete");
     }
 
-    private void configure(JSONObject reqObj) throws JSONException   {
+    private void configure(RequestRecord request) throws JSONException   {
         //        TODO: Needs to be discussed.
         List<BluetoothGatt> connected_devices = new ArrayList<>();
         if(m_service!=null) {
@@ -394,17 +866,16 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         sendResponse(response);
     }
 
-    private void scanForPeripherals(JSONObject reqObj) throws JSONException
+    private void scanForPeripherals(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
         if(scanDevices!=null) {
             scanDevices = null;
         }
         scanDevices = new JSONObject();
 
-        JSONObject params;
-        JSONArray servcieUUIDArray;
+        ScanCriteria criteria;
         boolean duplicates;
 
         if (!isPoweredOn()) {
@@ -412,37 +883,101 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
             return;
         }
 
-        // Clear the list of service IDs that are used for filtering scan.
-        m_filtered_services.clear();
+        // Clear the criteria that are used for filtering scan.
+        m_scan_criteria = ScanCriteria.ANY;
 
-        if (!reqObj.has(Constants.kParams)) {
+        if (!request.hasParams) {
             sendInvalidParameters(Constants.kScanForPeripherals, requestID, requestSessionId);
             return;
         }
 
-        params = reqObj.getJSONObject(Constants.kParams);
+        duplicates = request.allowsDuplicates();
 
-        duplicates = params.has(Constants.kScanOptionAllowDuplicatesKey) && params.getBoolean(Constants.kScanOptionAllowDuplicatesKey);
+        criteria = scanCriteria(request);
 
-        if (params.has(Constants.kServiceUUIDs)) {
-            servcieUUIDArray = params.getJSONArray(Constants.kServiceUUIDs);
+        if (criteria == null) {
+            sendInvalidParameters(Constants.kScanForPeripherals, requestID, requestSessionId);
+            return;
+        }
 
-            for (int i = 0; i < servcieUUIDArray.length(); i++) {
-                m_filtered_services.add(servcieUUIDArray.getString(i));
-            }
+        // results held back by the controller and delivered together, 0 to report each as it comes
+        long reportDelay = request.reportDelayMs();
+
+        if (reportDelay < 0) {
+            sendInvalidParameters(Constants.kScanForPeripherals, requestID, requestSessionId);
+            return;
+        }
+
+        ScanScheduler.Policy policy;
+
+        // continuous unless the client opts into pausing scans; a client asking for duplicates expects every sighting
+        switch (request.has(RequestRecord.SCAN_POLICY) ? request.scanPolicy : Constants.kScanPolicyContinuous) {
+            case Constants.kScanPolicyContinuous:
+                policy = ScanScheduler.Policy.CONTINUOUS;
+                break;
+            case Constants.kScanPolicyWindowed:
+                policy = ScanScheduler.Policy.WINDOWED;
+                break;
+            case Constants.kScanPolicyAdaptive:
+                policy = ScanScheduler.Policy.ADAPTIVE;
+                break;
+            default:
+                sendInvalidParameters(Constants.kScanForPeripherals, requestID, requestSessionId);
+                return;
         }
 
-        m_service.startDeviceDiscovery(0, duplicates);
+        m_scan_criteria = criteria;
+        m_service.startDeviceDiscovery(0, duplicates, criteria, reportDelay, policy);
         JSONObject response = new JSONObject();
         response.put(Constants.kResult, Constants.kScanForPeripherals);
         sendResponse(response);
     }
 
-    private void stopScanning(JSONObject reqObj) throws JSONException
+    // the services, manufacturer identifiers and addresses the scan asks for; null if one is not valid
+    private static ScanCriteria scanCriteria(RequestRecord request)
+    {
+        List<UUID> services = new ArrayList<>();
+        List<Integer> manufacturers = new ArrayList<>();
+        List<String> addresses = new ArrayList<>();
+
+        try {
+            for (int i = 0; request.has(RequestRecord.SERVICE_UUIDS) && i < request.serviceUUIDs.size(); i++) {
+                services.add(UUIDCodec.toUUID(request.serviceUUIDs.get(i)));
+            }
+
+            // company identifiers as numbers, or as the hex keys scan results carry them under
+            for (int i = 0; request.has(RequestRecord.MANUFACTURER_IDS) && i < request.manufacturerIds.size(); i++) {
+                Object id = request.manufacturerIds.get(i);
+                int value = id instanceof Number ? ((Number) id).intValue() : Integer.parseInt(id.toString(), 16);
+
+                if (value < 0 || value > 0xFFFF) {
+                    return null;
+                }
+                manufacturers.add(value);
+            }
+
+            // addresses in either of the forms scan results carry them in
+            for (int i = 0; request.has(RequestRecord.ADDRESSES) && i < request.addresses.size(); i++) {
+                String address = request.addresses.get(i).replace('-', ':').toUpperCase(Locale.US);
+
+                if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+                    return null;
+                }
+                addresses.add(address);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        ScanCriteria criteria = new ScanCriteria(services, manufacturers, addresses);
+        return criteria.isEmpty() ? ScanCriteria.ANY : criteria;
+    }
+
+    private void stopScanning(RequestRecord request) throws JSONException
     {
         JSONObject response;
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
         if (!isPoweredOn()) {
             sendReasonForFailedCall(Constants.kStopScanning, requestID, requestSessionId);
@@ -457,20 +992,17 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         m_service.stopDeviceDiscovery();
     }
 
-    private void connectPeripheral(JSONObject reqObj) throws JSONException
+    private void connectPeripheral(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
         if (!isPoweredOn()) {
             sendReasonForFailedCall(Constants.kConnect, requestID, requestSessionId);
         } else {
-            if (reqObj.has(Constants.kParams)) {
-                JSONObject parameters = reqObj.getJSONObject(Constants.kParams);
-
-                if (parameters.has(Constants.kPeripheralUUID)) {
-                    String address = parameters.getString(Constants.kPeripheralUUID);
-                    m_service.connectDevice(address);
+            if (request.hasParams) {
+                if (request.has(RequestRecord.PERIPHERAL)) {
+                    m_service.connectDevice(request.peripheral);
                 } else {
                     sendInvalidParameters(Constants.kConnect, requestID, requestSessionId);
                 }
@@ -480,21 +1012,18 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void disconnectPeripheral(JSONObject reqObj) throws JSONException
+    private void disconnectPeripheral(RequestRecord request) throws JSONException
     {
         // handle disconnect event
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
         if (!isPoweredOn()) {
             sendReasonForFailedCall(Constants.kDisconnect, requestID, requestSessionId);
         } else {
-            if(reqObj.has(Constants.kParams)) {
-                JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
-
-                if(jObj.has(Constants.kPeripheralUUID)) {
-                    String address = jObj.getString(Constants.kPeripheralUUID);
-                    m_service.disconnectDevice(address);
+            if(request.hasParams) {
+                if(request.has(RequestRecord.PERIPHERAL)) {
+                    m_service.disconnectDevice(request.peripheral);
                 } else {
                     sendInvalidParameters(Constants.kDisconnect, requestID, requestSessionId);
                 }
@@ -504,17 +1033,14 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void getServices(JSONObject reqObj) throws JSONException
+    private void getServices(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
-
-        if(reqObj.has(Constants.kParams)) {
-            JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-            if(jObj.has(Constants.kPeripheralUUID)) {
-                String peripheralAddress = jObj.getString(Constants.kPeripheralUUID);
-                m_service.getDeviceServices(peripheralAddress);
+        if(request.hasParams) {
+            if(request.has(RequestRecord.PERIPHERAL)) {
+                m_service.getDeviceServices(request.peripheral);
             } else {
                 sendInvalidParameters(Constants.kGetServices, requestID, requestSessionId);
             }
@@ -523,20 +1049,17 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void getCharacteristics(JSONObject reqObj) throws JSONException
+    private void getCharacteristics(RequestRecord request) throws JSONException
     {
         String serviceUUIDString;
-        JSONObject reqParameters;
 
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-        if(reqObj.has(Constants.kParams)){
-            reqParameters = reqObj.getJSONObject(Constants.kParams);
-
-            if(reqParameters.has(Constants.kServiceUUID)) {
-                serviceUUIDString = Util.ConvertUUID_16bitInto128bit(reqParameters.getString(Constants.kServiceUUID).toUpperCase(Locale.getDefault()));
-                m_service.getDeviceAttributes(serviceUUIDString);
+        if(request.hasParams){
+            if(request.has(RequestRecord.SERVICE)) {
+                serviceUUIDString = UUIDCodec.longForm(request.service);
+                m_service.getDeviceAttributes(getPeripheralUUID(request), serviceUUIDString);
             } else {
                 sendServiceNotFoundErrorMessage(Constants.kGetCharacteristics, requestID, requestSessionId);
             }
@@ -545,17 +1068,15 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void getDescriptors(JSONObject reqObj) throws JSONException
+    private void getDescriptors(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
-
-        if (reqObj.has(Constants.kParams)) {
-            JSONObject reqparameters = reqObj.getJSONObject(Constants.kParams);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-            if (reqparameters.has(Constants.kCharacteristicUUID)) {
-                String characteristicsUUIDString = Util.ConvertUUID_16bitInto128bit(reqparameters.getString(Constants.kCharacteristicUUID).toUpperCase(Locale.getDefault()));
-                m_service.getDeviceAttributeDescriptors(characteristicsUUIDString);
+        if (request.hasParams) {
+            if (request.has(RequestRecord.CHARACTERISTIC)) {
+                String characteristicsUUIDString = UUIDCodec.longForm(request.characteristic);
+                m_service.getDeviceAttributeDescriptors(getPeripheralUUID(request), characteristicsUUIDString);
             } else {
                 sendCharacteristicNotFoundErrorMessage(Constants.kGetDescriptors, requestID, requestSessionId);
             }
@@ -564,17 +1085,15 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void getCharacteristicValue(JSONObject reqObj) throws JSONException
+    private void getCharacteristicValue(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
-
-        if(reqObj.has(Constants.kParams)) {
-            JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-            if(jObj.has(Constants.kCharacteristicUUID)) {
-                String characteristicUUID =  Util.ConvertUUID_16bitInto128bit(jObj.getString(Constants.kCharacteristicUUID).toUpperCase(Locale.getDefault()));
-                m_service.getDeviceAttributeValue(characteristicUUID);
+        if(request.hasParams) {
+            if(request.has(RequestRecord.CHARACTERISTIC)) {
+                String characteristicUUID =  UUIDCodec.longForm(request.characteristic);
+                m_service.getDeviceAttributeValue(getPeripheralUUID(request), characteristicUUID);
             } else {
                 sendCharacteristicNotFoundErrorMessage(Constants.kGetCharacteristicValue, requestID, requestSessionId);
             }
@@ -583,30 +1102,47 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void writeCharacteristicValue(JSONObject reqObj) throws JSONException
+    private void writeCharacteristicValue(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-        if(reqObj.has(Constants.kParams)) {
-            JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
-
-            if(jObj.has(Constants.kCharacteristicUUID) && jObj.has(Constants.kValue)) {
+        if(request.hasParams) {
+            if(request.has(RequestRecord.CHARACTERISTIC) && request.has(RequestRecord.VALUE)) {
                 String writeType = null;
-                String characteristicUUID = Util.ConvertUUID_16bitInto128bit(jObj.getString(Constants.kCharacteristicUUID).toUpperCase(Locale.getDefault()));
+                String characteristicUUID = UUIDCodec.longForm(request.characteristic);
 
-                int length = jObj.getString(Constants.kValue).length();
-                if(length%2 != 0) {
+                String value = request.value;
+                int length = HexCodec.decodedLength(value);
+                if(length < 0) {
                     sendInvalidLength(Constants.kWriteCharacteristicValue ,requestID, requestSessionId);
                     return;
                 }
-                byte[] writeData = Util.hexStringToByteArray(jObj.getString(Constants.kValue));
+                byte[] writeData = new byte[length];
+                HexCodec.decode(value, writeData, 0);
+
+                // values longer than the MTU allows are segmented by the service, up to the ATT limit
+                if(writeData.length > MAX_ATTRIBUTE_VALUE_LENGTH) {
+                    sendInvalidLength(Constants.kWriteCharacteristicValue, requestID, requestSessionId);
+                    return;
+                }
 
-                if(jObj.has(Constants.kWriteType)) {
-                    writeType = Util.writeTypeForCharacteristicGiven(jObj.getString(Constants.kWriteType));
+                if(request.has(RequestRecord.WRITE_TYPE)) {
+                    writeType = Util.writeTypeForCharacteristicGiven(request.writeType);
                 }
 
-                m_service.writeDeviceAttributeValue(characteristicUUID, writeType, writeData);
+                PendingRequest pending = m_dispatching.get();
+
+                if (pending != null && pending.isStreamed()) {
+                    // a streamed write goes out as one write without response, which the stack would cut at the MTU
+                    if(writeData.length > m_service.getDeviceMtu(request.peripheral) - 3) {
+                        sendInvalidLength(Constants.kWriteCharacteristicValue, requestID, requestSessionId);
+                        return;
+                    }
+                    m_service.writeDeviceAttributeStream(getPeripheralUUID(request), characteristicUUID, writeData);
+                } else {
+                    m_service.writeDeviceAttributeValue(getPeripheralUUID(request), characteristicUUID, writeType, writeData);
+                }
             } else {
                 sendInvalidParameters(Constants.kWriteCharacteristicValue, requestID, requestSessionId);
             }
@@ -615,21 +1151,18 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void setValueNotification(JSONObject reqObj) throws JSONException
+    private void setValueNotification(RequestRecord request) throws JSONException
     {
         m_notifications = !m_notifications;
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
-
-        if(reqObj.has(Constants.kParams)) {
-            JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-            if(jObj.has(Constants.kCharacteristicUUID) && jObj.has(Constants.kIsNotifying)) {
-                String characteristicUUID = Util.ConvertUUID_16bitInto128bit(jObj.getString(Constants.kCharacteristicUUID).toUpperCase(Locale.getDefault()));
-                String subscribe = jObj.getString(Constants.kIsNotifying);
-                Boolean subscribeBOOL = subscribe.equals("true");
+        if(request.hasParams) {
+            if(request.has(RequestRecord.CHARACTERISTIC) && request.has(RequestRecord.NOTIFYING)) {
+                String characteristicUUID = UUIDCodec.longForm(request.characteristic);
+                Boolean subscribeBOOL = request.isNotifying();
                 m_isNotifying = subscribeBOOL;
-                m_service.getDeviceAttributeNotifications(characteristicUUID, subscribeBOOL);
+                m_service.getDeviceAttributeNotifications(getPeripheralUUID(request), characteristicUUID, subscribeBOOL);
             } else {
                 sendInvalidParameters(Constants.kSetValueNotification, requestID, requestSessionId);
             }
@@ -638,44 +1171,48 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void getDescriptorValue(JSONObject reqObj) throws JSONException
+    private void getDescriptorValue(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-        if(reqObj.has(Constants.kParams)) {
-            JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
-
-            if(jObj.has(Constants.kDescriptorUUID)) {
-                characteristicId = jObj.getString(Constants.kCharacteristicUUID).toUpperCase(Locale.getDefault());
-                serviceId = jObj.getString(Constants.kServiceUUID).toUpperCase(Locale.getDefault());
+        if(request.hasParams) {
+            if(!request.has(RequestRecord.DESCRIPTOR)) {
+                sendDescriptorNotFoundErrorMessage(Constants.kGetDescriptorValue, requestID, requestSessionId);
+            } else if(!request.has(RequestRecord.CHARACTERISTIC) || !request.has(RequestRecord.SERVICE)) {
+                sendInvalidParameters(Constants.kGetDescriptorValue, requestID, requestSessionId);
+            } else {
+                characteristicId = request.characteristic;
+                serviceId = request.service;
 
-                String descriptorUUID = Util.ConvertUUID_16bitInto128bit(jObj.getString(Constants.kDescriptorUUID).toUpperCase(Locale.getDefault()));
-                String characteristicUUID = Util.ConvertUUID_16bitInto128bit(jObj.getString(Constants.kCharacteristicUUID).toUpperCase(Locale.getDefault()));
-                String serviceUUID = Util.ConvertUUID_16bitInto128bit(jObj.getString(Constants.kServiceUUID).toUpperCase(Locale.getDefault()));
+                String descriptorUUID = UUIDCodec.longForm(request.descriptor);
+                String characteristicUUID = UUIDCodec.longForm(characteristicId);
+                String serviceUUID = UUIDCodec.longForm(serviceId);
 
-                m_service.getDeviceAttributeDescriptorValue(descriptorUUID, characteristicUUID, serviceUUID);
-            } else {
-                sendDescriptorNotFoundErrorMessage(Constants.kGetDescriptorValue, requestID, requestSessionId);
+                m_service.getDeviceAttributeDescriptorValue(getPeripheralUUID(request), descriptorUUID, characteristicUUID, serviceUUID);
             }
         } else {
             sendInvalidParameters(Constants.kGetDescriptorValue, requestID, requestSessionId);
         }
     }
 
-    private void writeDescriptorValue(JSONObject reqObj) throws JSONException
+    private void writeDescriptorValue(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-        if(reqObj.has(Constants.kParams)) {
-            JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
+        if(request.hasParams) {
+            if(request.has(RequestRecord.CHARACTERISTIC) && request.has(RequestRecord.DESCRIPTOR) && request.has(RequestRecord.VALUE)) {
+                String descriptorUUID = UUIDCodec.longForm(request.descriptor);
+                String value = request.value;
 
-            if(jObj.has(Constants.kCharacteristicUUID) && jObj.has(Constants.kValue)) {
-                String descriptorUUID = Util.ConvertUUID_16bitInto128bit(jObj.getString(Constants.kDescriptorUUID));
-                byte[] writeData = Util.hexStringToByteArray(jObj.getString(Constants.kValue));
+                if(!HexCodec.isValid(value)) {
+                    sendInvalidLength(Constants.kWriteDescriptorValue, requestID, requestSessionId);
+                    return;
+                }
+                byte[] writeData = HexCodec.decode(value);
 
-                m_service.writeDeviceAttributeDescriptorValue(descriptorUUID, writeData);
+                m_service.writeDeviceAttributeDescriptorValue(getPeripheralUUID(request), descriptorUUID, writeData);
             } else {
                 sendInvalidParameters(Constants.kWriteCharacteristicValue, requestID, requestSessionId);
             }
@@ -684,62 +1221,222 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         }
     }
 
-    private void getPeripheralState(JSONObject reqObj) throws JSONException
+    private void getPeripheralState(RequestRecord request) throws JSONException
+    {
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
+
+        // TODO: rewrte.
+        try {
+            if(request.hasParams) {
+                if(request.has(RequestRecord.PERIPHERAL)) {
+                    String peripheralAddress = request.peripheral;
+                    BluetoothGatt gatt = Util.peripheralIn(m_service.getConnectedDevices(), peripheralAddress);
+
+                    if (gatt == null) {
+                        sendPeripheralNotFoundErrorMessage(Constants.kGetPeripheralState, requestID, requestSessionId);
+                    } else {
+                        String peripheralState = Util.peripheralStateStringFromPeripheralState(gatt);
+                        JSONObject respObj = new JSONObject();
+                        respObj.put(Constants.kStateField, peripheralState);
+                        respObj.put(Constants.kMTU, m_service.getDeviceMtu(peripheralAddress));
+                        respObj.put(Constants.kConnectionPriority, connectionPriorityString(m_service.getDeviceConnectionPriority(peripheralAddress)));
+                        respObj.put(Constants.kError, null);
+                        respObj.put(Constants.kResult, Constants.kGetPeripheralState);
+
+                        sendResponse(respObj);
+                    }
+                } else {
+                    sendPeripheralNotFoundErrorMessage(Constants.kGetPeripheralState, requestID, requestSessionId);
+                }
+            } else {
+                sendInvalidParameters(Constants.kGetPeripheralState, requestID, requestSessionId);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void getRSSI(RequestRecord request) throws JSONException
+    {
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
+
+        if(request.hasParams) {
+            if(request.has(RequestRecord.PERIPHERAL)) {
+                m_service.getDeviceSignal(request.peripheral);
+            } else {
+                sendPeripheralNotFoundErrorMessage(Constants.kGetRSSI, requestID, requestSessionId);
+            }
+        } else {
+            sendInvalidParameters(Constants.kGetRSSI, requestID, requestSessionId);
+        }
+    }
+
+    private void requestMTU(RequestRecord request) throws JSONException
+    {
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
+
+        if(request.hasParams) {
+            if(!request.has(RequestRecord.PERIPHERAL)) {
+                sendPeripheralNotFoundErrorMessage(Constants.kRequestMTU, requestID, requestSessionId);
+            } else if(!request.has(RequestRecord.MTU)) {
+                sendInvalidParameters(Constants.kRequestMTU, requestID, requestSessionId);
+            } else {
+                m_service.requestDeviceMtu(request.peripheral, request.mtu());
+            }
+        } else {
+            sendInvalidParameters(Constants.kRequestMTU, requestID, requestSessionId);
+        }
+    }
+
+    private void setConnectionPriority(RequestRecord request) throws JSONException
+    {
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
+
+        if(!request.hasParams) {
+            sendInvalidParameters(Constants.kSetConnectionPriority, requestID, requestSessionId);
+            return;
+        }
+
+        int priority;
+
+        switch (request.has(RequestRecord.CONNECTION_PRIORITY) ? request.connectionPriority : "") {
+            case Constants.kConnectionPriorityBalanced:
+                priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+                break;
+            case Constants.kConnectionPriorityHigh:
+                priority = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+                break;
+            case Constants.kConnectionPriorityLowPower:
+                priority = BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER;
+                break;
+            default:
+                sendInvalidParameters(Constants.kSetConnectionPriority, requestID, requestSessionId);
+                return;
+        }
+
+        if(!request.has(RequestRecord.PERIPHERAL)) {
+            sendPeripheralNotFoundErrorMessage(Constants.kSetConnectionPriority, requestID, requestSessionId);
+            return;
+        }
+
+        String peripheralAddress = request.peripheral;
+
+        if (Util.peripheralIn(m_service.getConnectedDevices(), peripheralAddress) == null) {
+            sendPeripheralNotFoundErrorMessage(Constants.kSetConnectionPriority, requestID, requestSessionId);
+        } else if (!m_service.requestDeviceConnectionPriority(peripheralAddress, priority)) {
+            sendFailedToServeCharacteristicErrorMessage(Constants.kSetConnectionPriority, requestID, requestSessionId, "Failed to change the connection priority");
+        } else {
+            // the client's choice stands until it changes it again
+            m_connection_priority_policy.release(peripheralAddress.toUpperCase(Locale.getDefault()));
+
+            JSONObject parameters = new JSONObject();
+            JSONObject response = new JSONObject();
+
+            parameters.put(Constants.kPeripheralUUID, peripheralAddress);
+            parameters.put(Constants.kConnectionPriority, connectionPriorityString(priority));
+            response.put(Constants.kResult, Constants.kSetConnectionPriority);
+            response.put(Constants.kParams, parameters);
+
+            sendResponse(response);
+        }
+    }
+
+    // write-without-response to the characteristic becomes credit-based: the client may have
+    // kWindow writes outstanding and every write response carries the credits it has left
+    private void openWriteStream(RequestRecord request) throws JSONException
+    {
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
+
+        if(!request.hasParams) {
+            sendInvalidParameters(Constants.kOpenWriteStream, requestID, requestSessionId);
+            return;
+        }
+
+        int window = Math.min(request.window(WriteStream.DEFAULT_WINDOW), getQueueCapacity());
+
+        if(!request.has(RequestRecord.CHARACTERISTIC) || window <= 0) {
+            sendInvalidParameters(Constants.kOpenWriteStream, requestID, requestSessionId);
+            return;
+        }
+        if(!request.has(RequestRecord.PERIPHERAL)) {
+            sendPeripheralNotFoundErrorMessage(Constants.kOpenWriteStream, requestID, requestSessionId);
+            return;
+        }
+
+        String peripheralAddress = request.peripheral;
+
+        if (Util.peripheralIn(m_service.getConnectedDevices(), peripheralAddress) == null) {
+            sendPeripheralNotFoundErrorMessage(Constants.kOpenWriteStream, requestID, requestSessionId);
+            return;
+        }
+
+        String peripheral = peripheralAddress.toUpperCase(Locale.getDefault());
+        String key = WriteStream.keyFor(peripheral, InFlightTable.shortAttribute(request.characteristic));
+
+        // opening a stream again keeps it, and the writes outstanding on it, and only changes its window
+        WriteStream stream = m_write_streams.putIfAbsent(key, new WriteStream(peripheral, window));
+        int credits = stream == null ? window : stream.resize(window);
+
+        JSONObject parameters = new JSONObject();
+        JSONObject response = new JSONObject();
+
+        parameters.put(Constants.kPeripheralUUID, peripheralAddress);
+        parameters.put(Constants.kCharacteristicUUID, request.characteristic);
+        parameters.put(Constants.kWindow, window);
+        parameters.put(Constants.kCredits, credits);
+        response.put(Constants.kResult, Constants.kOpenWriteStream);
+        response.put(Constants.kParams, parameters);
+
+        sendResponse(response);
+    }
+
+    // writes already accepted on the stream still complete and report credits
+    private void closeWriteStream(RequestRecord request) throws JSONException
     {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        String requestID = getRequestID(request);
+        String requestSessionId = getRequestSessionID(request);
 
-        // TODO: rewrte.
-        try {
-            if(reqObj.has(Constants.kParams)) {
-                JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
+        if(!request.hasParams) {
+            sendInvalidParameters(Constants.kCloseWriteStream, requestID, requestSessionId);
+            return;
+        }
 
-                if(jObj.has(Constants.kPeripheralUUID)) {
-                    String peripheralAddress = jObj.getString(Constants.kPeripheralUUID);
-                    BluetoothGatt gatt = Util.peripheralIn(m_service.getConnectedDevices(), peripheralAddress);
+        if(!request.has(RequestRecord.PERIPHERAL) || !request.has(RequestRecord.CHARACTERISTIC)) {
+            sendInvalidParameters(Constants.kCloseWriteStream, requestID, requestSessionId);
+            return;
+        }
 
-                    if (gatt == null) {
-                        sendPeripheralNotFoundErrorMessage(Constants.kGetPeripheralState, requestID, requestSessionId);
-                    } else {
-                        String peripheralState = Util.peripheralStateStringFromPeripheralState(gatt);
-                        JSONObject respObj = new JSONObject();
-                        respObj.put(Constants.kStateField, peripheralState);
-                        respObj.put(Constants.kError, null);
-                        respObj.put(Constants.kResult, Constants.kGetPeripheralState);
+        String peripheral = request.peripheral.toUpperCase(Locale.getDefault());
+        m_write_streams.remove(WriteStream.keyFor(peripheral, InFlightTable.shortAttribute(request.characteristic)));
 
-                        sendResponse(respObj);
-                    }
-                } else {
-                    sendPeripheralNotFoundErrorMessage(Constants.kGetPeripheralState, requestID, requestSessionId);
-                }
-            } else {
-                sendInvalidParameters(Constants.kGetPeripheralState, requestID, requestSessionId);
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-    }
+        JSONObject parameters = new JSONObject();
+        JSONObject response = new JSONObject();
 
-    private void getRSSI(JSONObject reqObj) throws JSONException
-    {
-        String requestID = getRequestID(reqObj);
-        String requestSessionId = getRequestSessionID(reqObj);
+        parameters.put(Constants.kPeripheralUUID, request.peripheral);
+        parameters.put(Constants.kCharacteristicUUID, request.characteristic);
+        response.put(Constants.kResult, Constants.kCloseWriteStream);
+        response.put(Constants.kParams, parameters);
 
-        if(reqObj.has(Constants.kParams)) {
-            JSONObject jObj = reqObj.getJSONObject(Constants.kParams);
+        sendResponse(response);
+    }
 
-            if(jObj.has(Constants.kPeripheralUUID)) {
-                String peripheralAddress = jObj.getString(Constants.kPeripheralUUID);
-                m_service.getDeviceSignal(peripheralAddress);
-            } else {
-                sendPeripheralNotFoundErrorMessage(Constants.kGetRSSI, requestID, requestSessionId);
-            }
-        } else {
-            sendInvalidParameters(Constants.kGetRSSI, requestID, requestSessionId);
+    private static String connectionPriorityString(int priority)
+    {
+        switch (priority) {
+            case BluetoothGatt.CONNECTION_PRIORITY_HIGH:
+                return Constants.kConnectionPriorityHigh;
+            case BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER:
+                return Constants.kConnectionPriorityLowPower;
+            default:
+                return Constants.kConnectionPriorityBalanced;
         }
     }
 
-
     /*
     * Error Handling methods
     * */
@@ -850,14 +1547,16 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
 
     }
 
-    private void sendInvalidRequest() throws JSONException
+    // answers a message that could not be taken as a request, in the format it came in
+    private void sendInvalidRequest(boolean binary) throws JSONException
     {
         JSONObject errorObj = new JSONObject();
         errorObj.put(Constants.kCode, Constants.kInvalidRequest);
         JSONObject jsonData = new JSONObject();
         jsonData.put(Constants.kError, errorObj);
         jsonData.put(Constants.kResult, "InvalidRequest");
-        sendResponse(jsonData);
+        jsonData.put(Constants.kJsonrpc, Constants.kJsonrpcVersion);
+        deliver(jsonData, binary);
     }
 
     private void sendInvalidParameters(String method, String requestId, String requestSessionId) throws JSONException
@@ -876,50 +1575,80 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         sendResponse(response);
     }
 
-    private void sendTimeoutError() throws JSONException
+    private void sendTimeoutError(String method, String requestId, String requestSessionId) throws JSONException
     {
         JSONObject errorObj = new JSONObject();
         JSONObject response = new JSONObject();
 
-        response.put(Constants.kResult, "Timedout");
-
-        errorObj.put(Constants.kCode, "Timedout error");
+        response.put(Constants.kResult, method);
+        if(requestId!=null)
+            response.put(Constants.kRequestId, requestId);
+        if(requestSessionId!=null)
+            response.put(Constants.kRequestSessionId, requestSessionId);
 
+        errorObj.put(Constants.kCode, Constants.kError32603);
+        errorObj.put(Constants.kMessageField, "Timed out while processing the Request");
         response.put(Constants.kError, errorObj);
 
         sendResponse(response);
     }
 
-    private String getRequestID (JSONObject request) throws JSONException
+    // a write that was replaced by a newer write to the same characteristic before it went on air
+    private void sendCoalescedResponse(PendingRequest request) throws JSONException
     {
-        String requestID = "";
+        JSONObject parameters = new JSONObject();
+        JSONObject response = new JSONObject();
+        RequestRecord record = request.getRecord();
 
-        if (request != null) {
-            try {
-                if (request.has(Constants.kRequestId))
-                    requestID = request.getString(Constants.kRequestId);
-            } catch (JSONException ex) {
-                ex.printStackTrace();
-            }
-        }
+        parameters.put(Constants.kCharacteristicUUID, record.characteristic);
+        parameters.putOpt(Constants.kServiceUUID, record.has(RequestRecord.SERVICE) ? record.service : null);
+        parameters.put(Constants.kPeripheralUUID, record.peripheral);
+        parameters.put(Constants.kCoalesced, true);
+
+        response.put(Constants.kResult, Constants.kWriteCharacteristicValue);
+        response.put(Constants.kParams, parameters);
 
-        return requestID;
+        sendResponse(response, request);
     }
 
-    private String getRequestSessionID (JSONObject request) throws JSONException
+    // answers a request that never reached the front of its lane
+    private void sendRequestError(PendingRequest request, String code, String message) throws JSONException
     {
-        String requestSessionID = "";
+        JSONObject errorObj = new JSONObject();
+        JSONObject response = new JSONObject();
 
-        if (request != null) {
-            try {
-                if (request.has(Constants.kRequestSessionId))
-                    requestSessionID = request.getString(Constants.kRequestSessionId);
-            } catch (JSONException ex) {
-                ex.printStackTrace();
-            }
+        response.put(Constants.kResult, request.getMethod());
+
+        errorObj.put(Constants.kCode, code);
+        errorObj.put(Constants.kMessageField, message);
+        response.put(Constants.kError, errorObj);
+
+        sendResponse(response, request);
+    }
+
+    private String getRequestID (RequestRecord request)
+    {
+        return request == null || request.id == null ? "" : request.id;
+    }
+
+    private String getRequestSessionID (RequestRecord request)
+    {
+        return request == null || request.sessionId == null ? "" : request.sessionId;
+    }
+
+    // the method of the request a callback answers; a JSONException if there is none, as getString raised
+    private static String methodOf(RequestRecord request) throws JSONException
+    {
+        if (request.method == null) {
+            throw new JSONException("No value for " + Constants.kMethod);
         }
+        return request.method;
+    }
 
-        return requestSessionID;
+    // the peripheral a request addresses, or null to let the service search all connected devices
+    private String getPeripheralUUID(RequestRecord request)
+    {
+        return request.has(RequestRecord.PERIPHERAL) ? request.peripheral : null;
     }
 
     private void sendInvalidLength(String method, String requestId, String requestSessionId) throws JSONException{
@@ -973,206 +1702,294 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         sendResponse(response);
     }
 
-//    final Thread m_time_out_error_thread = new Thread(new Runnable() {
-//        @Override
-//        public void run() {
-//            try {
-//                sendTimeoutError();
-//            } catch (JSONException e) {
-//                throw new RuntimeException(e);
-//            }
-//        }
-//    });
-
 
     @Override
-    public void onDeviceFound(String deviceIdentifier, String deviceName, int deviceSignal, List<String> serviceUUIDs, ScanRecord record, byte[] deviceData)
+    public void onDeviceFound(String deviceIdentifier, String deviceName, int deviceSignal, ScanRecord record, byte[] deviceData)
     {
-        if(m_filtered_services.size()>0) {
-            int count = 0;
+        ScanCriteria criteria = m_scan_criteria;
 
-            for (int i = 0; i < serviceUUIDs.size(); i++) {
-                for (int j = 0; j < m_filtered_services.size(); j++) {
-                    if (serviceUUIDs.get(i).contains(m_filtered_services.get(j))) {
-                        count++;
-                    }
-                }
-            }
+        if(!criteria.isEmpty()) {
+            Advertisement advertisement = AdvertisementParser.parse(deviceData, m_advertisement.get());
 
-            if (count > 0) {
+            // the controller has filtered already where it can; this covers the scanners and chips that cannot
+            if (criteria.matches(deviceIdentifier, advertisement)) {
                 // call response method here
-                sendScanResponse(deviceIdentifier, deviceName, deviceSignal, record, deviceData);
+                sendScanResponse(deviceIdentifier, deviceName, deviceSignal, advertisement);
             }
-        } else {
-            try {
-
-                if (scanDevices == null) {
-                    scanDevices = new JSONObject();
-                }
+        } else if (!isRepeatedSighting(deviceIdentifier, deviceSignal, deviceData)) {
+            sendScanResponse(deviceIdentifier, deviceName, deviceSignal, deviceData);
+        }
+    }
 
-                if (scanDevices.length() > 0 && scanDevices.has(deviceIdentifier)) {
+    // a batch of scan results, reported in one notification carrying every peripheral that is wanted,
+    // each once with its latest sighting
+    @Override
+    public void onDevicesFound(List<ScanResult> results)
+    {
+        ScanCriteria criteria = m_scan_criteria;
+        Advertisement advertisement = m_advertisement.get();
+        MessageEncoder encoder = notificationEncoder();
+        LinkedHashMap<String, ScanResult> latest = new LinkedHashMap<>();
+        int reported = 0;
+
+        // in the order the devices first turn up in the batch
+        for (ScanResult result : results) {
+            if (result.getDevice() == null || result.getScanRecord() == null) {
+                continue;
+            }
 
-                    JSONObject tempPeripheral = scanDevices.getJSONObject(deviceIdentifier);
+            String deviceIdentifier = result.getDevice().getAddress().toUpperCase(Locale.getDefault());
+            ScanResult earlier = latest.get(deviceIdentifier);
 
-                    if (tempPeripheral.getString(Constants.kAdvertisementDataKey).equals(Util.byteArrayToHex(deviceData))) {
+            if (earlier == null || earlier.getTimestampNanos() <= result.getTimestampNanos()) {
+                latest.put(deviceIdentifier, result);
+            }
+        }
 
-                        int old_rssi = tempPeripheral.getInt(Constants.kRSSIkey);
-                        int diff_rssi;
+        encoder.beginObject()
+                .key(Constants.kResult).value(Constants.kScanForPeripherals)
+                .key(Constants.kParams).beginObject()
+                .key(Constants.kPeripherals).beginArray();
 
-                        if (old_rssi > deviceSignal) {
-                            diff_rssi = old_rssi - deviceSignal;
-                        } else {
-                            diff_rssi = deviceSignal - old_rssi;
-                        }
+        for (Map.Entry<String, ScanResult> entry : latest.entrySet()) {
+            String deviceIdentifier = entry.getKey();
+            ScanResult result = entry.getValue();
+            byte[] deviceData = result.getScanRecord().getBytes();
 
-                        if (diff_rssi < 8) {
-                            return;
-                        }
-                    }
-                }
+            AdvertisementParser.parse(deviceData, advertisement);
 
-                JSONObject tempPeripheral = new JSONObject();
-                tempPeripheral.put(Constants.kAdvertisementDataKey, Util.byteArrayToHex(deviceData));
-                tempPeripheral.put(Constants.kRSSIkey, deviceSignal);
+            if (criteria.isEmpty()
+                    ? isRepeatedSighting(deviceIdentifier, result.getRssi(), deviceData)
+                    : !criteria.matches(deviceIdentifier, advertisement)) {
+                continue;
+            }
 
-                scanDevices.put(deviceIdentifier, tempPeripheral);
+            encoder.beginObject();
+            writePeripheral(encoder, deviceIdentifier, result.getDevice().getName(), result.getRssi(), advertisement);
+            encoder.endObject();
+            reported++;
+        }
 
-            } catch (JSONException je){
-                je.printStackTrace();
-            }
+        encoder.endArray()
+                .endObject()
+                .key(Constants.kJsonrpc).value(Constants.kJsonrpcVersion)
+                .endObject();
 
-            sendScanResponse(deviceIdentifier, deviceName, deviceSignal, record, deviceData);
+        if (reported > 0) {
+            sendNotification(encoder);
         }
     }
 
-    @SuppressLint("NewApi")
-    public void sendScanResponse(String deviceIdentifier, String deviceName, int deviceSignal, ScanRecord scanRecord, byte[] deviceData) {
+    // whether the device was last reported with the same advertisement and much the same signal;
+    // records the sighting otherwise
+    private boolean isRepeatedSighting(String deviceIdentifier, int deviceSignal, byte[] deviceData)
+    {
         try {
-            JSONObject response = new JSONObject();
-            JSONObject parameters = new JSONObject();
-            JSONObject adParameters = new JSONObject();
+            String advertisementData = HexCodec.encode(deviceData);
 
-            if(deviceIdentifier != null) {
-                String btAddr = deviceIdentifier.replaceAll(":", "-");
-                parameters.put(Constants.kPeripheralBtAddress, btAddr);
-                parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
+            if (scanDevices == null) {
+                scanDevices = new JSONObject();
             }
 
-            parameters.put(Constants.kRSSIkey, deviceSignal);
+            if (scanDevices.length() > 0 && scanDevices.has(deviceIdentifier)) {
 
-            if(deviceName != null) {
-                parameters.put(Constants.kPeripheralName, deviceName);
-            } else {
-                parameters.put(Constants.kPeripheralName, deviceIdentifier);
-            }
+                JSONObject tempPeripheral = scanDevices.getJSONObject(deviceIdentifier);
+
+                if (tempPeripheral.getString(Constants.kAdvertisementDataKey).equals(advertisementData)) {
 
-            if(scanRecord != null){
-                //Parse ADV FLAGS for discoverable mode and capability of the device.
-                int advFlags = scanRecord.getAdvertiseFlags();
-                Log.d("ADV FLAGS: ", Integer.toString(advFlags) );
-                if(advFlags > -1){
-                    if ((advFlags & 2) == 2) {
-                        Log.d("discoverable mode :", "TRUE");
-                        parameters.put(Constants.kCBAdvertisementDataIsConnectable, true);
-                    }else{
-                        Log.d("discoverable mode :", "FALSE");
-                        parameters.put(Constants.kCBAdvertisementDataIsConnectable, false);
+                    int old_rssi = tempPeripheral.getInt(Constants.kRSSIkey);
+                    int diff_rssi;
+
+                    if (old_rssi > deviceSignal) {
+                        diff_rssi = old_rssi - deviceSignal;
+                    } else {
+                        diff_rssi = deviceSignal - old_rssi;
                     }
-                }
 
-                //Parse Service UUIDs
-                List<ParcelUuid> sUUIDs = scanRecord.getServiceUuids();
-                if(sUUIDs != null && sUUIDs.size() > 0) {
-                    Log.d("sUUIDs: ", sUUIDs.toString());
-                    JSONArray serviceUUIDs = Util.arrayOfServiceUUIDStringsFrom(sUUIDs);
-                    parameters.put(Constants.kCBAdvertisementDataServiceUUIDsKey, serviceUUIDs);
+                    if (diff_rssi < 8) {
+                        return true;
+                    }
                 }
+            }
 
-                //Parse Manufacturer Data
-                SparseArray<byte[]> mfrData = scanRecord.getManufacturerSpecificData();
-                if(mfrData != null && mfrData.size() > 0) {
-                    JSONObject mfrObj = new JSONObject();
-                    for (int i = 0; i < mfrData.size(); i++) {
-                        int intKey = mfrData.keyAt(i);
-                        String key = Integer.toHexString(intKey);
-                        String mfrKey = ("0000" + key).substring(key.length());
+            JSONObject tempPeripheral = new JSONObject();
+            tempPeripheral.put(Constants.kAdvertisementDataKey, advertisementData);
+            tempPeripheral.put(Constants.kRSSIkey, deviceSignal);
 
-                        byte[] value = mfrData.valueAt(i);
-                        String mfrValue = Util.byteArrayToHex(value);
+            scanDevices.put(deviceIdentifier, tempPeripheral);
 
-                        mfrObj.put(mfrKey, mfrValue);
-                        Log.d("mfrData  : ", mfrKey + ":" + mfrValue);
-                    }
-                    parameters.put(Constants.kCBAdvertisementDataManufacturerDataKey, mfrObj);
-                }
+        } catch (JSONException je){
+            je.printStackTrace();
+        }
+
+        return false;
+    }
 
-                //Parse Service Data
-                Map<ParcelUuid, byte[]> svcData = scanRecord.getServiceData();
-                if(svcData != null && svcData.size() > 0) {
-                    JSONObject svcObj = new JSONObject();
+    // the advertised fields are decoded from the raw record, so every API level reports the same ones
+    public void sendScanResponse(String deviceIdentifier, String deviceName, int deviceSignal, byte[] deviceData) {
+        sendScanResponse(deviceIdentifier, deviceName, deviceSignal, AdvertisementParser.parse(deviceData, m_advertisement.get()));
+    }
 
-                    for (ParcelUuid key : svcData.keySet()) {
-                        String sUUIDString = key.toString();
-                        String serviceUUIDString = Util.ConvertUUID_128bitInto16bit(sUUIDString.toUpperCase(Locale.getDefault()));
+    private void sendScanResponse(String deviceIdentifier, String deviceName, int deviceSignal, Advertisement advertisement) {
+        MessageEncoder encoder = notificationEncoder();
 
-                        byte[] value = svcData.get(key);
-                        String svcValue = Util.byteArrayToHex(value);
+        encoder.beginObject()
+                .key(Constants.kResult).value(Constants.kScanForPeripherals)
+                .key(Constants.kParams).beginObject();
 
-                        svcObj.put(serviceUUIDString, svcValue);
-                        Log.d("svcData  : ", serviceUUIDString + ":" + svcValue);
-                    }
-                    parameters.put(Constants.kCBAdvertisementDataServiceDataKey, svcObj);
-                }
+        writePeripheral(encoder, deviceIdentifier, deviceName, deviceSignal, advertisement);
 
-                //Parse TxPowerLevel value
-                int txPower = scanRecord.getTxPowerLevel();
-                Log.d("txPower: ", Integer.toString(txPower));
-                if(txPower != Integer.MIN_VALUE) {
-                    parameters.put(Constants.kCBAdvertisementDataTxPowerLevel, txPower);
-                }else{
-                    Log.d("txPower: NOT SET ",Integer.toString(txPower));
+        encoder.endObject()
+                .key(Constants.kJsonrpc).value(Constants.kJsonrpcVersion)
+                .endObject();
+
+        sendNotification(encoder);
+    }
+
+    // the fields of a scanned peripheral, into the object the encoder is in
+    private static void writePeripheral(MessageEncoder encoder, String deviceIdentifier, String deviceName, int deviceSignal, Advertisement advertisement) {
+        if(deviceIdentifier != null) {
+            encoder.key(Constants.kPeripheralBtAddress).value(deviceIdentifier.replace(':', '-'));
+            encoder.key(Constants.kPeripheralUUID).value(deviceIdentifier);
+        }
+
+        if(deviceName == null) {
+            deviceName = advertisement.hasLocalName() ? advertisement.localName() : deviceIdentifier;
+        }
+
+        encoder.key(Constants.kRSSIkey).value(deviceSignal);
+        encoder.key(Constants.kPeripheralName).value(deviceName);
+
+        //Parse ADV FLAGS for discoverable mode and capability of the device.
+        int advFlags = advertisement.flags();
+        if(advFlags > -1){
+            encoder.key(Constants.kCBAdvertisementDataIsConnectable).value((advFlags & 2) == 2);
+        }
+
+        //Parse Service UUIDs
+        int count = advertisement.serviceUUIDCount();
+        if(count > 0) {
+            encoder.key(Constants.kCBAdvertisementDataServiceUUIDsKey).beginArray();
+            for (int i = 0; i < count; i++) {
+                encoder.value(UUIDCodec.shortForm(advertisement.serviceUUIDMsb(i), advertisement.serviceUUIDLsb(i)));
+            }
+            encoder.endArray();
+        }
+
+        //Parse Solicited Service UUIDs
+        count = advertisement.solicitedUUIDCount();
+        if(count > 0) {
+            encoder.key(Constants.kCBAdvertisementDataSolicitedServiceUUIDsKey).beginArray();
+            for (int i = 0; i < count; i++) {
+                encoder.value(UUIDCodec.shortForm(advertisement.solicitedUUIDMsb(i), advertisement.solicitedUUIDLsb(i)));
+            }
+            encoder.endArray();
+        }
+
+        //Parse Manufacturer Data; a company repeated in the record keeps its last entry
+        count = advertisement.manufacturerDataCount();
+        if(count > 0) {
+            encoder.key(Constants.kCBAdvertisementDataManufacturerDataKey).beginObject();
+            for (int i = 0; i < count; i++) {
+                if (isRepeatedManufacturer(advertisement, i)) {
+                    continue;
                 }
+                String key = Integer.toHexString(advertisement.manufacturerId(i));
+                encoder.key(("0000" + key).substring(key.length())).hexValue(advertisement.record(),
+                        advertisement.manufacturerDataOffset(i), advertisement.manufacturerDataLength(i));
+            }
+            encoder.endObject();
+        }
 
-                //Parse Device Name
-                //String dName = scanRecord.getDeviceName();
-                //Log.d("Device Name: ", dName);
+        //Parse Service Data; a service repeated in the record keeps its last entry
+        count = advertisement.serviceDataCount();
+        if(count > 0) {
+            encoder.key(Constants.kCBAdvertisementDataServiceDataKey).beginObject();
+            for (int i = 0; i < count; i++) {
+                if (isRepeatedServiceData(advertisement, i)) {
+                    continue;
+                }
+                String serviceUUIDString = UUIDCodec.shortForm(advertisement.serviceDataUUIDMsb(i), advertisement.serviceDataUUIDLsb(i));
+                encoder.key(serviceUUIDString).hexValue(advertisement.record(),
+                        advertisement.serviceDataOffset(i), advertisement.serviceDataLength(i));
             }
+            encoder.endObject();
+        }
 
-            adParameters.put(Constants.kRawAdvertisementData, Util.byteArrayToHex(deviceData));
-            parameters.put(Constants.kAdvertisementDataKey, adParameters);
+        //Parse TxPowerLevel value
+        int txPower = advertisement.txPowerLevel();
+        if(txPower != Integer.MIN_VALUE) {
+            encoder.key(Constants.kCBAdvertisementDataTxPowerLevel).value(txPower);
+        }
 
-            response.put(Constants.kResult, Constants.kScanForPeripherals);
-            response.put(Constants.kParams, parameters);
+        encoder.key(Constants.kAdvertisementDataKey).beginObject()
+                .key(Constants.kRawAdvertisementData).hexValue(advertisement.record())
+                .endObject();
+    }
 
-            sendResponse(response, true);
-        } catch (JSONException je) {
-            je.printStackTrace();
+    // whether a later entry of the advertisement has the same company identifier
+    private static boolean isRepeatedManufacturer(Advertisement advertisement, int index) {
+        int id = advertisement.manufacturerId(index);
+
+        for (int i = index + 1; i < advertisement.manufacturerDataCount(); i++) {
+            if (advertisement.manufacturerId(i) == id) {
+                return true;
+            }
         }
+        return false;
     }
 
+    private static boolean isRepeatedServiceData(Advertisement advertisement, int index) {
+        long msb = advertisement.serviceDataUUIDMsb(index);
+        long lsb = advertisement.serviceDataUUIDLsb(index);
+
+        for (int i = index + 1; i < advertisement.serviceDataCount(); i++) {
+            if (advertisement.serviceDataUUIDMsb(i) == msb && advertisement.serviceDataUUIDLsb(i) == lsb) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     @Override
     public void onDeviceConnection(String deviceName, String deviceIdentifier)
     {
+        RequestRecord currentRequest = currentRequestFor(deviceIdentifier);
+
         try {
             if(deviceIdentifier!=null && !deviceIdentifier.isEmpty()){
 
                 m_service.getDeviceServices(deviceIdentifier);
             }
             else {
-                sendPeripheralNotFoundErrorMessage(Constants.kConnect, getRequestID(m_current_request), getRequestSessionID(m_current_request));
+                sendPeripheralNotFoundErrorMessage(Constants.kConnect, getRequestID(currentRequest), getRequestSessionID(currentRequest));
             }
         } catch (JSONException je) {
             je.printStackTrace();
         }
     }
 
+    // write streams and a priority the policy raised the link to do not outlive the link
+    private void forgetLink(String deviceIdentifier)
+    {
+        Iterator<WriteStream> streams = m_write_streams.values().iterator();
+        while (streams.hasNext()) {
+            if (streams.next().getPeripheral().equals(deviceIdentifier)) {
+                streams.remove();
+            }
+        }
+
+        m_connection_priority_policy.release(deviceIdentifier);
+    }
+
     @Override
     public void onDeviceDisconnection(String deviceName, String deviceIdentifier)
     {
         JSONObject parameters = new JSONObject();
         JSONObject response = new JSONObject();
 
+        forgetLink(deviceIdentifier);
+
         // send response to client
         try {
             // get the json data to send client
@@ -1221,6 +2038,8 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         JSONObject errorCode = new JSONObject();
         JSONObject parameters = new JSONObject();
 
+        forgetLink(deviceIdentifier);
+
         try {
             errorCode.put(Constants.kCode, Constants.kError32603);
             errorCode.put(Constants.kMessageField, "Unexpectedly disconnected");
@@ -1246,88 +2065,87 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
 
     @Override
     public void onDeviceServices(String deviceIdentifier, List services, int status) {
-        try {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                List<JSONObject> json_services = Util.listOfJsonServicesFrom(services);
+        RequestRecord currentRequest = currentRequestFor(deviceIdentifier);
 
-                JSONObject response = new JSONObject();
-                JSONObject parameters = new JSONObject();
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            List<JSONObject> json_services = Util.listOfJsonServicesFrom(services);
+
+            JSONObject response = new JSONObject();
+            JSONObject parameters = new JSONObject();
 
-                if( (m_current_request != null && m_current_request.has(Constants.kMethod)) && m_current_request.getString(Constants.kMethod).equals(Constants.kGetServices)) {
-                    try {
-                        parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
-                        parameters.put(Constants.kServices, new JSONArray(json_services));
+            if(Constants.kGetServices.equals(currentRequest.method)) {
+                try {
+                    parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
+                    parameters.put(Constants.kServices, new JSONArray(json_services));
 
-                        response.put(Constants.kResult, Constants.kGetServices);
-                        response.put(Constants.kParams, parameters);
+                    response.put(Constants.kResult, Constants.kGetServices);
+                    response.put(Constants.kParams, parameters);
 
-                        sendResponse(response);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
+                    sendResponse(response);
+                } catch (JSONException e) {
+                    e.printStackTrace();
                 }
-                else {
-                    try {
-                        JSONObject service_db = new JSONObject();
-
-                        if (json_services.size() > 0) {
-                            ListIterator<JSONObject> iterator = null;
-                            iterator = json_services.listIterator();
-
-                            while (iterator.hasNext()) {
-                                JSONObject service = iterator.next();
-                                m_service.getDeviceAttributes(service.getString(Constants.kServiceUUID));
-                                JSONObject jObjCharacteristics = new JSONObject();
-                                jObjCharacteristics.put(Constants.kServiceUUID, service.getString(Constants.kServiceUUID));
-                                jObjCharacteristics.put(Constants.kCharacteristics, charc_json);
-                                service_db.put(service.getString(Constants.kServiceUUID),jObjCharacteristics);
-                            }
+            }
+            else {
+                try {
+                    JSONObject service_db = new JSONObject();
+
+                    if (json_services.size() > 0) {
+                        ListIterator<JSONObject> iterator = null;
+                        iterator = json_services.listIterator();
+
+                        while (iterator.hasNext()) {
+                            JSONObject service = iterator.next();
+                            m_service.getDeviceAttributes(deviceIdentifier, service.getString(Constants.kServiceUUID));
+                            JSONObject jObjCharacteristics = new JSONObject();
+                            jObjCharacteristics.put(Constants.kServiceUUID, service.getString(Constants.kServiceUUID));
+                            jObjCharacteristics.put(Constants.kCharacteristics, charc_json);
+                            service_db.put(service.getString(Constants.kServiceUUID),jObjCharacteristics);
                         }
-                        parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
-                        parameters.put(Constants.kServices, service_db);
-
-                        response.put(Constants.kResult, Constants.kConnect);
-                        response.put(Constants.kParams, parameters);
-                        sendResponse(response);
                     }
-                    catch (JSONException je) {
-                        je.printStackTrace();
-                    }
-                }
-            } else {
-                try{
-                    JSONObject errorCode = new JSONObject();
-                    JSONObject parameters = new JSONObject();
-                    JSONObject response = new JSONObject();
-
-                    errorCode.put(Constants.kCode, Constants.kError32603);
-                    errorCode.put(Constants.kMessageField, "Failed to get services");
                     parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
+                    parameters.put(Constants.kServices, service_db);
+
+                    response.put(Constants.kResult, Constants.kConnect);
                     response.put(Constants.kParams, parameters);
-                    response.put(Constants.kResult, Constants.kGetServices);
-                    response.put(Constants.kError, errorCode);
                     sendResponse(response);
-
-                } catch (JSONException je) {
+                }
+                catch (JSONException je) {
                     je.printStackTrace();
                 }
             }
+        } else {
+            try{
+                JSONObject errorCode = new JSONObject();
+                JSONObject parameters = new JSONObject();
+                JSONObject response = new JSONObject();
 
-        } catch (JSONException je) {
-            je.printStackTrace();
+                errorCode.put(Constants.kCode, Constants.kError32603);
+                errorCode.put(Constants.kMessageField, "Failed to get services");
+                parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
+                response.put(Constants.kParams, parameters);
+                response.put(Constants.kResult, Constants.kGetServices);
+                response.put(Constants.kError, errorCode);
+                sendResponse(response);
+
+            } catch (JSONException je) {
+                je.printStackTrace();
+            }
         }
     }
 
     @Override
     public void onDeviceAttributes(String deviceIdentifier, String serviceIdentifier, List characteristics)
     {
+        RequestRecord currentRequest = currentRequestFor(deviceIdentifier);
+
         try {
             List<JSONObject> listOfCharacteristics = Util.listOfJsonCharacteristicsFrom(characteristics);
 
-            if( (m_current_request != null && m_current_request.has(Constants.kMethod)) && m_current_request.getString(Constants.kMethod).equals(Constants.kGetCharacteristics)) {
+            if(Constants.kGetCharacteristics.equals(currentRequest.method)) {
                 JSONObject parameters = new JSONObject();
                 JSONObject response = new JSONObject();
-                String serviceUUIDString = Util.ConvertUUID_128bitInto16bit(serviceIdentifier.toUpperCase(Locale.getDefault()));
+                String serviceUUIDString = UUIDCodec.shortForm(serviceIdentifier);
                 try {
                     parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
                     parameters.put(Constants.kServiceUUID, serviceUUIDString);
@@ -1348,7 +2166,7 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
 
                     while (iterator.hasNext()) {
                         JSONObject characteristic = iterator.next();
-                        m_service.getDeviceAttributeDescriptors(characteristic.getString(Constants.kCharacteristicUUID));
+                        m_service.getDeviceAttributeDescriptors(deviceIdentifier, characteristic.getString(Constants.kCharacteristicUUID));
                         characteristic.put(Constants.kDescriptors, desc_json);
                         charc_json.put(characteristic.getString(Constants.kCharacteristicUUID),characteristic);
                     }
@@ -1362,13 +2180,13 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
     @Override
     public void onDevcieAttributeRead(String deviceIdentifier, String serviceIdentifier, String attribIdentifier, byte[] attribValue, int status)
     {
-        String characteristicUUIDString = Util.ConvertUUID_128bitInto16bit(attribIdentifier.toUpperCase(Locale.getDefault()));
-        String serviceUUIDString = Util.ConvertUUID_128bitInto16bit(serviceIdentifier.toUpperCase(Locale.getDefault()));
+        String characteristicUUIDString = UUIDCodec.shortForm(attribIdentifier);
+        String serviceUUIDString = UUIDCodec.shortForm(serviceIdentifier);
         if(status == BluetoothGatt.GATT_SUCCESS) {
             JSONObject response = new JSONObject();
             JSONObject parameters = new JSONObject();
 
-            String characteristicValueString = Util.byteArrayToHex(attribValue);
+            String characteristicValueString = HexCodec.encode(attribValue);
 
             try {
                 parameters.put(Constants.kCharacteristicUUID, characteristicUUIDString);
@@ -1395,6 +2213,7 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
                 errorCode.put(Constants.kMessageField, "authorization failed");
 
                 parameters.put(Constants.kCharacteristicUUID, characteristicUUIDString);
+                parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
 
                 response.put(Constants.kResult, Constants.kGetCharacteristicValue);
                 response.put(Constants.kParams, parameters);
@@ -1414,6 +2233,7 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
                 errorCode.put(Constants.kMessageField, "Read data failed");
 
                 parameters.put(Constants.kCharacteristicUUID, characteristicUUIDString);
+                parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
                 response.put(Constants.kResult, Constants.kGetCharacteristicValue);
 
                 response.put(Constants.kParams, parameters);
@@ -1431,8 +2251,8 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
     {
         JSONObject parameters = new JSONObject();
         JSONObject response = new JSONObject();
-        String serviceUUIDString = Util.ConvertUUID_128bitInto16bit(serviceIdentifier.toUpperCase(Locale.getDefault()));
-        String characteristicUUIDString = Util.ConvertUUID_128bitInto16bit(attribIdentifier.toUpperCase(Locale.getDefault()));
+        String serviceUUIDString = UUIDCodec.shortForm(serviceIdentifier);
+        String characteristicUUIDString = UUIDCodec.shortForm(attribIdentifier);
 
         if (status == BluetoothGatt.GATT_SUCCESS) {
             try {
@@ -1477,25 +2297,29 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         JSONObject response = new JSONObject();
         JSONObject parameters = new JSONObject();
 
-        String characteristicUUIDString = Util.ConvertUUID_128bitInto16bit(attribIdentifier.toUpperCase(Locale.getDefault()));
-        String serviceUUIDString = Util.ConvertUUID_128bitInto16bit(serviceIdentifier.toUpperCase(Locale.getDefault()));
-        String characteristicValueString = Util.byteArrayToHex(attribValue);
+        String characteristicUUIDString = UUIDCodec.shortForm(attribIdentifier);
+        String serviceUUIDString = UUIDCodec.shortForm(serviceIdentifier);
 
         if (status == BluetoothGatt.GATT_SUCCESS) {
-            try {
-                parameters.put(Constants.kCharacteristicUUID, characteristicUUIDString);
-                parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
-                parameters.put(Constants.kServiceUUID, serviceUUIDString);
-                parameters.put(Constants.kIsNotifying, m_isNotifying);
-                parameters.put(Constants.kValue, characteristicValueString);
+            MessageEncoder encoder = notificationEncoder();
 
-                response.put(Constants.kResult, Constants.kSetValueNotification);
-                response.put(Constants.kParams, parameters);
+            encoder.beginObject()
+                    .key(Constants.kResult).value(Constants.kSetValueNotification)
+                    .key(Constants.kParams).beginObject()
+                    .key(Constants.kCharacteristicUUID).value(characteristicUUIDString)
+                    .key(Constants.kPeripheralUUID).value(deviceIdentifier)
+                    .key(Constants.kServiceUUID).value(serviceUUIDString);
 
-                sendResponse(response, true);
-            } catch (JSONException je) {
-                je.printStackTrace();
+            if (m_isNotifying != null) {
+                encoder.key(Constants.kIsNotifying).value(m_isNotifying);
             }
+
+            encoder.key(Constants.kValue).hexValue(attribValue)
+                    .endObject()
+                    .key(Constants.kJsonrpc).value(Constants.kJsonrpcVersion)
+                    .endObject();
+
+            sendNotification(encoder);
         } else {
             // error occur when we set notification for a characteristic
             try {
@@ -1523,15 +2347,17 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
     @Override
     public void onDeviceAttributeDescriptors(String deviceIdentifier, String serviceIdentifier, String attribIdentifier, List attribDescriptors)
     {
+        RequestRecord currentRequest = currentRequestFor(deviceIdentifier);
+
         try {
             List<JSONObject> descriptorArray = Util.listOfJsonDescriptorsFrom(attribDescriptors);
 
-            if( (m_current_request != null && m_current_request.has(Constants.kMethod)) && m_current_request.getString(Constants.kMethod).equals(Constants.kGetDescriptors)) {
+            if(Constants.kGetDescriptors.equals(currentRequest.method)) {
 
                 JSONObject parameters = new JSONObject();
                 JSONObject response = new JSONObject();
-                String characteristicUUIDString = Util.ConvertUUID_128bitInto16bit(attribIdentifier.toUpperCase(Locale.getDefault()));
-                String serviceUUIDString = Util.ConvertUUID_128bitInto16bit(serviceIdentifier.toUpperCase(Locale.getDefault()));
+                String characteristicUUIDString = UUIDCodec.shortForm(attribIdentifier);
+                String serviceUUIDString = UUIDCodec.shortForm(serviceIdentifier);
 
                 try {
                     parameters.put(Constants.kCharacteristicUUID, characteristicUUIDString);
@@ -1574,20 +2400,21 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
         JSONObject response = new JSONObject();
         JSONObject parameters = new JSONObject();
 
-        String descriptorUUIDString = Util.ConvertUUID_128bitInto16bit(attribDescriptorIdentifier.toUpperCase(Locale.getDefault()));
-        String characteristicUUIDString = Util.ConvertUUID_128bitInto16bit(attribIdentifier.toUpperCase(Locale.getDefault()));
-        String serviceUUIDString = Util.ConvertUUID_128bitInto16bit(serviceIdentifier.toUpperCase(Locale.getDefault()));
+        String descriptorUUIDString = UUIDCodec.shortForm(attribDescriptorIdentifier);
+        String characteristicUUIDString = UUIDCodec.shortForm(attribIdentifier);
+        String serviceUUIDString = UUIDCodec.shortForm(serviceIdentifier);
 
         if (status == BluetoothGatt.GATT_SUCCESS) {
             try {
                 //String desc_value = new String(attributeDescriptorValue,"UTF-8");
-                Log.d("Descriptor Value","in Hex- " + Util.byteArrayToHex(attributeDescriptorValue));
+                String descriptorValue = HexCodec.encode(attributeDescriptorValue);
+                Log.d("Descriptor Value","in Hex- " + descriptorValue);
 
                 parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
                 parameters.put(Constants.kServiceUUID, serviceUUIDString);
                 parameters.put(Constants.kCharacteristicUUID, characteristicUUIDString);
                 parameters.put(Constants.kDescriptorUUID, descriptorUUIDString);
-                parameters.put(Constants.kValue, Util.byteArrayToHex(attributeDescriptorValue));
+                parameters.put(Constants.kValue, descriptorValue);
 
                 response.put(Constants.kResult,Constants.kGetDescriptorValue);
                 response.put(Constants.kParams, parameters);
@@ -1606,6 +2433,7 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
                 errorObj.put(Constants.kMessageField, "Descriptor read failed");
 
                 parameters.put(Constants.kDescriptorUUID, descriptorUUIDString);
+                parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
 
                 response.put(Constants.kResult, Constants.kGetDescriptorValue);
                 response.put(Constants.kError, errorObj);
@@ -1621,15 +2449,17 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
     @Override
     public void onDeviceAttributeDescriptoWrite(String deviceIdentifier, String serviceIdentifier, String attribIdentifier, String attribDescriptorIdentifier, int status)
     {
+        RequestRecord currentRequest = currentRequestFor(deviceIdentifier);
+
         try {
             JSONObject response = new JSONObject();
             JSONObject parameters = new JSONObject();
 
-            String descriptorUUIDString = Util.ConvertUUID_128bitInto16bit(attribDescriptorIdentifier.toUpperCase(Locale.getDefault()));
-            String characteristicUUIDString = Util.ConvertUUID_128bitInto16bit(attribIdentifier.toUpperCase(Locale.getDefault()));
-            String serviceUUIDString = Util.ConvertUUID_128bitInto16bit(serviceIdentifier.toUpperCase(Locale.getDefault()));
+            String descriptorUUIDString = UUIDCodec.shortForm(attribDescriptorIdentifier);
+            String characteristicUUIDString = UUIDCodec.shortForm(attribIdentifier);
+            String serviceUUIDString = UUIDCodec.shortForm(serviceIdentifier);
 
-            String method = m_current_request.getString(Constants.kMethod);
+            String method = methodOf(currentRequest);
 
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 if (method.equals(Constants.kSetValueNotification)) {
@@ -1654,7 +2484,7 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
                     sendResponse(response);
                 }
             } else {
-                sendReasonForFailedCall(method, getRequestID(m_current_request), getRequestSessionID(m_current_request));
+                sendReasonForFailedCall(method, getRequestID(currentRequest), getRequestSessionID(currentRequest));
             }
         } catch (JSONException e) {
             e.printStackTrace();
@@ -1711,37 +2541,50 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
     }
 
     @Override
-    public void sendResponseForWriteTypeNoReponse()
+    public void onDeviceMtuChanged(String deviceIdentifier, int mtu, int status)
     {
+        // the answer to a client's kRequestMTU, or a notification of an MTU negotiated on connection
+        PendingRequest pending = m_scheduler.inFlight(deviceIdentifier.toUpperCase(Locale.getDefault()));
+        boolean requested = pending != null && Constants.kRequestMTU.equals(pending.getMethod());
+        JSONObject response = new JSONObject();
+        JSONObject parameters = new JSONObject();
+
         try {
-            JSONObject parameters = new JSONObject();
-            JSONObject response = new JSONObject();
+            parameters.put(Constants.kPeripheralUUID, deviceIdentifier);
+            parameters.put(Constants.kMTU, mtu);
 
-            if(m_current_request.has(Constants.kPeripheralUUID) && m_current_request.has(Constants.kServiceUUID) && m_current_request.has(Constants.kCharacteristicUUID)) {
-                String deviceUUIDString = m_current_request.getString(Constants.kPeripheralUUID);
-                String serviceUUIDString = m_current_request.getString(Constants.kServiceUUID);
-                String characteristicUUIDString = m_current_request.getString(Constants.kCharacteristicUUID);
+            response.put(Constants.kResult, Constants.kRequestMTU);
+            response.put(Constants.kParams, parameters);
 
-                parameters.put(Constants.kCharacteristicUUID, characteristicUUIDString);
-                parameters.put(Constants.kServiceUUID, serviceUUIDString);
-                parameters.put(Constants.kPeripheralUUID, deviceUUIDString);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                JSONObject errorObj = new JSONObject();
 
-                response.put(Constants.kResult, Constants.kWriteCharacteristicValue);
-                response.put(Constants.kParams, parameters);
-                sendResponse(response);
+                errorObj.put(Constants.kCode, Constants.kError32603);
+                errorObj.put(Constants.kMessageField, "Failed to change the MTU");
+                response.put(Constants.kError, errorObj);
             }
-        }catch (JSONException ex){
-            ex.printStackTrace();
+
+            sendResponse(response, !requested);
+        } catch (JSONException e) {
+            e.printStackTrace();
         }
     }
 
+    @Override
+    public void sendResponseForWriteTypeNoReponse()
+    {
+        // the response goes out from onCharacteristicWrite, which the platform calls for writes without response too
+    }
+
     @Override
     public void noConnectedDevices()
     {
+        RequestRecord currentRequest = currentRequestFor(null);
+
         try {
-            String method = this.m_current_request.getString(Constants.kMethod);
-            String requestId = getRequestID(this.m_current_request);
-            String requestSessionID = getRequestSessionID(this.m_current_request);
+            String method = methodOf(currentRequest);
+            String requestId = getRequestID(currentRequest);
+            String requestSessionID = getRequestSessionID(currentRequest);
             sendPeripheralNotFoundErrorMessage(method, requestId, requestSessionID);
         }catch (JSONException ex){
             ex.printStackTrace();
@@ -1751,10 +2594,12 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
     @Override
     public void onError(Enum error)
     {
+        RequestRecord currentRequest = currentRequestFor(null);
+
         try {
-            String requestId = getRequestID(this.m_current_request);
-            String requestSessionID = getRequestSessionID(this.m_current_request);
-            String method = this.m_current_request.getString(Constants.kMethod);
+            String requestId = getRequestID(currentRequest);
+            String requestSessionID = getRequestSessionID(currentRequest);
+            String method = methodOf(currentRequest);
 
             if(error.equals(InterfaceService.Error.DEVICE_NOT_FOUND)){
                 sendPeripheralNotFoundErrorMessage(method, requestId, requestSessionID);
@@ -1774,6 +2619,8 @@ public class GATTIP implements ServiceConnection, DeviceEventListener
                 sendFailedToServeDescriptorErrorMessage(method, requestId, requestSessionID, "Failed to Read the descriptor value");
             } else if(error.equals(InterfaceService.Error.ATTRIBUTE_DESCRIPTOR_WRITE_FAILED)) {
                 sendFailedToServeDescriptorErrorMessage(method, requestId, requestSessionID, "Failed to Write the value to the descriptor");
+            } else if(error.equals(InterfaceService.Error.MTU_REQUEST_FAILED)) {
+                sendFailedToServeCharacteristicErrorMessage(method, requestId, requestSessionID, "Failed to request the MTU");
             } else if(error.equals(InterfaceService.Error.PERMISSOIN_DENIED)) {
 
             } else if(error.equals(InterfaceService.Error.CONNECTION_FAILED)) {
@@ -0,0 +1,6 @@
+package org.gatt_ip;
+
+// receives GATT-IP messages as CBOR frames, see GATTIP.request(byte[])
+public interface GATTIPBinaryListener {
+	void response(byte[] gattipFrame);
+}
@@ -0,0 +1,149 @@
+package org.gatt_ip;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A GATT-IP message handed to a GATTIPBufferListener, in a buffer taken from the gateway's pool.
+ * The message is UTF-8 JSON text, or a CBOR frame when isBinary() is true.
+ *
+ * The listener owns the buffer from the response call until it calls release(), and must not
+ * touch it afterwards: release() returns the buffer to the pool and the next message overwrites
+ * it. A buffer that is never released is not lost, it is just left to the garbage collector.
+ */
+public final class GATTIPBuffer {
+    private final Pool m_pool;
+    private byte[] m_data;
+    private int m_length;
+    private boolean m_binary;
+    private boolean m_released;
+
+    private GATTIPBuffer(Pool pool, int capacity) {
+        m_pool = pool;
+        m_data = new byte[capacity];
+    }
+
+    // the backing array; the message is its first length() bytes, starting at offset()
+    public byte[] array() {
+        return m_data;
+    }
+
+    public int offset() {
+        return 0;
+    }
+
+    public int length() {
+        return m_length;
+    }
+
+    public boolean isBinary() {
+        return m_binary;
+    }
+
+    // the message as a ByteBuffer over the same bytes, positioned at its start
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(m_data, 0, m_length);
+    }
+
+    // hands the buffer back to the gateway; later calls are ignored
+    public void release() {
+        synchronized (this) {
+            if (m_released) {
+                return;
+            }
+            m_released = true;
+        }
+        m_pool.recycle(this);
+    }
+
+    void put(byte[] data, int length, boolean binary) {
+        ensure(length);
+        System.arraycopy(data, 0, m_data, 0, length);
+        m_length = length;
+        m_binary = binary;
+    }
+
+    // the text encoded as UTF-8, without going through an intermediate String
+    void putUtf8(CharSequence text) {
+        int length = text.length();
+        int size = 0;
+
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+
+            if (size + 4 > m_data.length) {
+                m_data = Arrays.copyOf(m_data, Math.max(m_data.length * 2, size + 4));
+            }
+
+            if (c < 0x80) {
+                m_data[size++] = (byte) c;
+            } else if (c < 0x800) {
+                m_data[size++] = (byte) (0xC0 | (c >> 6));
+                m_data[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+
+                m_data[size++] = (byte) (0xF0 | (codePoint >> 18));
+                m_data[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                m_data[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                m_data[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced the way String.getBytes does
+                m_data[size++] = '?';
+            } else {
+                m_data[size++] = (byte) (0xE0 | (c >> 12));
+                m_data[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                m_data[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        m_length = size;
+        m_binary = false;
+    }
+
+    private void ensure(int capacity) {
+        if (capacity > m_data.length) {
+            m_data = Arrays.copyOf(m_data, Math.max(m_data.length * 2, capacity));
+        }
+    }
+
+    /**
+     * Buffers released by the listener, kept for the next messages. Buffers that grew past
+     * MAX_POOLED_CAPACITY for an unusually large message are dropped rather than kept around.
+     */
+    static final class Pool {
+        private static final int MAX_POOLED = 16;
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+        private final GATTIPBuffer[] m_free = new GATTIPBuffer[MAX_POOLED];
+        private int m_count;
+
+        GATTIPBuffer acquire() {
+            GATTIPBuffer buffer = null;
+
+            synchronized (this) {
+                if (m_count > 0) {
+                    buffer = m_free[--m_count];
+                    m_free[m_count] = null;
+                }
+            }
+
+            if (buffer == null) {
+                return new GATTIPBuffer(this, INITIAL_CAPACITY);
+            }
+            synchronized (buffer) {
+                buffer.m_released = false;
+            }
+            return buffer;
+        }
+
+        private synchronized void recycle(GATTIPBuffer buffer) {
+            if (m_count < MAX_POOLED && buffer.m_data.length <= MAX_POOLED_CAPACITY) {
+                buffer.m_length = 0;
+                m_free[m_count++] = buffer;
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package org.gatt_ip;
+
+// receives GATT-IP messages in pooled buffers; see GATTIPBuffer for who owns the buffer when
+public interface GATTIPBufferListener {
+	void response(GATTIPBuffer gattipMsg);
+}
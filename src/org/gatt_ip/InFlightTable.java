@@ -0,0 +1,125 @@
+package org.gatt_ip;
+
+import org.gatt_ip.util.UUIDCodec;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Correlates GATT callbacks with the requests that caused them. A request is registered under
+ * (peripheral, attribute, operation) when it is dispatched and taken out again by the response
+ * that answers it. An empty peripheral or attribute is unknown and matches any value, so
+ * callbacks for requests that did not name a peripheral still find their request.
+ */
+final class InFlightTable {
+    private final LinkedHashMap<String, ArrayDeque<PendingRequest>> m_entries = new LinkedHashMap<>();
+
+    synchronized void register(PendingRequest request) {
+        String key = keyFor(request.getLaneKey(), request.getAttribute(), request.getMethod());
+        ArrayDeque<PendingRequest> requests = m_entries.get(key);
+
+        if (requests == null) {
+            requests = new ArrayDeque<>();
+            m_entries.put(key, requests);
+        }
+        requests.add(request);
+    }
+
+    synchronized boolean remove(PendingRequest request) {
+        String key = keyFor(request.getLaneKey(), request.getAttribute(), request.getMethod());
+        ArrayDeque<PendingRequest> requests = m_entries.get(key);
+
+        if (requests == null || !requests.remove(request)) {
+            return false;
+        }
+        if (requests.isEmpty()) {
+            m_entries.remove(key);
+        }
+        return true;
+    }
+
+    // removes and returns the oldest request the callback answers, preferring an exact match
+    synchronized PendingRequest take(String peripheral, String attribute, String operation) {
+        String key = keyFor(peripheral, attribute, operation);
+
+        if (!m_entries.containsKey(key)) {
+            key = null;
+
+            for (Map.Entry<String, ArrayDeque<PendingRequest>> entry : m_entries.entrySet()) {
+                PendingRequest candidate = entry.getValue().peek();
+
+                if (operation.equals(candidate.getMethod())
+                        && matches(peripheral, candidate.getLaneKey())
+                        && matches(attribute, candidate.getAttribute())) {
+                    key = entry.getKey();
+                    break;
+                }
+            }
+
+            if (key == null) {
+                return null;
+            }
+        }
+
+        ArrayDeque<PendingRequest> requests = m_entries.get(key);
+        PendingRequest request = requests.poll();
+
+        if (requests.isEmpty()) {
+            m_entries.remove(key);
+        }
+        return request;
+    }
+
+    // the params field naming the attribute an operation works on, or null if it has none
+    static String attributeFieldFor(String method) {
+        if (method == null) {
+            return null;
+        }
+
+        switch (method) {
+            case Constants.kGetCharacteristics:
+                return Constants.kServiceUUID;
+            case Constants.kGetDescriptors:
+            case Constants.kGetCharacteristicValue:
+            case Constants.kWriteCharacteristicValue:
+            case Constants.kSetValueNotification:
+                return Constants.kCharacteristicUUID;
+            case Constants.kGetDescriptorValue:
+            case Constants.kWriteDescriptorValue:
+                return Constants.kDescriptorUUID;
+            default:
+                return null;
+        }
+    }
+
+    // attribute key of a request or response, in the short form callbacks report UUIDs in
+    static String attributeOf(String method, JSONObject params) {
+        String field = attributeFieldFor(method);
+
+        if (field == null || params == null || !params.has(field)) {
+            return "";
+        }
+
+        return shortAttribute(params.optString(field).toUpperCase(Locale.getDefault()));
+    }
+
+    // the short form of an upper case attribute UUID, which requests and callbacks are matched on
+    static String shortAttribute(String uuid) {
+        try {
+            return UUIDCodec.shortForm(uuid);
+        } catch (NumberFormatException e) {
+            return uuid;
+        }
+    }
+
+    private static boolean matches(String value, String registered) {
+        return value.isEmpty() || registered.isEmpty() || value.equals(registered);
+    }
+
+    private static String keyFor(String peripheral, String attribute, String operation) {
+        return operation + '|' + peripheral + '|' + attribute;
+    }
+}
@@ -7,6 +7,9 @@ import android.content.Intent;
 import android.os.Binder;
 import android.util.Log;
 
+import org.gatt_ip.lescanner.ScanCriteria;
+import org.gatt_ip.lescanner.ScanScheduler;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,6 +42,8 @@ public abstract class InterfaceService extends Service {
         ATTRIBUTE_DESCRIPTOR_READ_FAILED,
         ATTRIBUTE_DESCRIPTOR_WRITE_FAILED,
 
+        MTU_REQUEST_FAILED,
+
         CONNECTION_FAILED,
         PERMISSOIN_DENIED
 
@@ -87,6 +92,11 @@ public abstract class InterfaceService extends Service {
 
     public abstract void startDeviceDiscovery(int timeout, boolean duplicates);
 
+    // discovery of only the devices that match the criteria, with scans spread over time by the
+    // policy; results are delivered in batches every reportDelay ms where the controller can hold
+    // them, and one at a time for 0
+    public abstract void startDeviceDiscovery(int timeout, boolean duplicates, ScanCriteria criteria, long reportDelay, ScanScheduler.Policy policy);
+
     public abstract void stopDeviceDiscovery();
 
     public abstract void connectDevice(String deviceIdentifier);
@@ -95,19 +105,36 @@ public abstract class InterfaceService extends Service {
 
     public abstract void getDeviceServices(String deviceIdentifier);
 
-    public abstract void getDeviceAttributes(String serviceIdentifier);
+    // Attribute operations take the identifier of the device they address; a null
+    // deviceIdentifier looks the attribute up on every connected device.
+
+    public abstract void getDeviceAttributes(String deviceIdentifier, String serviceIdentifier);
+
+    public abstract void getDeviceAttributeDescriptors(String deviceIdentifier, String attributeIdentifier);
 
-    public abstract void getDeviceAttributeDescriptors(String attributeIdentifier);
+    public abstract void getDeviceAttributeValue(String deviceIdentifier, String attributeIdentifier);
 
-    public abstract void getDeviceAttributeValue(String attributeIdentifier);
+    public abstract void getDeviceAttributeNotifications(String deviceIdentifier, String attributeIdentifier, boolean enable);
 
-    public abstract void getDeviceAttributeNotifications(String attributeIdentifier, boolean enable);
+    public abstract void writeDeviceAttributeValue(String deviceIdentifier, String attributeIdentifier, String writeType, byte[] data);
 
-    public abstract void writeDeviceAttributeValue(String attributeIdentifier, String writeType, byte[] data);
+    // write without response that is confirmed through onDeviceAttributeWrite once the stack took it
+    public abstract void writeDeviceAttributeStream(String deviceIdentifier, String attributeIdentifier, byte[] data);
 
-    public abstract void getDeviceAttributeDescriptorValue(String attributeDescriptorIdentifier, String attributeIdentifier, String serviceIdentifier);
+    public abstract void getDeviceAttributeDescriptorValue(String deviceIdentifier, String attributeDescriptorIdentifier, String attributeIdentifier, String serviceIdentifier);
 
-    public abstract void writeDeviceAttributeDescriptorValue(String attributeDescriptorIdentifier, byte[] data);
+    public abstract void writeDeviceAttributeDescriptorValue(String deviceIdentifier, String attributeDescriptorIdentifier, byte[] data);
 
     public abstract void getDeviceSignal(String deviceIdentifier);
+
+    public abstract void requestDeviceMtu(String deviceIdentifier, int mtu);
+
+    // the ATT MTU negotiated with the device, or the default of 23 if none was negotiated
+    public abstract int getDeviceMtu(String deviceIdentifier);
+
+    // there is no callback for connection priority changes; returns whether the request was accepted
+    public abstract boolean requestDeviceConnectionPriority(String deviceIdentifier, int priority);
+
+    // the BluetoothGatt.CONNECTION_PRIORITY_* last requested for the device, balanced by default
+    public abstract int getDeviceConnectionPriority(String deviceIdentifier);
 }
@@ -0,0 +1,251 @@
+package org.gatt_ip;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A GATT-IP request accepted by the scheduler together with its completion state.
+ * The response path completes it exactly once, which releases its lane.
+ */
+final class PendingRequest {
+    // dispatch classes, in the order a lane serves them
+    enum Priority {
+        CONTROL,
+        INTERACTIVE,
+        BULK
+    }
+
+    private final RequestRecord m_record;
+    private final String m_method;
+    private final String m_lane_key;
+    private final String m_attribute;
+    private final long m_deadline_ms;
+    private final Priority m_priority;
+    private final long m_accepted_at = SystemClock.elapsedRealtime();
+    private final AtomicBoolean m_completed = new AtomicBoolean(false);
+
+    // the batch the request arrived in and its position there, or null if it came on its own
+    private final RequestBatch m_batch;
+    private final int m_batch_index;
+
+    private volatile ScheduledFuture<?> m_timeout;
+
+    // whether the request came in as a CBOR frame, and is to be answered as one
+    private volatile boolean m_binary;
+
+    // the write stream whose credit this request holds, until its response goes out
+    private WriteStream m_write_stream;
+
+    // identical requests answered together with this one; null once the response has gone out
+    private ArrayList<PendingRequest> m_followers = new ArrayList<>();
+
+    // the record becomes the request's own
+    PendingRequest(RequestRecord record) {
+        this(record, null, -1);
+    }
+
+    PendingRequest(RequestRecord record, RequestBatch batch, int batchIndex) {
+        String attribute = record.attributeUUID();
+
+        m_record = record;
+        m_batch = batch;
+        m_batch_index = batchIndex;
+        m_method = record.method;
+        m_attribute = attribute == null ? "" : InFlightTable.shortAttribute(attribute);
+        m_deadline_ms = record.deadlineMs();
+        m_lane_key = laneKeyFor(m_method, record.has(RequestRecord.PERIPHERAL) ? record.peripheral : null);
+        m_priority = priorityOf(m_method, record.has(RequestRecord.PRIORITY) ? record.priority : null);
+    }
+
+    RequestRecord getRecord() {
+        return m_record;
+    }
+
+    String getMethod() {
+        return m_method;
+    }
+
+    String getLaneKey() {
+        return m_lane_key;
+    }
+
+    Priority getPriority() {
+        return m_priority;
+    }
+
+    // short-form UUID of the attribute the request works on, empty if it has none
+    String getAttribute() {
+        return m_attribute;
+    }
+
+    RequestBatch getBatch() {
+        return m_batch;
+    }
+
+    int getBatchIndex() {
+        return m_batch_index;
+    }
+
+    long getAcceptedAt() {
+        return m_accepted_at;
+    }
+
+    void setBinary(boolean binary) {
+        m_binary = binary;
+    }
+
+    boolean isBinary() {
+        return m_binary;
+    }
+
+    // same operation on the same peripheral with the same parameters
+    boolean isDuplicateOf(PendingRequest other) {
+        if (m_method == null || !m_method.equals(other.m_method) || !m_lane_key.equals(other.m_lane_key)) {
+            return false;
+        }
+        // every write of a stream carries data of its own
+        if (isStreamed() || other.isStreamed()) {
+            return false;
+        }
+
+        return m_record.sameParams(other.m_record);
+    }
+
+    // a characteristic write replaces an older write to the same characteristic of the same peripheral
+    boolean supersedes(PendingRequest other) {
+        return Constants.kWriteCharacteristicValue.equals(m_method)
+                && m_method.equals(other.m_method)
+                && !m_attribute.isEmpty()
+                && m_attribute.equals(other.m_attribute)
+                && !m_lane_key.equals(RequestScheduler.CONTROL_LANE)
+                && m_lane_key.equals(other.m_lane_key)
+                && !isStreamed()
+                && !other.isStreamed();
+    }
+
+    synchronized void setWriteStream(WriteStream stream) {
+        m_write_stream = stream;
+    }
+
+    // whether the request is a write on an open write stream
+    synchronized boolean isStreamed() {
+        return m_write_stream != null;
+    }
+
+    // the write stream whose credit the response gives back, at most once
+    synchronized WriteStream takeWriteStream() {
+        WriteStream stream = m_write_stream;
+        m_write_stream = null;
+        return stream;
+    }
+
+    // the same characteristic read on the same peripheral
+    boolean readsSameAs(PendingRequest other) {
+        return Constants.kGetCharacteristicValue.equals(m_method)
+                && m_method.equals(other.m_method)
+                && !m_attribute.isEmpty()
+                && m_attribute.equals(other.m_attribute)
+                && !m_lane_key.equals(RequestScheduler.CONTROL_LANE)
+                && m_lane_key.equals(other.m_lane_key);
+    }
+
+    // lets the follower share this request's response; false if the response has already gone out
+    synchronized boolean attach(PendingRequest follower) {
+        if (m_followers == null || isCompleted()) {
+            return false;
+        }
+        m_followers.add(follower);
+        return true;
+    }
+
+    // the followers waiting for this request's response; later attach calls are refused
+    synchronized List<PendingRequest> takeFollowers() {
+        List<PendingRequest> followers = m_followers;
+        m_followers = null;
+
+        return followers == null ? Collections.<PendingRequest>emptyList() : followers;
+    }
+
+    // milliseconds left of the client-supplied deadline, or -1 if the client did not set one
+    long remainingDeadline() {
+        if (m_deadline_ms <= 0) {
+            return -1;
+        }
+        return Math.max(0, m_deadline_ms - (SystemClock.elapsedRealtime() - m_accepted_at));
+    }
+
+    // returns false when the request had already been completed (e.g. by a timeout)
+    boolean markCompleted() {
+        if (!m_completed.compareAndSet(false, true)) {
+            return false;
+        }
+
+        ScheduledFuture<?> timeout = m_timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        return true;
+    }
+
+    boolean isCompleted() {
+        return m_completed.get();
+    }
+
+    void setTimeout(ScheduledFuture<?> timeout) {
+        m_timeout = timeout;
+    }
+
+    // central and connection management requests are control requests, everything else is
+    // interactive unless the client puts it in another class with kPriority
+    private static Priority priorityOf(String method, String priority) {
+        if (Constants.kPriorityControl.equals(priority)) {
+            return Priority.CONTROL;
+        } else if (Constants.kPriorityInteractive.equals(priority)) {
+            return Priority.INTERACTIVE;
+        } else if (Constants.kPriorityBulk.equals(priority)) {
+            return Priority.BULK;
+        }
+
+        if (method != null) {
+            switch (method) {
+                case Constants.kConfigure:
+                case Constants.kCentralState:
+                case Constants.kScanForPeripherals:
+                case Constants.kStopScanning:
+                case Constants.kConnect:
+                case Constants.kDisconnect:
+                case Constants.kGetPeripheralState:
+                case Constants.kRequestMTU:
+                case Constants.kSetConnectionPriority:
+                    return Priority.CONTROL;
+            }
+        }
+        return Priority.INTERACTIVE;
+    }
+
+    // central requests and requests that do not name a peripheral are serialized on the control lane
+    private static String laneKeyFor(String method, String peripheral) {
+        if (method == null) {
+            return RequestScheduler.CONTROL_LANE;
+        }
+
+        switch (method) {
+            case Constants.kConfigure:
+            case Constants.kCentralState:
+            case Constants.kScanForPeripherals:
+            case Constants.kStopScanning:
+                return RequestScheduler.CONTROL_LANE;
+        }
+
+        if (peripheral == null) {
+            return RequestScheduler.CONTROL_LANE;
+        }
+        return peripheral.toUpperCase(Locale.getDefault());
+    }
+}
@@ -0,0 +1,39 @@
+package org.gatt_ip;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A JSON-RPC batch received in one message. Every member is scheduled as its own request and
+ * the responses are collected here, so the client gets a single response array once the last
+ * member has been answered.
+ */
+final class RequestBatch {
+    private final JSONObject[] m_responses;
+    private int m_outstanding;
+
+    RequestBatch(int size) {
+        m_responses = new JSONObject[size];
+        m_outstanding = size;
+    }
+
+    // records the member's response; returns the batch response once every member has one, otherwise null
+    synchronized JSONArray respond(int index, JSONObject response) {
+        if (m_responses[index] != null) {
+            return null;
+        }
+
+        m_responses[index] = response;
+
+        if (--m_outstanding > 0) {
+            return null;
+        }
+
+        JSONArray responses = new JSONArray();
+
+        for (JSONObject member : m_responses) {
+            responses.put(member);
+        }
+        return responses;
+    }
+}
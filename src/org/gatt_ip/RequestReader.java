@@ -0,0 +1,636 @@
+package org.gatt_ip;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass reader for GATT-IP request text. It walks the message once, keeping the request
+ * fields the gateway acts on in a RequestRecord and stepping over everything else without
+ * building strings or objects for it. A record that is read is handed over to the caller, and the
+ * reader fills a new one next time; records that fall back are reset and filled again.
+ *
+ * Scalar fields are taken the way org.json's getString and getInt take them, so a number sent
+ * where text is expected is read here too. Anything else - an object or array where a scalar
+ * belongs, a repeated key, malformed text - makes read() return null, and the caller parses the
+ * message in full so the request is handled and reported exactly as before.
+ *
+ * A reader is not thread-safe; keep one per thread.
+ */
+final class RequestReader {
+    // outcomes of next()
+    private static final int MORE = 0;
+    private static final int CLOSED = 1;
+    private static final int MALFORMED = 2;
+
+    private RequestRecord m_record = new RequestRecord();
+    private final StringBuilder m_unescaped = new StringBuilder();
+
+    // closing characters of the objects and arrays skipValue() is inside, innermost last
+    private final StringBuilder m_closers = new StringBuilder();
+
+    private String m_text;
+    private int m_offset;
+
+    // the request's record, which becomes the caller's; null if the message needs a full parse
+    RequestRecord read(String text) {
+        m_text = text;
+        m_offset = 0;
+
+        try {
+            if (!request() || skipWhitespace() != -1) {
+                return null;
+            }
+            return takeRecord();
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return null;
+        } finally {
+            m_text = null;
+        }
+    }
+
+    // the records of a batch's members in order, null in place of a member that is not an object;
+    // null if the text is not one well-formed array, for the caller to parse and report in full.
+    // A member the single pass cannot take is parsed on its own
+    List<RequestRecord> readBatch(String text) {
+        m_text = text;
+        m_offset = 0;
+
+        try {
+            return batch();
+        } catch (IndexOutOfBoundsException | NumberFormatException | JSONException e) {
+            return null;
+        } finally {
+            m_text = null;
+        }
+    }
+
+    private RequestRecord takeRecord() {
+        RequestRecord record = m_record;
+        m_record = new RequestRecord();
+        return record;
+    }
+
+    private List<RequestRecord> batch() throws JSONException {
+        if (!arrayStart()) {
+            return null;
+        }
+
+        ArrayList<RequestRecord> records = new ArrayList<>();
+        int next;
+
+        if (skipWhitespace() == ']') {
+            m_offset++;
+            return skipWhitespace() == -1 ? records : null;
+        }
+
+        do {
+            int start = m_offset;
+
+            if (request()) {
+                records.add(takeRecord());
+                continue;
+            }
+
+            m_offset = start;
+
+            if (!skipValue()) {
+                return null;
+            }
+
+            Object member = new JSONTokener(m_text.substring(start, m_offset)).nextValue();
+            records.add(member instanceof JSONObject ? RequestRecord.of((JSONObject) member) : null);
+        } while ((next = next(']')) == MORE);
+
+        return next == CLOSED && skipWhitespace() == -1 ? records : null;
+    }
+
+    private boolean request() {
+        m_record.reset();
+
+        if (skipWhitespace() != '{') {
+            return false;
+        }
+        m_offset++;
+
+        boolean seenMethod = false, seenId = false, seenSessionId = false;
+        int next;
+
+        if (skipWhitespace() == '}') {
+            m_offset++;
+            return true;
+        }
+
+        do {
+            String key = key();
+
+            if (key == null) {
+                return false;
+            }
+
+            switch (key) {
+                case Constants.kMethod:
+                    if (seenMethod || (m_record.method = textValue()) == null) {
+                        return false;
+                    }
+                    seenMethod = true;
+                    break;
+                case Constants.kRequestId:
+                    if (seenId || (m_record.id = idValue()) == null) {
+                        return false;
+                    }
+                    seenId = true;
+                    break;
+                case Constants.kRequestSessionId:
+                    if (seenSessionId || (m_record.sessionId = idValue()) == null) {
+                        return false;
+                    }
+                    seenSessionId = true;
+                    break;
+                case Constants.kParams:
+                    if (m_record.hasParams || !params()) {
+                        return false;
+                    }
+                    m_record.hasParams = true;
+                    break;
+                default:
+                    if (!skipValue()) {
+                        return false;
+                    }
+                    break;
+            }
+        } while ((next = next('}')) == MORE);
+
+        return next == CLOSED;
+    }
+
+    private boolean params() {
+        if (skipWhitespace() != '{') {
+            return false;
+        }
+        m_offset++;
+
+        if (skipWhitespace() == '}') {
+            m_offset++;
+            return true;
+        }
+
+        RequestRecord record = m_record;
+        int next;
+
+        do {
+            String key = key();
+
+            if (key == null) {
+                return false;
+            }
+
+            int field;
+
+            switch (key) {
+                case Constants.kPeripheralUUID:
+                    field = RequestRecord.PERIPHERAL;
+                    record.peripheral = textValue();
+                    break;
+                case Constants.kServiceUUID:
+                    field = RequestRecord.SERVICE;
+                    record.service = uuidValue();
+                    break;
+                case Constants.kCharacteristicUUID:
+                    field = RequestRecord.CHARACTERISTIC;
+                    record.characteristic = uuidValue();
+                    break;
+                case Constants.kDescriptorUUID:
+                    field = RequestRecord.DESCRIPTOR;
+                    record.descriptor = uuidValue();
+                    break;
+                case Constants.kValue:
+                    field = RequestRecord.VALUE;
+                    record.value = textValue();
+                    break;
+                case Constants.kWriteType:
+                    field = RequestRecord.WRITE_TYPE;
+                    record.writeType = textValue();
+                    break;
+                case Constants.kPriority:
+                    field = RequestRecord.PRIORITY;
+                    record.priority = textValue();
+                    break;
+                case Constants.kConnectionPriority:
+                    field = RequestRecord.CONNECTION_PRIORITY;
+                    record.connectionPriority = textValue();
+                    break;
+                case Constants.kIsNotifying:
+                    field = RequestRecord.NOTIFYING;
+                    record.notifying = scalarValue();
+                    break;
+                case Constants.kScanOptionAllowDuplicatesKey:
+                    field = RequestRecord.ALLOW_DUPLICATES;
+                    record.allowDuplicates = scalarValue();
+                    break;
+                case Constants.kDeadline:
+                    field = RequestRecord.DEADLINE;
+                    record.deadline = scalarValue();
+                    break;
+                case Constants.kMTU:
+                    field = RequestRecord.MTU;
+                    record.mtu = scalarValue();
+                    break;
+                case Constants.kWindow:
+                    field = RequestRecord.WINDOW;
+                    record.window = scalarValue();
+                    break;
+                case Constants.kScanOptionReportDelay:
+                    field = RequestRecord.REPORT_DELAY;
+                    record.reportDelay = scalarValue();
+                    break;
+                case Constants.kScanOptionPolicy:
+                    field = RequestRecord.SCAN_POLICY;
+                    record.scanPolicy = textValue();
+                    break;
+                case Constants.kServiceUUIDs:
+                    field = RequestRecord.SERVICE_UUIDS;
+                    if ((record.fields & field) != 0 || !stringArray(record.serviceUUIDs)) {
+                        return false;
+                    }
+                    break;
+                case Constants.kScanOptionPeripheralAddresses:
+                    field = RequestRecord.ADDRESSES;
+                    if ((record.fields & field) != 0 || !stringArray(record.addresses)) {
+                        return false;
+                    }
+                    break;
+                case Constants.kScanOptionManufacturerIds:
+                    field = RequestRecord.MANUFACTURER_IDS;
+                    if ((record.fields & field) != 0 || !scalarArray(record.manufacturerIds)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (!skipValue()) {
+                        return false;
+                    }
+                    continue;
+            }
+
+            // a repeated field, or one whose value is not of the type the handlers expect
+            if ((record.fields & field) != 0 || !present(field)) {
+                return false;
+            }
+            record.fields |= field;
+        } while ((next = next('}')) == MORE);
+
+        return next == CLOSED;
+    }
+
+    private boolean present(int field) {
+        RequestRecord record = m_record;
+
+        switch (field) {
+            case RequestRecord.PERIPHERAL:
+                return record.peripheral != null;
+            case RequestRecord.SERVICE:
+                return record.service != null;
+            case RequestRecord.CHARACTERISTIC:
+                return record.characteristic != null;
+            case RequestRecord.DESCRIPTOR:
+                return record.descriptor != null;
+            case RequestRecord.VALUE:
+                return record.value != null;
+            case RequestRecord.WRITE_TYPE:
+                return record.writeType != null;
+            case RequestRecord.PRIORITY:
+                return record.priority != null;
+            case RequestRecord.CONNECTION_PRIORITY:
+                return record.connectionPriority != null;
+            case RequestRecord.NOTIFYING:
+                return record.notifying != null;
+            case RequestRecord.ALLOW_DUPLICATES:
+                return record.allowDuplicates != null;
+            case RequestRecord.DEADLINE:
+                return record.deadline != null;
+            case RequestRecord.MTU:
+                return record.mtu != null;
+            case RequestRecord.WINDOW:
+                return record.window != null;
+            case RequestRecord.REPORT_DELAY:
+                return record.reportDelay != null;
+            case RequestRecord.SCAN_POLICY:
+                return record.scanPolicy != null;
+            default:
+                return true;
+        }
+    }
+
+    // a member name followed by its colon
+    private String key() {
+        if (skipWhitespace() != '"') {
+            return null;
+        }
+
+        String key = string();
+
+        if (key == null || skipWhitespace() != ':') {
+            return null;
+        }
+        m_offset++;
+        return key;
+    }
+
+    // after a member or element: whether another one follows or the closing character ended the list
+    private int next(char close) {
+        int c = skipWhitespace();
+
+        if (c != ',' && c != close) {
+            return MALFORMED;
+        }
+        m_offset++;
+        return c == ',' ? MORE : CLOSED;
+    }
+
+    // the text of a string, number or literal; null for objects and arrays
+    private String textValue() {
+        Object value = scalarValue();
+        return value == null ? null : value.toString();
+    }
+
+    private String uuidValue() {
+        String uuid = textValue();
+        return uuid == null ? null : RequestRecord.upperCase(uuid);
+    }
+
+    // request ids are echoed back as strings, whether the client sent a string or a number
+    private String idValue() {
+        Object id = scalarValue();
+
+        if (id == null || id == JSONObject.NULL || id instanceof Boolean) {
+            return null;
+        }
+        return id.toString();
+    }
+
+    // a string, number or literal, as org.json would hold it; null for objects and arrays
+    private Object scalarValue() {
+        int c = skipWhitespace();
+
+        if (c == '"') {
+            return string();
+        }
+        if (c == '{' || c == '[' || c == -1) {
+            return null;
+        }
+
+        int start = m_offset;
+
+        while (m_offset < m_text.length() && ",}] \t\r\n".indexOf(m_text.charAt(m_offset)) < 0) {
+            m_offset++;
+        }
+
+        String token = m_text.substring(start, m_offset);
+
+        switch (token) {
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "null":
+                return JSONObject.NULL;
+        }
+
+        if (token.indexOf('.') >= 0 || token.indexOf('e') >= 0 || token.indexOf('E') >= 0) {
+            return Double.valueOf(token);
+        }
+
+        long number = Long.parseLong(token);
+
+        if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+            return (int) number;
+        }
+        return number;
+    }
+
+    // an array of strings, numbers or literals, each added as its text
+    private boolean stringArray(List<String> strings) {
+        if (!arrayStart()) {
+            return false;
+        }
+        if (skipWhitespace() == ']') {
+            m_offset++;
+            return true;
+        }
+
+        int next;
+
+        do {
+            String element = textValue();
+
+            if (element == null) {
+                return false;
+            }
+            strings.add(element);
+        } while ((next = next(']')) == MORE);
+
+        return next == CLOSED;
+    }
+
+    // an array of strings, numbers or literals, each added as org.json would hold it
+    private boolean scalarArray(List<Object> scalars) {
+        if (!arrayStart()) {
+            return false;
+        }
+        if (skipWhitespace() == ']') {
+            m_offset++;
+            return true;
+        }
+
+        int next;
+
+        do {
+            Object element = scalarValue();
+
+            if (element == null) {
+                return false;
+            }
+            scalars.add(element);
+        } while ((next = next(']')) == MORE);
+
+        return next == CLOSED;
+    }
+
+    private boolean arrayStart() {
+        if (skipWhitespace() != '[') {
+            return false;
+        }
+        m_offset++;
+        return true;
+    }
+
+    // the string starting at m_offset, with escapes resolved; only allocates a builder when it has some
+    private String string() {
+        int start = ++m_offset;
+        String text = m_text;
+
+        while (true) {
+            char c = text.charAt(m_offset);
+
+            if (c == '"') {
+                return text.substring(start, m_offset++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            m_offset++;
+        }
+
+        StringBuilder unescaped = m_unescaped;
+        unescaped.setLength(0);
+        unescaped.append(text, start, m_offset);
+
+        while (true) {
+            char c = text.charAt(m_offset++);
+
+            if (c == '"') {
+                return unescaped.toString();
+            }
+            if (c != '\\') {
+                unescaped.append(c);
+                continue;
+            }
+
+            c = text.charAt(m_offset++);
+            switch (c) {
+                case 'b':
+                    unescaped.append('\b');
+                    break;
+                case 'f':
+                    unescaped.append('\f');
+                    break;
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 'r':
+                    unescaped.append('\r');
+                    break;
+                case 't':
+                    unescaped.append('\t');
+                    break;
+                case 'u':
+                    unescaped.append((char) Integer.parseInt(text.substring(m_offset, m_offset + 4), 16));
+                    m_offset += 4;
+                    break;
+                default:
+                    unescaped.append(c);
+                    break;
+            }
+        }
+    }
+
+    // steps over a value of a field the gateway does not read; false if its brackets do not
+    // match or it holds something other than a string, number or literal
+    private boolean skipValue() {
+        int c = skipWhitespace();
+
+        if (c == '"') {
+            skipString();
+            return true;
+        }
+        if (c != '{' && c != '[') {
+            return skipLiteral();
+        }
+
+        StringBuilder closers = m_closers;
+        closers.setLength(0);
+
+        do {
+            c = m_text.charAt(m_offset);
+
+            if (c == '"') {
+                skipString();
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                closers.append(c == '{' ? '}' : ']');
+            } else if (c == '}' || c == ']') {
+                if (closers.charAt(closers.length() - 1) != c) {
+                    return false;
+                }
+                closers.setLength(closers.length() - 1);
+            } else if (c != ',' && c != ':' && c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                if (!skipLiteral()) {
+                    return false;
+                }
+                continue;
+            }
+            m_offset++;
+        } while (closers.length() > 0);
+
+        return true;
+    }
+
+    // steps over true, false, null or a number
+    private boolean skipLiteral() {
+        String text = m_text;
+        int start = m_offset;
+
+        while (m_offset < text.length() && ",}] \t\r\n".indexOf(text.charAt(m_offset)) < 0) {
+            m_offset++;
+        }
+
+        int length = m_offset - start;
+
+        if (length == 0) {
+            return false;
+        }
+        if (length == 4 && (text.regionMatches(start, "true", 0, 4) || text.regionMatches(start, "null", 0, 4))
+                || length == 5 && text.regionMatches(start, "false", 0, 5)) {
+            return true;
+        }
+
+        char first = text.charAt(start);
+
+        if (first != '-' && (first < '0' || first > '9')) {
+            return false;
+        }
+        for (int i = start + 1; i < m_offset; i++) {
+            char c = text.charAt(i);
+
+            if ((c < '0' || c > '9') && "+-.eE".indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipString() {
+        m_offset++;
+
+        while (true) {
+            char c = m_text.charAt(m_offset++);
+
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                m_offset++;
+            }
+        }
+    }
+
+    // the next non-whitespace character, left unconsumed; -1 at the end of the text
+    private int skipWhitespace() {
+        String text = m_text;
+
+        while (m_offset < text.length()) {
+            char c = text.charAt(m_offset);
+
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                return c;
+            }
+            m_offset++;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,349 @@
+package org.gatt_ip;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * The fields of a GATT-IP request that the gateway acts on. RequestReader extracts them from the
+ * request text, single requests and batch members alike, in one pass; requests it cannot read,
+ * and CBOR frames, are parsed in full and taken over with of(). Handlers and the scheduler read
+ * the fields from here either way.
+ *
+ * A record belongs to one request from the read on. It is not pooled: handlers keep reading it
+ * after the response has completed the request, and a timeout can complete it while it is being
+ * dispatched, so no point in complete() is safe to hand it back to a reader. Attribute UUIDs are
+ * upper cased once here instead of by every handler and scheduler lookup.
+ */
+final class RequestRecord {
+    // params fields, as bits of the set a method reads
+    static final int PERIPHERAL = 1;
+    static final int SERVICE = 1 << 1;
+    static final int CHARACTERISTIC = 1 << 2;
+    static final int DESCRIPTOR = 1 << 3;
+    static final int VALUE = 1 << 4;
+    static final int WRITE_TYPE = 1 << 5;
+    static final int NOTIFYING = 1 << 6;
+    static final int ALLOW_DUPLICATES = 1 << 7;
+    static final int SERVICE_UUIDS = 1 << 8;
+    static final int MTU = 1 << 9;
+    static final int CONNECTION_PRIORITY = 1 << 10;
+    static final int WINDOW = 1 << 11;
+    static final int PRIORITY = 1 << 12;
+    static final int DEADLINE = 1 << 13;
+    static final int MANUFACTURER_IDS = 1 << 14;
+    static final int ADDRESSES = 1 << 15;
+    static final int REPORT_DELAY = 1 << 16;
+    static final int SCAN_POLICY = 1 << 17;
+
+    private static final int ANY_METHOD = PRIORITY | DEADLINE;
+    private static final int ATTRIBUTE = PERIPHERAL | SERVICE | CHARACTERISTIC;
+    private static final int SCAN_OPTIONS = ALLOW_DUPLICATES | SERVICE_UUIDS | MANUFACTURER_IDS | ADDRESSES | REPORT_DELAY | SCAN_POLICY;
+
+    String method;
+    String id;
+    String sessionId;
+    boolean hasParams;
+
+    // params fields present in the request
+    int fields;
+
+    // string fields hold the text of whatever scalar the client sent, as org.json's getString gives it
+    String peripheral;
+    String service;
+    String characteristic;
+    String descriptor;
+    String value;
+    String writeType;
+    String priority;
+    String connectionPriority;
+    String scanPolicy;
+
+    // loosely typed fields, kept as the JSON value and converted as org.json would when read
+    Object notifying;
+    Object allowDuplicates;
+    Object deadline;
+    Object mtu;
+    Object window;
+    Object reportDelay;
+
+    final ArrayList<String> serviceUUIDs = new ArrayList<>();
+    final ArrayList<String> addresses = new ArrayList<>();
+
+    // numbers, or the hex strings scan results carry them as
+    final ArrayList<Object> manufacturerIds = new ArrayList<>();
+
+    void reset() {
+        method = null;
+        id = null;
+        sessionId = null;
+        hasParams = false;
+        fields = 0;
+        peripheral = null;
+        service = null;
+        characteristic = null;
+        descriptor = null;
+        value = null;
+        writeType = null;
+        priority = null;
+        connectionPriority = null;
+        scanPolicy = null;
+        notifying = null;
+        allowDuplicates = null;
+        deadline = null;
+        mtu = null;
+        window = null;
+        reportDelay = null;
+        serviceUUIDs.clear();
+        addresses.clear();
+        manufacturerIds.clear();
+    }
+
+    // the record of a request parsed in full, with the fields taken as the handlers used to take them
+    static RequestRecord of(JSONObject request) {
+        RequestRecord record = new RequestRecord();
+
+        record.method = text(request, Constants.kMethod);
+        record.id = text(request, Constants.kRequestId);
+        record.sessionId = text(request, Constants.kRequestSessionId);
+        record.hasParams = request.has(Constants.kParams);
+
+        JSONObject params = request.optJSONObject(Constants.kParams);
+
+        if (params == null) {
+            return record;
+        }
+
+        record.peripheral = (String) record.field(PERIPHERAL, text(params, Constants.kPeripheralUUID));
+        record.service = (String) record.field(SERVICE, uuid(params, Constants.kServiceUUID));
+        record.characteristic = (String) record.field(CHARACTERISTIC, uuid(params, Constants.kCharacteristicUUID));
+        record.descriptor = (String) record.field(DESCRIPTOR, uuid(params, Constants.kDescriptorUUID));
+        record.value = (String) record.field(VALUE, text(params, Constants.kValue));
+        record.writeType = (String) record.field(WRITE_TYPE, text(params, Constants.kWriteType));
+        record.priority = (String) record.field(PRIORITY, text(params, Constants.kPriority));
+        record.connectionPriority = (String) record.field(CONNECTION_PRIORITY, text(params, Constants.kConnectionPriority));
+        record.scanPolicy = (String) record.field(SCAN_POLICY, text(params, Constants.kScanOptionPolicy));
+        record.notifying = record.field(NOTIFYING, params.opt(Constants.kIsNotifying));
+        record.allowDuplicates = record.field(ALLOW_DUPLICATES, params.opt(Constants.kScanOptionAllowDuplicatesKey));
+        record.deadline = record.field(DEADLINE, params.opt(Constants.kDeadline));
+        record.mtu = record.field(MTU, params.opt(Constants.kMTU));
+        record.window = record.field(WINDOW, params.opt(Constants.kWindow));
+        record.reportDelay = record.field(REPORT_DELAY, params.opt(Constants.kScanOptionReportDelay));
+
+        // lists are only taken from arrays, other values are passed over as before
+        JSONArray array = params.optJSONArray(Constants.kServiceUUIDs);
+
+        for (int i = 0; array != null && i < array.length(); i++) {
+            record.serviceUUIDs.add(String.valueOf(array.opt(i)));
+        }
+        record.field(SERVICE_UUIDS, array);
+
+        array = params.optJSONArray(Constants.kScanOptionPeripheralAddresses);
+
+        for (int i = 0; array != null && i < array.length(); i++) {
+            record.addresses.add(String.valueOf(array.opt(i)));
+        }
+        record.field(ADDRESSES, array);
+
+        array = params.optJSONArray(Constants.kScanOptionManufacturerIds);
+
+        for (int i = 0; array != null && i < array.length(); i++) {
+            record.manufacturerIds.add(array.opt(i));
+        }
+        record.field(MANUFACTURER_IDS, array);
+
+        return record;
+    }
+
+    static String upperCase(String uuid) {
+        return uuid.toUpperCase(Locale.getDefault());
+    }
+
+    // whether the method reads the field; fields of other methods are dropped with the unknown ones
+    boolean has(int field) {
+        return (fields & field & fieldsOf(method)) != 0;
+    }
+
+    // milliseconds of the client-supplied deadline, 0 if none was set
+    long deadlineMs() {
+        if (!has(DEADLINE)) {
+            return 0;
+        }
+        Long deadlineMs = toLong(deadline);
+        return deadlineMs == null ? 0 : deadlineMs;
+    }
+
+    // milliseconds the controller may hold scan results back, 0 if none was set
+    long reportDelayMs() {
+        if (!has(REPORT_DELAY)) {
+            return 0;
+        }
+        Long delayMs = toLong(reportDelay);
+        return delayMs == null ? 0 : delayMs;
+    }
+
+    // false unless set; a value that is not a boolean raises a JSONException, as getBoolean did
+    boolean allowsDuplicates() throws JSONException {
+        if (!has(ALLOW_DUPLICATES)) {
+            return false;
+        }
+        if (allowDuplicates instanceof Boolean) {
+            return (Boolean) allowDuplicates;
+        }
+        if ("true".equalsIgnoreCase(allowDuplicates.toString())) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(allowDuplicates.toString())) {
+            return false;
+        }
+        throw new JSONException(Constants.kScanOptionAllowDuplicatesKey + " is not a boolean");
+    }
+
+    boolean isNotifying() {
+        return has(NOTIFYING) && "true".equals(notifying.toString());
+    }
+
+    // a value that is not a number raises a JSONException, as getInt did
+    int mtu() throws JSONException {
+        Long mtuValue = has(MTU) ? toLong(mtu) : null;
+
+        if (mtuValue == null) {
+            throw new JSONException(Constants.kMTU + " is not a number");
+        }
+        return mtuValue.intValue();
+    }
+
+    int window(int fallback) {
+        Long windowValue = has(WINDOW) ? toLong(window) : null;
+        return windowValue == null ? fallback : windowValue.intValue();
+    }
+
+    // the UUID of the attribute the request works on, null if it names none
+    String attributeUUID() {
+        String field = InFlightTable.attributeFieldFor(method);
+
+        if (field == null) {
+            return null;
+        }
+
+        switch (field) {
+            case Constants.kServiceUUID:
+                return has(SERVICE) ? service : null;
+            case Constants.kCharacteristicUUID:
+                return has(CHARACTERISTIC) ? characteristic : null;
+            default:
+                return has(DESCRIPTOR) ? descriptor : null;
+        }
+    }
+
+    // same params, counting only the fields the method reads
+    boolean sameParams(RequestRecord other) {
+        int mask = fieldsOf(method);
+
+        return hasParams == other.hasParams
+                && (fields & mask) == (other.fields & mask)
+                && equal(peripheral, other.peripheral, PERIPHERAL)
+                && equal(service, other.service, SERVICE)
+                && equal(characteristic, other.characteristic, CHARACTERISTIC)
+                && equal(descriptor, other.descriptor, DESCRIPTOR)
+                && equal(value, other.value, VALUE)
+                && equal(writeType, other.writeType, WRITE_TYPE)
+                && equal(priority, other.priority, PRIORITY)
+                && equal(connectionPriority, other.connectionPriority, CONNECTION_PRIORITY)
+                && equal(scanPolicy, other.scanPolicy, SCAN_POLICY)
+                && equal(notifying, other.notifying, NOTIFYING)
+                && equal(allowDuplicates, other.allowDuplicates, ALLOW_DUPLICATES)
+                && equal(deadline, other.deadline, DEADLINE)
+                && equal(mtu, other.mtu, MTU)
+                && equal(window, other.window, WINDOW)
+                && equal(reportDelay, other.reportDelay, REPORT_DELAY)
+                && equal(serviceUUIDs, other.serviceUUIDs, SERVICE_UUIDS)
+                && equal(addresses, other.addresses, ADDRESSES)
+                && equal(manufacturerIds, other.manufacturerIds, MANUFACTURER_IDS);
+    }
+
+    private boolean equal(Object value, Object otherValue, int field) {
+        return !has(field) || (value == null ? otherValue == null : value.equals(otherValue));
+    }
+
+    // notes the field as present if it has a value, and hands the value back
+    private Object field(int field, Object value) {
+        if (value != null) {
+            fields |= field;
+        }
+        return value;
+    }
+
+    private static String text(JSONObject object, String key) {
+        Object value = object.opt(key);
+        return value == null ? null : value.toString();
+    }
+
+    private static String uuid(JSONObject object, String key) {
+        String uuid = text(object, key);
+        return uuid == null ? null : upperCase(uuid);
+    }
+
+    // a number, or a string holding one, as a long; null for anything else
+    private static Long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return (long) Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // the params fields each method's handler reads
+    private static int fieldsOf(String method) {
+        if (method == null) {
+            return ANY_METHOD;
+        }
+
+        switch (method) {
+            case Constants.kConfigure:
+            case Constants.kCentralState:
+            case Constants.kStopScanning:
+                return ANY_METHOD;
+            case Constants.kScanForPeripherals:
+                return ANY_METHOD | SCAN_OPTIONS;
+            case Constants.kConnect:
+            case Constants.kDisconnect:
+            case Constants.kGetServices:
+            case Constants.kGetPeripheralState:
+            case Constants.kGetRSSI:
+                return ANY_METHOD | PERIPHERAL;
+            case Constants.kGetCharacteristics:
+                return ANY_METHOD | PERIPHERAL | SERVICE;
+            case Constants.kGetDescriptors:
+            case Constants.kGetCharacteristicValue:
+            case Constants.kCloseWriteStream:
+                return ANY_METHOD | ATTRIBUTE;
+            case Constants.kWriteCharacteristicValue:
+                return ANY_METHOD | ATTRIBUTE | VALUE | WRITE_TYPE;
+            case Constants.kSetValueNotification:
+                return ANY_METHOD | ATTRIBUTE | NOTIFYING;
+            case Constants.kGetDescriptorValue:
+                return ANY_METHOD | ATTRIBUTE | DESCRIPTOR;
+            case Constants.kWriteDescriptorValue:
+                return ANY_METHOD | ATTRIBUTE | DESCRIPTOR | VALUE;
+            case Constants.kRequestMTU:
+                return ANY_METHOD | PERIPHERAL | MTU;
+            case Constants.kSetConnectionPriority:
+                return ANY_METHOD | PERIPHERAL | CONNECTION_PRIORITY;
+            case Constants.kOpenWriteStream:
+                return ANY_METHOD | ATTRIBUTE | WINDOW;
+            default:
+                // unknown methods are answered with an error, whatever they carry
+                return ANY_METHOD;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package org.gatt_ip;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes GATT-IP requests per peripheral. Every peripheral gets its own lane and requests
+ * that are not addressed to a peripheral share the control lane. A lane dispatches its next
+ * request as soon as the in-flight one completes, independently of the other lanes.
+ *
+ * Within a lane, control requests go before interactive ones and interactive before bulk.
+ * A class that has been passed over MAX_PASSED_OVER times in a row is served next, so lower
+ * classes keep moving under load. Each class has its own bounded queue.
+ *
+ * Admission never blocks. When a request's class is at capacity the overload policy decides
+ * whether the request is rejected, displaces the oldest queued bulk request or takes the
+ * place of a queued duplicate. With write coalescing on, a characteristic write also replaces
+ * a queued write to the same characteristic, whatever the load.
+ *
+ * A characteristic read for which the lane already has the same read in flight or queued
+ * does not get a place of its own; it waits for that read and is answered with its value.
+ */
+final class RequestScheduler {
+    private static final String TAG = RequestScheduler.class.getName();
+
+    static final String CONTROL_LANE = "";
+
+    private static final int MAX_PASSED_OVER = 4;
+
+    private static final PendingRequest.Priority[] PRIORITIES = PendingRequest.Priority.values();
+
+    interface Dispatcher {
+        void dispatch(PendingRequest request);
+
+        void timeout(PendingRequest request);
+    }
+
+    private static final class Lane {
+        final String m_key;
+        final ArrayList<ArrayDeque<PendingRequest>> m_queues = new ArrayList<>(PRIORITIES.length);
+        final int[] m_passed_over = new int[PRIORITIES.length];
+        PendingRequest m_in_flight;
+
+        Lane(String key) {
+            m_key = key;
+
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                m_queues.add(new ArrayDeque<PendingRequest>());
+            }
+        }
+
+        void add(PendingRequest request) {
+            m_queues.get(request.getPriority().ordinal()).add(request);
+        }
+
+        // puts the request in place of a queued duplicate and returns the duplicate, or null if there is none
+        PendingRequest replaceDuplicate(PendingRequest request) {
+            int priority = request.getPriority().ordinal();
+            ArrayDeque<PendingRequest> queue = m_queues.get(priority);
+            PendingRequest duplicate = null;
+
+            for (PendingRequest queued : queue) {
+                if (request.isDuplicateOf(queued)) {
+                    duplicate = queued;
+                    break;
+                }
+            }
+
+            if (duplicate == null) {
+                return null;
+            }
+
+            ArrayDeque<PendingRequest> replaced = new ArrayDeque<>(queue.size());
+            for (PendingRequest queued : queue) {
+                replaced.add(queued == duplicate ? request : queued);
+            }
+            m_queues.set(priority, replaced);
+
+            return duplicate;
+        }
+
+        // the read in flight or queued on this lane that the new read can share, or null
+        PendingRequest sharedRead(PendingRequest request) {
+            if (m_in_flight != null && request.readsSameAs(m_in_flight)) {
+                return m_in_flight;
+            }
+
+            for (ArrayDeque<PendingRequest> queue : m_queues) {
+                for (PendingRequest queued : queue) {
+                    if (request.readsSameAs(queued)) {
+                        return queued;
+                    }
+                }
+            }
+            return null;
+        }
+
+        // removes a queued request the new one supersedes, or returns null if there is none
+        PendingRequest removeSuperseded(PendingRequest request) {
+            Iterator<PendingRequest> queued = m_queues.get(request.getPriority().ordinal()).iterator();
+
+            while (queued.hasNext()) {
+                PendingRequest superseded = queued.next();
+
+                if (request.supersedes(superseded)) {
+                    queued.remove();
+                    return superseded;
+                }
+            }
+            return null;
+        }
+
+        PendingRequest poll() {
+            // a starving class goes first, the lowest one if there are several
+            for (int i = PRIORITIES.length - 1; i > 0; i--) {
+                if (m_passed_over[i] >= MAX_PASSED_OVER && !m_queues.get(i).isEmpty()) {
+                    m_passed_over[i] = 0;
+                    return m_queues.get(i).poll();
+                }
+            }
+
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                if (!m_queues.get(i).isEmpty()) {
+                    m_passed_over[i] = 0;
+
+                    for (int j = i + 1; j < PRIORITIES.length; j++) {
+                        if (!m_queues.get(j).isEmpty()) {
+                            m_passed_over[j]++;
+                        }
+                    }
+                    return m_queues.get(i).poll();
+                }
+            }
+            return null;
+        }
+    }
+
+    private final HashMap<String, Lane> m_lanes = new HashMap<>();
+    private final InFlightTable m_in_flight = new InFlightTable();
+    private final ScheduledExecutorService m_executor;
+    private final Dispatcher m_dispatcher;
+    private int m_capacity;
+    private boolean m_coalesce_writes;
+    private final long m_timeout_ms;
+    private final HashMap<String, Long> m_method_timeouts = new HashMap<>();
+
+    // requests accepted but not dispatched yet per priority class, over all lanes
+    private final int[] m_queued = new int[PRIORITIES.length];
+
+    RequestScheduler(ScheduledExecutorService executor, Dispatcher dispatcher, int capacity, long timeoutMs) {
+        m_executor = executor;
+        m_dispatcher = dispatcher;
+        m_capacity = capacity;
+        m_timeout_ms = timeoutMs;
+    }
+
+    // queues the request without blocking. Returns null if nothing had to give way, the request
+    // itself if it was rejected, or the queued request it displaced under the overload policy.
+    synchronized PendingRequest submit(PendingRequest request, GATTIP.OverloadPolicy policy) {
+        int priority = request.getPriority().ordinal();
+        PendingRequest displaced = null;
+        Lane existing = m_lanes.get(request.getLaneKey());
+
+        if (existing != null) {
+            PendingRequest shared = existing.sharedRead(request);
+
+            if (shared != null && shared.attach(request)) {
+                return null;
+            }
+        }
+
+        if (m_coalesce_writes && m_lanes.containsKey(request.getLaneKey())) {
+            // last writer wins; the superseded write, queued in the same class, frees its place there
+            displaced = m_lanes.get(request.getLaneKey()).removeSuperseded(request);
+
+            if (displaced != null) {
+                m_queued[priority]--;
+            }
+        }
+
+        // a superseded write gave its place in the class to this one, and gets the only displaced response
+        if (displaced == null && m_queued[priority] >= m_capacity) {
+            switch (policy) {
+                case DROP_OLDEST_BULK:
+                    if (request.getPriority() == PendingRequest.Priority.BULK) {
+                        displaced = dropOldestBulk();
+                    }
+                    break;
+                case COALESCE:
+                    Lane lane = m_lanes.get(request.getLaneKey());
+
+                    if (lane != null && (displaced = lane.replaceDuplicate(request)) != null) {
+                        return displaced;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if (displaced == null) {
+                Log.d(TAG, "Request queue for " + request.getPriority() + " is full, rejecting the request.");
+                return request;
+            }
+        }
+
+        Lane lane = m_lanes.get(request.getLaneKey());
+
+        if (lane == null) {
+            lane = new Lane(request.getLaneKey());
+            m_lanes.put(lane.m_key, lane);
+        }
+
+        lane.add(request);
+        m_queued[priority]++;
+
+        if (lane.m_in_flight == null) {
+            startNext(lane);
+        }
+        return displaced;
+    }
+
+    // queues all requests without another request getting in between, e.g. the members of a batch;
+    // the result holds what submit returned for each of them
+    synchronized ArrayList<PendingRequest> submitAll(List<PendingRequest> requests, GATTIP.OverloadPolicy policy) {
+        ArrayList<PendingRequest> displaced = new ArrayList<>(requests.size());
+
+        for (PendingRequest request : requests) {
+            displaced.add(submit(request, policy));
+        }
+        return displaced;
+    }
+
+    synchronized void setCapacity(int capacity) {
+        m_capacity = capacity;
+    }
+
+    synchronized int getCapacity() {
+        return m_capacity;
+    }
+
+    synchronized void setCoalesceWrites(boolean coalesceWrites) {
+        m_coalesce_writes = coalesceWrites;
+    }
+
+    synchronized void setTimeout(String method, long timeoutMs) {
+        m_method_timeouts.put(method, timeoutMs);
+    }
+
+    // completes the request and starts the next one on its lane; false if it was already completed
+    boolean complete(PendingRequest request) {
+        if (!request.markCompleted()) {
+            return false;
+        }
+
+        m_in_flight.remove(request);
+
+        synchronized (this) {
+            Lane lane = m_lanes.get(request.getLaneKey());
+
+            if (lane != null && lane.m_in_flight == request) {
+                startNext(lane);
+            }
+        }
+        return true;
+    }
+
+    // the in-flight request a callback answers, taken out of the correlation table
+    PendingRequest correlate(String peripheral, String attribute, String operation) {
+        return m_in_flight.take(peripheral, attribute, operation);
+    }
+
+    // whether the lane has a request of the given class queued or in flight
+    synchronized boolean hasWork(String laneKey, PendingRequest.Priority priority) {
+        Lane lane = m_lanes.get(laneKey);
+
+        if (lane == null) {
+            return false;
+        }
+        if (lane.m_in_flight != null && lane.m_in_flight.getPriority() == priority && !lane.m_in_flight.isCompleted()) {
+            return true;
+        }
+        return !lane.m_queues.get(priority.ordinal()).isEmpty();
+    }
+
+    synchronized PendingRequest inFlight(String laneKey) {
+        Lane lane = m_lanes.get(laneKey);
+        return lane == null ? null : lane.m_in_flight;
+    }
+
+    private void startNext(Lane lane) {
+        final PendingRequest next = lane.poll();
+        lane.m_in_flight = next;
+
+        if (next == null) {
+            m_lanes.remove(lane.m_key);
+            return;
+        }
+
+        m_queued[next.getPriority().ordinal()]--;
+
+        long timeout = timeoutFor(next);
+
+        if (timeout <= 0) {
+            // the client's deadline passed while the request was queued
+            m_executor.execute(expiry(next));
+            return;
+        }
+        next.setTimeout(m_executor.schedule(expiry(next), timeout, TimeUnit.MILLISECONDS));
+
+        // registered before dispatch so that even an immediate callback finds the request
+        if (next.getMethod() != null) {
+            m_in_flight.register(next);
+        }
+
+        m_executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                m_dispatcher.dispatch(next);
+            }
+        });
+    }
+
+    // removes the bulk request that has been queued longest, over all lanes
+    private PendingRequest dropOldestBulk() {
+        ArrayDeque<PendingRequest> oldest = null;
+
+        for (Lane lane : m_lanes.values()) {
+            ArrayDeque<PendingRequest> queue = lane.m_queues.get(PendingRequest.Priority.BULK.ordinal());
+            PendingRequest head = queue.peek();
+
+            // writes of a stream hold credits and are never dropped
+            if (head != null && !head.isStreamed() && (oldest == null || head.getAcceptedAt() < oldest.peek().getAcceptedAt())) {
+                oldest = queue;
+            }
+        }
+
+        if (oldest == null) {
+            return null;
+        }
+
+        m_queued[PendingRequest.Priority.BULK.ordinal()]--;
+        return oldest.poll();
+    }
+
+    // the method's deadline, shortened to what is left of the client's deadline if it set one
+    private long timeoutFor(PendingRequest request) {
+        Long timeout = m_method_timeouts.get(request.getMethod());
+        long deadline = request.remainingDeadline();
+
+        if (timeout == null) {
+            timeout = m_timeout_ms;
+        }
+        return deadline < 0 ? timeout : Math.min(timeout, deadline);
+    }
+
+    // fails the request through the dispatcher and releases its lane, unless it completed meanwhile
+    private Runnable expiry(final PendingRequest request) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (!request.isCompleted()) {
+                    Log.w(TAG, "Request timed out: " + request.getMethod() + " " + request.getRecord().id);
+                    m_dispatcher.timeout(request);
+                    complete(request);
+                }
+            }
+        };
+    }
+}
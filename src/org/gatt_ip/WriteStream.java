@@ -0,0 +1,65 @@
+package org.gatt_ip;
+
+/**
+ * Credit-based flow control for write-without-response to one characteristic. The client may
+ * have up to the window's number of writes outstanding; every write takes a credit when it is
+ * accepted and gives it back once onCharacteristicWrite confirms it went to the stack.
+ *
+ * The window bounds what is queued in the gateway, not what is in flight to the peripheral. The
+ * lane still hands the stack one write at a time, because BluetoothGatt refuses another operation
+ * until the previous one's callback. For writes without response that callback comes as soon as
+ * the stack has buffered the data, so the next write follows without waiting on the link.
+ */
+final class WriteStream {
+    static final int DEFAULT_WINDOW = 8;
+
+    private final String m_peripheral;
+    private int m_window;
+    private int m_outstanding;
+
+    WriteStream(String peripheral, int window) {
+        m_peripheral = peripheral;
+        m_window = window;
+    }
+
+    // lane key of the peripheral the stream writes to
+    String getPeripheral() {
+        return m_peripheral;
+    }
+
+    synchronized int getWindow() {
+        return m_window;
+    }
+
+    // a new window for a stream opened again; writes already accepted keep their credits, so the
+    // client may have fewer than the window for now. Returns the credits the client has
+    synchronized int resize(int window) {
+        m_window = window;
+        return credits();
+    }
+
+    // takes a credit for a new write; false if the client has used up its window
+    synchronized boolean acquire() {
+        if (m_outstanding >= m_window) {
+            return false;
+        }
+        m_outstanding++;
+        return true;
+    }
+
+    // gives back the credit of a finished write and returns the credits the client now has
+    synchronized int release() {
+        if (m_outstanding > 0) {
+            m_outstanding--;
+        }
+        return credits();
+    }
+
+    private int credits() {
+        return Math.max(0, m_window - m_outstanding);
+    }
+
+    static String keyFor(String peripheral, String attribute) {
+        return peripheral + '|' + attribute;
+    }
+}
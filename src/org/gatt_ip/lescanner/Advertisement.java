@@ -0,0 +1,232 @@
+package org.gatt_ip.lescanner;
+
+import org.gatt_ip.util.UUIDCodec;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Decoded view of a raw advertisement or scan response, filled in by AdvertisementParser.parse.
+ * The view keeps the record itself and, for each field, where in the record it lies; values are
+ * read out of the record only when asked for, so filling a view in allocates nothing once its
+ * tables have grown to the size of the records seen.
+ *
+ * A view is reused for one record after another and is not thread-safe; keep one per thread.
+ * What it returns is only valid until it is filled in again.
+ */
+public final class Advertisement {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int NONE = -1;
+
+    private byte[] m_record;
+
+    private int m_flags;
+    private int m_tx_power_level;
+    private int m_appearance;
+    private int m_name_offset;
+    private int m_name_length;
+    private boolean m_complete_name;
+
+    // offset and size of each UUID
+    private int[] m_service_uuids = new int[16];
+    private int m_service_uuid_count;
+
+    private int[] m_solicited_uuids = new int[8];
+    private int m_solicited_uuid_count;
+
+    // offset and size of the UUID, and offset and length of the data, of each entry
+    private int[] m_service_data = new int[16];
+    private int m_service_data_count;
+
+    // offset and length of each entry, company identifier included
+    private int[] m_manufacturer_data = new int[8];
+    private int m_manufacturer_data_count;
+
+    public Advertisement() {
+        reset(null);
+    }
+
+    // the record the view was filled in from, not copied
+    public byte[] record() {
+        return m_record;
+    }
+
+    // the flags byte, NONE if the record has none
+    public int flags() {
+        return m_flags;
+    }
+
+    // in dBm, Integer.MIN_VALUE if the record has none, as ScanRecord has it
+    public int txPowerLevel() {
+        return m_tx_power_level;
+    }
+
+    // the GAP appearance value, NONE if the record has none
+    public int appearance() {
+        return m_appearance;
+    }
+
+    public boolean hasLocalName() {
+        return m_name_offset != NONE;
+    }
+
+    // the complete local name, or the shortened one if that is all the record has; null for neither
+    public String localName() {
+        return hasLocalName() ? new String(m_record, m_name_offset, m_name_length, UTF_8) : null;
+    }
+
+    public int serviceUUIDCount() {
+        return m_service_uuid_count;
+    }
+
+    public long serviceUUIDMsb(int index) {
+        return msb(m_service_uuids, index * 2);
+    }
+
+    public long serviceUUIDLsb(int index) {
+        return lsb(m_service_uuids, index * 2);
+    }
+
+    public int solicitedUUIDCount() {
+        return m_solicited_uuid_count;
+    }
+
+    public long solicitedUUIDMsb(int index) {
+        return msb(m_solicited_uuids, index * 2);
+    }
+
+    public long solicitedUUIDLsb(int index) {
+        return lsb(m_solicited_uuids, index * 2);
+    }
+
+    public int serviceDataCount() {
+        return m_service_data_count;
+    }
+
+    public long serviceDataUUIDMsb(int index) {
+        return msb(m_service_data, index * 4);
+    }
+
+    public long serviceDataUUIDLsb(int index) {
+        return lsb(m_service_data, index * 4);
+    }
+
+    // where the data of the entry lies in record()
+    public int serviceDataOffset(int index) {
+        return m_service_data[index * 4 + 2];
+    }
+
+    public int serviceDataLength(int index) {
+        return m_service_data[index * 4 + 3];
+    }
+
+    public int manufacturerDataCount() {
+        return m_manufacturer_data_count;
+    }
+
+    // the company identifier that starts the entry
+    public int manufacturerId(int index) {
+        return (int) AdvertisementParser.littleEndian(m_record, m_manufacturer_data[index * 2], 2);
+    }
+
+    // where the data after the company identifier lies in record()
+    public int manufacturerDataOffset(int index) {
+        return m_manufacturer_data[index * 2] + 2;
+    }
+
+    public int manufacturerDataLength(int index) {
+        return m_manufacturer_data[index * 2 + 1] - 2;
+    }
+
+    void reset(byte[] record) {
+        m_record = record;
+        m_flags = NONE;
+        m_tx_power_level = Integer.MIN_VALUE;
+        m_appearance = NONE;
+        m_name_offset = NONE;
+        m_name_length = 0;
+        m_complete_name = false;
+        m_service_uuid_count = 0;
+        m_solicited_uuid_count = 0;
+        m_service_data_count = 0;
+        m_manufacturer_data_count = 0;
+    }
+
+    void setFlags(int flags) {
+        m_flags = flags;
+    }
+
+    void setTxPowerLevel(int txPowerLevel) {
+        m_tx_power_level = txPowerLevel;
+    }
+
+    void setAppearance(int appearance) {
+        m_appearance = appearance;
+    }
+
+    // a complete name is kept over a shortened one, whichever comes first
+    void setLocalName(int offset, int length, boolean complete) {
+        if (m_complete_name && !complete) {
+            return;
+        }
+        m_name_offset = offset;
+        m_name_length = length;
+        m_complete_name = complete;
+    }
+
+    void addServiceUUID(int offset, int size) {
+        m_service_uuids = ensure(m_service_uuids, m_service_uuid_count * 2 + 2);
+        m_service_uuids[m_service_uuid_count * 2] = offset;
+        m_service_uuids[m_service_uuid_count * 2 + 1] = size;
+        m_service_uuid_count++;
+    }
+
+    void addSolicitedUUID(int offset, int size) {
+        m_solicited_uuids = ensure(m_solicited_uuids, m_solicited_uuid_count * 2 + 2);
+        m_solicited_uuids[m_solicited_uuid_count * 2] = offset;
+        m_solicited_uuids[m_solicited_uuid_count * 2 + 1] = size;
+        m_solicited_uuid_count++;
+    }
+
+    void addServiceData(int uuidOffset, int uuidSize, int offset, int length) {
+        int index = m_service_data_count * 4;
+
+        m_service_data = ensure(m_service_data, index + 4);
+        m_service_data[index] = uuidOffset;
+        m_service_data[index + 1] = uuidSize;
+        m_service_data[index + 2] = offset;
+        m_service_data[index + 3] = length;
+        m_service_data_count++;
+    }
+
+    void addManufacturerData(int offset, int length) {
+        m_manufacturer_data = ensure(m_manufacturer_data, m_manufacturer_data_count * 2 + 2);
+        m_manufacturer_data[m_manufacturer_data_count * 2] = offset;
+        m_manufacturer_data[m_manufacturer_data_count * 2 + 1] = length;
+        m_manufacturer_data_count++;
+    }
+
+    // halves of the UUID whose offset and size are at index in the table
+    private long msb(int[] table, int index) {
+        int offset = table[index], size = table[index + 1];
+
+        if (size == 16) {
+            return AdvertisementParser.littleEndian(m_record, offset + 8, 8);
+        }
+        return UUIDCodec.bluetoothMsb(AdvertisementParser.littleEndian(m_record, offset, size));
+    }
+
+    private long lsb(int[] table, int index) {
+        int offset = table[index], size = table[index + 1];
+
+        if (size == 16) {
+            return AdvertisementParser.littleEndian(m_record, offset, 8);
+        }
+        return UUIDCodec.BASE_LSB;
+    }
+
+    private static int[] ensure(int[] table, int length) {
+        return length <= table.length ? table : Arrays.copyOf(table, Math.max(length, table.length * 2));
+    }
+}
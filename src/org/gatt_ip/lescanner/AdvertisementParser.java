@@ -0,0 +1,207 @@
+package org.gatt_ip.lescanner;
+
+import org.gatt_ip.util.UUIDCodec;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads raw advertisements and scan responses. The record is a run of AD structures, each a
+ * length byte followed by a type byte and length - 1 bytes of data; the parser steps from one to
+ * the next in place, without copying or hex encoding the record. parse() decodes every common
+ * type into an Advertisement view, and serviceUUIDs() reads just the service UUIDs.
+ *
+ * A zero length ends the significant part of the record, and the rest is padding. A structure
+ * that claims more bytes than the record has, as some devices send, ends the walk there; the
+ * fields found before it are still returned.
+ */
+public final class AdvertisementParser {
+    public static final int AD_FLAGS = 0x01;
+    public static final int AD_INCOMPLETE_16BIT_SERVICE_UUIDS = 0x02;
+    public static final int AD_COMPLETE_16BIT_SERVICE_UUIDS = 0x03;
+    public static final int AD_INCOMPLETE_32BIT_SERVICE_UUIDS = 0x04;
+    public static final int AD_COMPLETE_32BIT_SERVICE_UUIDS = 0x05;
+    public static final int AD_INCOMPLETE_128BIT_SERVICE_UUIDS = 0x06;
+    public static final int AD_COMPLETE_128BIT_SERVICE_UUIDS = 0x07;
+    public static final int AD_SHORTENED_LOCAL_NAME = 0x08;
+    public static final int AD_COMPLETE_LOCAL_NAME = 0x09;
+    public static final int AD_TX_POWER_LEVEL = 0x0A;
+    public static final int AD_16BIT_SOLICITATION_UUIDS = 0x14;
+    public static final int AD_128BIT_SOLICITATION_UUIDS = 0x15;
+    public static final int AD_16BIT_SERVICE_DATA = 0x16;
+    public static final int AD_APPEARANCE = 0x19;
+    public static final int AD_32BIT_SOLICITATION_UUIDS = 0x1F;
+    public static final int AD_32BIT_SERVICE_DATA = 0x20;
+    public static final int AD_128BIT_SERVICE_DATA = 0x21;
+    public static final int AD_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    private AdvertisementParser() {
+    }
+
+    // fills the view in from the record, which it refers to rather than copies
+    public static Advertisement parse(byte[] record, Advertisement advertisement) {
+        advertisement.reset(record);
+
+        if (record == null) {
+            return advertisement;
+        }
+
+        for (int offset = 0; offset < record.length; ) {
+            int length = record[offset] & 0xFF;
+
+            if (length == 0 || offset + 1 + length > record.length) {
+                break;
+            }
+
+            int type = record[offset + 1] & 0xFF;
+            int data = offset + 2;
+            int dataLength = length - 1;
+            int size;
+
+            switch (type) {
+                case AD_FLAGS:
+                    if (dataLength >= 1) {
+                        advertisement.setFlags(record[data] & 0xFF);
+                    }
+                    break;
+                case AD_TX_POWER_LEVEL:
+                    if (dataLength >= 1) {
+                        advertisement.setTxPowerLevel(record[data]);
+                    }
+                    break;
+                case AD_APPEARANCE:
+                    if (dataLength >= 2) {
+                        advertisement.setAppearance((int) littleEndian(record, data, 2));
+                    }
+                    break;
+                case AD_SHORTENED_LOCAL_NAME:
+                case AD_COMPLETE_LOCAL_NAME:
+                    advertisement.setLocalName(data, dataLength, type == AD_COMPLETE_LOCAL_NAME);
+                    break;
+                case AD_16BIT_SOLICITATION_UUIDS:
+                case AD_32BIT_SOLICITATION_UUIDS:
+                case AD_128BIT_SOLICITATION_UUIDS:
+                    size = type == AD_16BIT_SOLICITATION_UUIDS ? 2 : type == AD_32BIT_SOLICITATION_UUIDS ? 4 : 16;
+                    for (int position = data; position + size <= data + dataLength; position += size) {
+                        advertisement.addSolicitedUUID(position, size);
+                    }
+                    break;
+                case AD_16BIT_SERVICE_DATA:
+                case AD_32BIT_SERVICE_DATA:
+                case AD_128BIT_SERVICE_DATA:
+                    size = type == AD_16BIT_SERVICE_DATA ? 2 : type == AD_32BIT_SERVICE_DATA ? 4 : 16;
+                    if (dataLength >= size) {
+                        advertisement.addServiceData(data, size, data + size, dataLength - size);
+                    }
+                    break;
+                case AD_MANUFACTURER_SPECIFIC_DATA:
+                    if (dataLength >= 2) {
+                        advertisement.addManufacturerData(data, dataLength);
+                    }
+                    break;
+                default:
+                    size = uuidSize(type);
+                    for (int position = data; size > 0 && position + size <= data + dataLength; position += size) {
+                        advertisement.addServiceUUID(position, size);
+                    }
+                    break;
+            }
+
+            offset += 1 + length;
+        }
+        return advertisement;
+    }
+
+    // writes the most and least significant halves of each service UUID into pairs, two longs per
+    // UUID, and returns the number of UUIDs in the record, which may be more than pairs had room for
+    public static int serviceUUIDs(byte[] record, long[] pairs) {
+        return serviceUUIDs(record, pairs, null, null);
+    }
+
+    // adds the canonical UUID of each service to uuids
+    public static List<UUID> serviceUUIDs(byte[] record, List<UUID> uuids) {
+        serviceUUIDs(record, null, uuids, null);
+        return uuids;
+    }
+
+    // adds each service UUID the way GATT-IP reports it, in upper case and in the form it was
+    // advertised in: a 16 or 32 bit form, or the 128 bit form
+    public static List<String> serviceUUIDStrings(byte[] record, List<String> uuids) {
+        serviceUUIDs(record, null, null, uuids);
+        return uuids;
+    }
+
+    private static int serviceUUIDs(byte[] record, long[] pairs, List<UUID> uuids, List<String> strings) {
+        int count = 0;
+
+        if (record == null) {
+            return 0;
+        }
+
+        for (int offset = 0; offset < record.length; ) {
+            int length = record[offset] & 0xFF;
+
+            if (length == 0 || offset + 1 + length > record.length) {
+                break;
+            }
+
+            int size = uuidSize(record[offset + 1] & 0xFF);
+            int end = offset + 1 + length;
+
+            // a trailing part too short for a whole UUID is left out
+            for (int position = offset + 2; size > 0 && position + size <= end; position += size) {
+                long msb, lsb;
+
+                if (size == 16) {
+                    lsb = littleEndian(record, position, 8);
+                    msb = littleEndian(record, position + 8, 8);
+                } else {
+                    msb = UUIDCodec.bluetoothMsb(littleEndian(record, position, size));
+                    lsb = UUIDCodec.BASE_LSB;
+                }
+
+                if (pairs != null && count * 2 + 1 < pairs.length) {
+                    pairs[count * 2] = msb;
+                    pairs[count * 2 + 1] = lsb;
+                }
+                if (uuids != null) {
+                    uuids.add(UUIDCodec.toUUID(msb, lsb));
+                }
+                if (strings != null) {
+                    strings.add(size == 16 ? UUIDCodec.longForm(msb, lsb) : UUIDCodec.shortForm(msb, lsb));
+                }
+                count++;
+            }
+
+            offset = end;
+        }
+        return count;
+    }
+
+    // bytes in each UUID of a service UUID structure, 0 for other types
+    private static int uuidSize(int type) {
+        switch (type) {
+            case AD_INCOMPLETE_16BIT_SERVICE_UUIDS:
+            case AD_COMPLETE_16BIT_SERVICE_UUIDS:
+                return 2;
+            case AD_INCOMPLETE_32BIT_SERVICE_UUIDS:
+            case AD_COMPLETE_32BIT_SERVICE_UUIDS:
+                return 4;
+            case AD_INCOMPLETE_128BIT_SERVICE_UUIDS:
+            case AD_COMPLETE_128BIT_SERVICE_UUIDS:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    // the count bytes at offset as an unsigned little endian number
+    static long littleEndian(byte[] data, int offset, int count) {
+        long value = 0;
+
+        for (int i = offset + count - 1; i >= offset; i--) {
+            value = value << 8 | (data[i] & 0xFF);
+        }
+        return value;
+    }
+}
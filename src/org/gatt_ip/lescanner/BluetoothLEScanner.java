@@ -4,10 +4,12 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
-import org.gatt_ip.Constants;
-import org.gatt_ip.util.Util;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,7 +25,16 @@ public abstract class BluetoothLEScanner {
 
     protected long mScanTime; // scan time in seconds ** for future use **
     protected boolean mEnableCyclicalScanning;
+    protected ScanCriteria mCriteria = ScanCriteria.ANY;
+    protected long mReportDelay;
+    protected final ScanScheduler mScheduler = new ScanScheduler(ScanScheduler.Policy.CONTINUOUS);
+    protected final Handler mHandler = new Handler(Looper.getMainLooper());
+    // mode the scheduler picked for the scan being started
+    protected int mScanMode = ScanScheduler.SCAN_MODE_LOW_LATENCY;
+    // whether discovery is on, which it stays through the scheduler's restarts and pauses
     public boolean mScanning;
+    // whether the radio is scanning now, which it is not in the scheduler's pauses
+    private boolean mRadioScanning;
 
 
     public BluetoothLEScanner(Context context) {
@@ -38,11 +49,27 @@ public abstract class BluetoothLEScanner {
     }
 
     public void startLEScan() {
-        startScan();
+        if (mScanning) {
+            return;
+        }
+        mScanning = true;
+        mScheduler.reset();
+        scheduleStart(0);
     }
 
     public void stopLEScan() {
+        mScanning = false;
+        mHandler.removeCallbacks(mStartRunnable);
+        mHandler.removeCallbacks(mWindowEndRunnable);
+        mHandler.removeCallbacks(mRestartRunnable);
         stopScan();
+        mRadioScanning = false;
+        mScheduler.onStopped();
+    }
+
+    // how scans are spread over time, from the end of the current window; null for continuous
+    public void setScanPolicy(ScanScheduler.Policy policy) {
+        mScheduler.setPolicy(policy != null ? policy : ScanScheduler.Policy.CONTINUOUS);
     }
 
     public void registerScanListener(LEScanListener listener) {
@@ -53,102 +80,128 @@ public abstract class BluetoothLEScanner {
         mListener = null;
     }
 
+    // what the scan looks for, null for every device; a running scan is restarted to take it up
+    public void setScanCriteria(ScanCriteria criteria) {
+        mCriteria = criteria != null ? criteria : ScanCriteria.ANY;
+        restartForOptions();
+    }
+
+    public ScanCriteria getScanCriteria() {
+        return mCriteria;
+    }
+
+    // how long the controller may hold results to deliver them as a batch, 0 for one callback per
+    // result. Scanners and controllers that cannot batch report each result.
+    public void setReportDelay(long reportDelay) {
+        reportDelay = Math.max(0, reportDelay);
+
+        if (reportDelay != mReportDelay) {
+            mReportDelay = reportDelay;
+            restartForOptions();
+        }
+    }
+
+    // the service UUIDs advertised in the record, in the form GATT-IP reports them
     public List<String> parseAdvertisementData(byte[] data) {
-        boolean flag = true;
-        String scanRecordString = Util.byteArrayToHex(data);
-        List<String> advdata = new ArrayList<>();
-        List<String> serviceUUIDs = new ArrayList<>();
-
-        if(scanRecordString.length()%2 == 0) {
-            for(int i = 0; i < scanRecordString.length(); i = i+2) {
-                StringBuilder sb = new StringBuilder(2);
-                sb.append(scanRecordString.charAt(i));
-                sb.append(scanRecordString.charAt(i+1));
-                advdata.add(sb.toString());
-            }
+        return AdvertisementParser.serviceUUIDStrings(data, new ArrayList<String>(4));
+    }
+
+    // starts the scan in mScanMode, returning whether it started
+    protected abstract boolean startScan();
+
+    protected abstract void stopScan();
+
+    // scan callbacks report every device they see, so the scheduler can tell when discovery has gone quiet
+    protected void onDeviceSeen(BluetoothDevice device) {
+        if (device != null) {
+            mScheduler.onDeviceSeen(device.getAddress());
+        }
+    }
+
+    // starts the next scan after the pause, or later if the start budget does not allow it then
+    private void scheduleStart(long pause) {
+        long delay = pause + mScheduler.startDelay(SystemClock.elapsedRealtime() + pause);
+
+        if (delay > 0) {
+            mHandler.postDelayed(mStartRunnable, delay);
         } else {
-            for(int i = 0; i < scanRecordString.length(); i++) {
-                StringBuilder sb = new StringBuilder(2);
-                sb.append(scanRecordString.charAt(2*i));
-                sb.append(scanRecordString.charAt(2 * i + 1));
-                advdata.add(sb.toString());
+            mStartRunnable.run();
+        }
+    }
+
+    private void radioOff() {
+        stopScan();
+        mRadioScanning = false;
+        mScheduler.onStopped();
+    }
+
+    // new options only reach the controller with a new scan, so a running one is restarted as soon as the budget allows
+    private void restartForOptions() {
+        if (mScanning) {
+            mHandler.removeCallbacks(mRestartRunnable);
+            mHandler.post(mRestartRunnable);
+        }
+    }
+
+    private final Runnable mRestartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // in a pause the next start takes the new options up anyway
+            if (!mScanning || !mRadioScanning) {
+                return;
+            }
+
+            long delay = mScheduler.startDelay(SystemClock.elapsedRealtime());
+
+            if (delay > 0) {
+                mHandler.postDelayed(mRestartRunnable, delay);
+                return;
             }
+
+            mHandler.removeCallbacks(mWindowEndRunnable);
+            radioOff();
+            mStartRunnable.run();
         }
+    };
+
+    private final Runnable mStartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mScanning) {
+                return;
+            }
 
-        do {
-            if(advdata.get(1).equals(Constants.kGAP_ADTYPE_INCOMPLETE_16BIT_SERVICEUUID) || advdata.get(1).equals(Constants.kGAP_ADTYPE_COMPLETE_16BIT_SERVICEUUID)) {
-                int advdataLength = Integer.parseInt(advdata.get(0),16);
-                StringBuilder sb = new StringBuilder();
-
-                for(int i = advdataLength, j = 0; i >= 2; i--) {
-                    sb.append(advdata.get(i));
-                    j++;
-                    if(j == 2) {
-                        serviceUUIDs.add(sb.toString());
-                        j = 0;
-                        sb.delete(0,4);
-                    }
-                }
-
-                for(int i = 0; i <= advdataLength; i++) {
-                    advdata.remove(0);
-                }
-            } else if(advdata.get(1).equals(Constants.kGAP_ADTYPE_INCOMPLETE_32BIT_SERVICEUUID) || advdata.get(1).equals(Constants.kGAP_ADTYPE_COMPLETE_32BIT_SERVICEUUID)) {
-                int advdataLength = Integer.parseInt(advdata.get(0),16);
-                StringBuilder sb = new StringBuilder();
-
-                for(int i = advdataLength, j = 0; i >= 2; i--) {
-                    sb.append(advdata.get(i));
-                    j++;
-                    if(j == 4) {
-                        serviceUUIDs.add(sb.toString());
-                        j = 0;
-                        sb.delete(0,8);
-                    }
-                }
-
-                if(sb.length() > 0) {
-                    serviceUUIDs.add(sb.toString());
-                }
-
-                for(int i = 0; i <= advdataLength; i++) {
-                    advdata.remove(0);
-                }
-            } else if(advdata.get(1).equals(Constants.kGAP_ADTYPE_INCOMPLETE_128BIT_SERVICEUUID) || advdata.get(1).equals(Constants.kGAP_ADTYPE_COMPLETE_128BIT_SERVICEUUID)) {
-                int advdataLength = Integer.parseInt(advdata.get(0),16);
-                StringBuilder sb = new StringBuilder();
-
-                for(int i = advdataLength; i >= 2; i--) {
-                    sb.append(advdata.get(i));
-                    if (i == 14 || i == 12 || i == 10 || i == 8) {
-                        sb.append("-");
-                    }
-                }
-
-                if(sb.length() > 0) {
-                    serviceUUIDs.add(sb.toString());
-                }
-
-                for(int i = 0; i <= advdataLength; i++) {
-                    advdata.remove(0);
-                }
+            mScanMode = mScheduler.scanMode();
+
+            if (startScan()) {
+                mRadioScanning = true;
+                mScheduler.onStarted(SystemClock.elapsedRealtime(), mScanMode);
+                mHandler.postDelayed(mWindowEndRunnable, mScheduler.window());
             } else {
-                int advdataLength = Integer.parseInt(advdata.get(0),16);
-                for(int i = 0; i <= advdataLength; i++) {
-                    advdata.remove(0);
-                }
+                // the adapter is off or gone; discovery has to be asked for again
+                mScanning = false;
             }
+        }
+    };
 
-            if(advdata.size() <= 1) {
-                flag = false;
+    private final Runnable mWindowEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mScanning) {
+                return;
             }
-        } while(flag);
-        return serviceUUIDs;
-    }
 
-    protected abstract void startScan();
+            long pause = mScheduler.windowEnded(SystemClock.elapsedRealtime());
 
-    protected abstract void stopScan();
+            if (pause < 0) {
+                mHandler.postDelayed(mWindowEndRunnable, mScheduler.window());
+                return;
+            }
+
+            radioOff();
+            scheduleStart(pause);
+        }
+    };
 
     protected BluetoothAdapter getBluetoothAdapter() {
         if (mBluetoothAdapter == null) {
@@ -167,5 +220,6 @@ public abstract class BluetoothLEScanner {
 
     public interface LEScanListener {
         public void onLeScan(BluetoothDevice device, int rssi, ScanRecord record, byte[] adevertismentData);
+        public void onLeScanBatch(List<ScanResult> results);
     }
 }
@@ -8,18 +8,12 @@ import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.ParcelUuid;
 import android.util.Log;
 
-import org.gatt_ip.Constants;
-import org.gatt_ip.util.Util;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Created by vensi on 4/21/15.
@@ -27,79 +21,86 @@ import java.util.List;
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public final class BluetoothLEScannerForLollipop extends BluetoothLEScanner {
     private static final String TAG = BluetoothLEScannerForLollipop.class.getName();
-    private long mScanPeriod = 2000l;
-    private long mScanStopTime = 0l;
-    private Handler mHandler;
     // This should probably be set up with parameters on creation.
     private ScanSettings mScanSettings;
+    // the scan criteria as controller filters; empty to report every device
     private List<ScanFilter> mScanFilters = new ArrayList<ScanFilter>();
+    // whether the running scan has the controller hold results back for onBatchScanResults
+    private boolean mBatching;
 
     public BluetoothLEScannerForLollipop(Context context) {
         super(context);
-        mHandler = new Handler(Looper.getMainLooper());
     }
 
     public BluetoothLEScannerForLollipop(Context context, boolean duplicates) {
         super(context, duplicates);
-        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    @Override
+    public void setScanCriteria(ScanCriteria criteria) {
+        super.setScanCriteria(criteria);
+        mScanFilters = scanFilters(mCriteria);
+    }
+
+    // one filter per criterion, since the stack reports a device that passes any of the filters.
+    // Where the controller supports offloaded filtering it applies them itself and the host is
+    // not woken for other devices; elsewhere the stack applies them before the callback.
+    private static List<ScanFilter> scanFilters(ScanCriteria criteria) {
+        List<ScanFilter> filters = new ArrayList<ScanFilter>();
+
+        for (UUID uuid : criteria.getServiceUUIDs()) {
+            filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(uuid)).build());
+        }
+
+        // empty data matches any data the company advertises
+        for (int i = 0; i < criteria.getManufacturerIdCount(); i++) {
+            filters.add(new ScanFilter.Builder().setManufacturerData(criteria.getManufacturerId(i), new byte[0]).build());
+        }
+
+        for (String address : criteria.getAddresses()) {
+            filters.add(new ScanFilter.Builder().setDeviceAddress(address).build());
+        }
+        return filters;
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     @Override
-    protected void startScan() {
+    protected boolean startScan() {
         if (getBluetoothAdapter() != null) {
             if (getBluetoothAdapter().isEnabled()) {
                 ScanSettings.Builder scanSettingsBuilder = new ScanSettings.Builder();
-                scanSettingsBuilder.setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+                scanSettingsBuilder.setScanMode(mScanMode);
+
+                // without batching support in the controller a report delay fails the scan, so results come one at a time
+                mBatching = mReportDelay > 0 && getBluetoothAdapter().isOffloadedScanBatchingSupported();
+                if (mBatching) {
+                    scanSettingsBuilder.setReportDelay(mReportDelay);
+                }
                 mScanSettings = scanSettingsBuilder.build();
 
                 getBluetoothAdapter().getBluetoothLeScanner().startScan(mScanFilters, mScanSettings, mScanCallback);
-                mScanStopTime = new Date().getTime() + mScanPeriod;
-
-                mScanning = true;
-
-                handleIntervalScanning();
-
+                return true;
             }
         }
+        return false;
     }
 
     @Override
     protected void stopScan() {
         if (getBluetoothAdapter() != null && mScanCallback != null) {
+            flushBatch();
             getBluetoothAdapter().getBluetoothLeScanner().stopScan(mScanCallback);
-            if(mScanning)
-                mScanning = false;
         }
     }
 
-    private void handleIntervalScanning() {
-        long msUntilNextStop = mScanStopTime - (new Date().getTime());
-
-        if (msUntilNextStop > mScanPeriod)
-            msUntilNextStop =  mScanPeriod;
-
-        if (msUntilNextStop > 0) {
-            mHandler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    handleIntervalScanning();
-                }
-            }, msUntilNextStop);
-        } else {
-            if (getBluetoothAdapter() != null) {
-                if (getBluetoothAdapter().isEnabled()) {
-                    if (mScanning) {
-                        getBluetoothAdapter().getBluetoothLeScanner().stopScan(mScanCallback);
-
-                        startScan();
-                    }
-                }
-            }
+    // delivers the results the controller is holding, which stopping the scan would drop
+    private void flushBatch() {
+        if (mBatching) {
+            getBluetoothAdapter().getBluetoothLeScanner().flushPendingScanResults(mScanCallback);
+            mBatching = false;
         }
     }
 
-
     private ScanCallback mScanCallback = new ScanCallback() {
         @Override
         public void onScanFailed(int errorCode) {
@@ -111,27 +112,26 @@ public final class BluetoothLEScannerForLollipop extends BluetoothLEScanner {
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
 
+            onDeviceSeen(result.getDevice());
+
             if (mListener != null) {
                     ScanRecord record = result.getScanRecord();
-                    byte[] scanRecord = record.getBytes();
-                    ByteBuffer wrapped = ByteBuffer.wrap(scanRecord); // big-endian by default
-                    wrapped.order(ByteOrder.BIG_ENDIAN);
 
-                    byte[] scanRed = new byte[scanRecord.length];
-
-                    for(int i = 0; i < scanRecord.length; i++) {
-                        scanRed[i] = wrapped.get(i);
-                    }
-
-
-
-                    mListener.onLeScan(result.getDevice(), result.getRssi(), record, scanRed);
+                    mListener.onLeScan(result.getDevice(), result.getRssi(), record, record.getBytes());
             }
         }
 
         @Override
         public void onBatchScanResults(List<ScanResult> results) {
             super.onBatchScanResults(results);
+
+            for (ScanResult result : results) {
+                onDeviceSeen(result.getDevice());
+            }
+
+            if (mListener != null && !results.isEmpty()) {
+                mListener.onLeScanBatch(results);
+            }
         }
     };
 }
@@ -0,0 +1,104 @@
+package org.gatt_ip.lescanner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * What a scan is looking for: advertised services, manufacturer identifiers and device
+ * addresses. A device is wanted if it matches any one of them, and every device is wanted when
+ * there are none.
+ *
+ * The Lollipop scanner hands the criteria to the controller as ScanFilters, one per entry, so
+ * devices that match none of them never wake the host where filtering is offloaded. matches()
+ * applies the same test in software for scanners that cannot filter.
+ */
+public final class ScanCriteria {
+    public static final ScanCriteria ANY = new ScanCriteria(null, null, null);
+
+    private final List<UUID> m_service_uuids;
+    private final int[] m_manufacturer_ids;
+    private final List<String> m_addresses;
+
+    // addresses are matched without regard to case; null lists are taken as empty
+    public ScanCriteria(List<UUID> serviceUUIDs, List<Integer> manufacturerIds, List<String> addresses) {
+        m_service_uuids = serviceUUIDs == null
+                ? Collections.<UUID>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(serviceUUIDs));
+
+        m_manufacturer_ids = new int[manufacturerIds == null ? 0 : manufacturerIds.size()];
+        for (int i = 0; i < m_manufacturer_ids.length; i++) {
+            m_manufacturer_ids[i] = manufacturerIds.get(i);
+        }
+
+        List<String> upperCase = new ArrayList<>();
+        if (addresses != null) {
+            for (String address : addresses) {
+                upperCase.add(address.toUpperCase(Locale.US));
+            }
+        }
+        m_addresses = Collections.unmodifiableList(upperCase);
+    }
+
+    public boolean isEmpty() {
+        return m_service_uuids.isEmpty() && m_manufacturer_ids.length == 0 && m_addresses.isEmpty();
+    }
+
+    public List<UUID> getServiceUUIDs() {
+        return m_service_uuids;
+    }
+
+    public int getManufacturerIdCount() {
+        return m_manufacturer_ids.length;
+    }
+
+    public int getManufacturerId(int index) {
+        return m_manufacturer_ids[index];
+    }
+
+    // upper case, with colons, as BluetoothDevice has them
+    public List<String> getAddresses() {
+        return m_addresses;
+    }
+
+    // whether the device at the address, advertising as decoded, is wanted
+    public boolean matches(String address, Advertisement advertisement) {
+        if (isEmpty()) {
+            return true;
+        }
+
+        if (address != null) {
+            for (int i = 0; i < m_addresses.size(); i++) {
+                if (m_addresses.get(i).equalsIgnoreCase(address)) {
+                    return true;
+                }
+            }
+        }
+
+        for (int i = 0; i < advertisement.manufacturerDataCount(); i++) {
+            int id = advertisement.manufacturerId(i);
+
+            for (int wanted : m_manufacturer_ids) {
+                if (wanted == id) {
+                    return true;
+                }
+            }
+        }
+
+        for (int i = 0; i < advertisement.serviceUUIDCount(); i++) {
+            long msb = advertisement.serviceUUIDMsb(i);
+            long lsb = advertisement.serviceUUIDLsb(i);
+
+            for (int j = 0; j < m_service_uuids.size(); j++) {
+                UUID wanted = m_service_uuids.get(j);
+
+                if (wanted.getMostSignificantBits() == msb && wanted.getLeastSignificantBits() == lsb) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
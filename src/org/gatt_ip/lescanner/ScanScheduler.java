@@ -0,0 +1,227 @@
+package org.gatt_ip.lescanner;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides when a scanner starts, stops and restarts its scan, and in which scan mode.
+ *
+ * Android refuses to start more than five scans for an app in thirty seconds, and does so
+ * silently: the scan simply reports nothing. Every start the scheduler asks for is counted
+ * against a budget shared by all scanners of the app, and a start that would exceed it is put
+ * off until it no longer would. A running scan is never stopped for a restart the budget
+ * cannot afford; it carries on until a later window.
+ *
+ * The policies:
+ *   CONTINUOUS - scans without a break in low latency mode, the default;
+ *   WINDOWED   - scans for a window in balanced mode, then pauses for as long again;
+ *   ADAPTIVE   - starts in low latency mode and, for every window in which no new device turns
+ *                up, steps down to balanced, then low power, then low power with pauses that
+ *                double up to a minute. A new device brings it straight back to low latency.
+ *
+ * The scheduler keeps time only through the times it is given, so it has no dependence on the
+ * platform. The scanner drives it from its handler while scan callbacks report devices from
+ * other threads, so its methods are synchronized.
+ */
+public final class ScanScheduler {
+    public enum Policy { CONTINUOUS, WINDOWED, ADAPTIVE }
+
+    // as ScanSettings numbers them
+    public static final int SCAN_MODE_LOW_POWER = 0;
+    public static final int SCAN_MODE_BALANCED = 1;
+    public static final int SCAN_MODE_LOW_LATENCY = 2;
+
+    static final int MAX_STARTS = 5;
+    static final long START_PERIOD_MS = 30 * 1000L;
+
+    // kept clear of the limit, as the platform counts by its own clock
+    private static final long START_MARGIN_MS = 1000L;
+
+    // a scan the platform lets run this long is downgraded to opportunistic, so continuous scans are renewed before then
+    private static final long CONTINUOUS_WINDOW_MS = 25 * 60 * 1000L;
+
+    // shortest window between restarts that the budget can keep up with indefinitely
+    private static final long RESTART_WINDOW_MS = (START_PERIOD_MS + START_MARGIN_MS) / MAX_STARTS;
+
+    private static final long WINDOWED_SCAN_MS = 5 * 1000L;
+    private static final long WINDOWED_PAUSE_MS = 5 * 1000L;
+
+    private static final long ADAPTIVE_WINDOW_MS = 10 * 1000L;
+    private static final long ADAPTIVE_FIRST_PAUSE_MS = 5 * 1000L;
+    private static final long ADAPTIVE_MAX_PAUSE_MS = 60 * 1000L;
+
+    // low latency, balanced, low power, then low power with pauses
+    private static final int LEVEL_PAUSING = 3;
+    private static final int MAX_LEVEL = LEVEL_PAUSING + 4;
+
+    private static final int MAX_SEEN = 1024;
+
+    private static final StartBudget BUDGET = new StartBudget();
+
+    private final StartBudget mBudget;
+    private final Set<String> mSeen = new HashSet<String>();
+
+    private Policy mPolicy;
+    private boolean mRestartEachWindow;
+    private boolean mScanModes = true;
+
+    private int mLevel;
+    private boolean mFoundInWindow;
+    private int mRunningMode = -1;
+
+    public ScanScheduler(Policy policy) {
+        this(policy, BUDGET);
+    }
+
+    ScanScheduler(Policy policy, StartBudget budget) {
+        mPolicy = policy != null ? policy : Policy.CONTINUOUS;
+        mBudget = budget;
+    }
+
+    // takes effect at the end of the current window
+    public synchronized void setPolicy(Policy policy) {
+        if (policy != null && policy != mPolicy) {
+            mPolicy = policy;
+            mLevel = 0;
+        }
+    }
+
+    public synchronized Policy getPolicy() {
+        return mPolicy;
+    }
+
+    // for scanners that only report a device once per scan, so a device is seen again after a restart
+    public synchronized void setRestartEachWindow(boolean restartEachWindow) {
+        mRestartEachWindow = restartEachWindow;
+    }
+
+    // for scanners that have no scan modes, which are then never restarted to change mode
+    public synchronized void setScanModesSupported(boolean scanModes) {
+        mScanModes = scanModes;
+    }
+
+    // ms to wait before a scan can start within the budget, 0 to start now
+    public long startDelay(long now) {
+        return mBudget.delay(now);
+    }
+
+    // the mode the next scan is to run in
+    public synchronized int scanMode() {
+        switch (mPolicy) {
+            case CONTINUOUS:
+                return SCAN_MODE_LOW_LATENCY;
+            case WINDOWED:
+                return SCAN_MODE_BALANCED;
+            default:
+                return mLevel == 0 ? SCAN_MODE_LOW_LATENCY : mLevel == 1 ? SCAN_MODE_BALANCED : SCAN_MODE_LOW_POWER;
+        }
+    }
+
+    public synchronized void onStarted(long now, int mode) {
+        mBudget.record(now);
+        mRunningMode = mode;
+        mFoundInWindow = false;
+    }
+
+    public synchronized void onStopped() {
+        mRunningMode = -1;
+    }
+
+    // how long the scan runs before windowEnded() is asked what to do next
+    public synchronized long window() {
+        switch (mPolicy) {
+            case CONTINUOUS:
+                return mRestartEachWindow ? RESTART_WINDOW_MS : CONTINUOUS_WINDOW_MS;
+            case WINDOWED:
+                return Math.max(WINDOWED_SCAN_MS, mRestartEachWindow ? RESTART_WINDOW_MS : 0);
+            default:
+                return ADAPTIVE_WINDOW_MS;
+        }
+    }
+
+    // whether the address was not seen before in this discovery
+    public synchronized boolean onDeviceSeen(String address) {
+        if (address == null || mSeen.contains(address)) {
+            return false;
+        }
+        if (mSeen.size() >= MAX_SEEN) {
+            // rotating private addresses would grow the set without end; forgetting them costs a few early step ups
+            mSeen.clear();
+        }
+        mSeen.add(address);
+        mFoundInWindow = true;
+        return true;
+    }
+
+    // at the end of a window: ms to pause before the next scan, 0 to restart at once, or -1 to let
+    // the scan run on through another window
+    public synchronized long windowEnded(long now) {
+        if (mPolicy == Policy.ADAPTIVE) {
+            mLevel = mFoundInWindow ? 0 : Math.min(mLevel + 1, MAX_LEVEL);
+        }
+        mFoundInWindow = false;
+
+        long pause = pause();
+        boolean restart = pause > 0 || mRestartEachWindow || (mScanModes && scanMode() != mRunningMode)
+                || mPolicy == Policy.CONTINUOUS;
+
+        if (!restart) {
+            return -1;
+        }
+        if (mBudget.delay(now + pause) > 0) {
+            // the budget would leave the radio idle for longer than planned; keep scanning instead
+            if (mPolicy == Policy.ADAPTIVE && pause == 0) {
+                mLevel = Math.max(0, mLevel - 1);
+            }
+            return -1;
+        }
+        return pause;
+    }
+
+    // starts afresh for a new discovery; the budget carries over
+    public synchronized void reset() {
+        mLevel = 0;
+        mFoundInWindow = false;
+        mRunningMode = -1;
+        mSeen.clear();
+    }
+
+    private long pause() {
+        switch (mPolicy) {
+            case WINDOWED:
+                return WINDOWED_PAUSE_MS;
+            case ADAPTIVE:
+                if (mLevel < LEVEL_PAUSING) {
+                    return 0;
+                }
+                return Math.min(ADAPTIVE_FIRST_PAUSE_MS << (mLevel - LEVEL_PAUSING), ADAPTIVE_MAX_PAUSE_MS);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Times of the most recent scan starts of the app, oldest first in a ring.
+     */
+    static final class StartBudget {
+        private final long[] mStarts = new long[MAX_STARTS];
+        private int mNext;
+        private int mCount;
+
+        // ms until a start at now would keep the starts within the period to MAX_STARTS
+        synchronized long delay(long now) {
+            if (mCount < MAX_STARTS) {
+                return 0;
+            }
+            // the oldest of the last MAX_STARTS starts has to leave the period first
+            long oldest = mStarts[mNext];
+            return Math.max(0, oldest + START_PERIOD_MS + START_MARGIN_MS - now);
+        }
+
+        synchronized void record(long now) {
+            mStarts[mNext] = now;
+            mNext = (mNext + 1) % MAX_STARTS;
+            mCount = Math.min(mCount + 1, MAX_STARTS);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.gatt_ip.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads GATT-IP messages sent in the CborEncoder format back into org.json values, so binary
+ * requests take the same path as text ones. Byte strings become hex text again. Both definite
+ * and indefinite length items are accepted; anything malformed raises a JSONException, the same
+ * as malformed JSON text, and so does nesting deeper than MAX_DEPTH arrays, maps and tags, which
+ * would otherwise take the decoder's stack with it.
+ */
+public final class CborDecoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BREAK = 0xFF;
+    private static final int INDEFINITE = 31;
+
+    // far deeper than any GATT-IP message nests
+    static final int MAX_DEPTH = 32;
+
+    private final byte[] m_data;
+    private int m_offset;
+    private int m_depth;
+
+    private CborDecoder(byte[] data) {
+        m_data = data;
+    }
+
+    // the JSONObject, JSONArray or plain value the frame holds
+    public static Object decode(byte[] frame) throws JSONException {
+        if (frame == null || frame.length == 0) {
+            throw new JSONException("Empty frame");
+        }
+
+        CborDecoder decoder = new CborDecoder(frame);
+        Object value = decoder.item();
+
+        if (decoder.m_offset != frame.length) {
+            throw new JSONException("Trailing bytes after the message");
+        }
+        return value;
+    }
+
+    private Object item() throws JSONException {
+        int initial = read();
+        int info = initial & 0x1F;
+
+        switch (initial >>> 5) {
+            case 0:
+                return number(argument(info));
+            case 1:
+                return number(-1 - argument(info));
+            case 2:
+                return HexCodec.encode(bytes(2, info));
+            case 3:
+                return new String(bytes(3, info), UTF_8);
+            case 4:
+                enter();
+                JSONArray array = array(info);
+                m_depth--;
+                return array;
+            case 5:
+                enter();
+                JSONObject object = map(info);
+                m_depth--;
+                return object;
+            case 6:
+                // tags carry no meaning for GATT-IP, the tagged item stands for itself
+                argument(info);
+                enter();
+                Object tagged = item();
+                m_depth--;
+                return tagged;
+            default:
+                return simple(info);
+        }
+    }
+
+    private void enter() throws JSONException {
+        if (++m_depth > MAX_DEPTH) {
+            throw new JSONException("Frame nests deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+
+    private JSONArray array(int info) throws JSONException {
+        JSONArray array = new JSONArray();
+
+        if (info == INDEFINITE) {
+            while (!atBreak()) {
+                array.put(item());
+            }
+        } else {
+            for (long i = count(info); i > 0; i--) {
+                array.put(item());
+            }
+        }
+        return array;
+    }
+
+    private JSONObject map(int info) throws JSONException {
+        JSONObject object = new JSONObject();
+        long count = info == INDEFINITE ? -1 : count(info);
+
+        while (count < 0 ? !atBreak() : count-- > 0) {
+            Object key = item();
+
+            if (!(key instanceof String)) {
+                throw new JSONException("Map key is not a text string");
+            }
+            object.put((String) key, item());
+        }
+        return object;
+    }
+
+    private Object simple(int info) throws JSONException {
+        switch (info) {
+            case 20:
+                return Boolean.FALSE;
+            case 21:
+                return Boolean.TRUE;
+            case 22:
+            case 23:
+                return JSONObject.NULL;
+            case 26:
+                return (double) Float.intBitsToFloat((int) fixed(4));
+            case 27:
+                return Double.longBitsToDouble(fixed(8));
+            default:
+                throw new JSONException("Unsupported simple value " + info);
+        }
+    }
+
+    // content of a byte or text string, joining the chunks of an indefinite length one
+    private byte[] bytes(int major, int info) throws JSONException {
+        if (info != INDEFINITE) {
+            long length = count(info);
+            byte[] content = new byte[(int) length];
+            System.arraycopy(m_data, m_offset, content, 0, content.length);
+            m_offset += content.length;
+            return content;
+        }
+
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+
+        while (!atBreak()) {
+            int chunk = read();
+
+            if (chunk >>> 5 != major || (chunk & 0x1F) == INDEFINITE) {
+                throw new JSONException("Malformed string chunk");
+            }
+
+            byte[] content = bytes(major, chunk & 0x1F);
+            chunks.write(content, 0, content.length);
+        }
+        return chunks.toByteArray();
+    }
+
+    // a string length or item count; every byte or item takes at least a byte of what is left, so
+    // anything larger, or past the range of a long, is malformed rather than a huge allocation
+    private long count(int info) throws JSONException {
+        long count = argument(info);
+
+        if (count < 0 || count > m_data.length - m_offset) {
+            throw new JSONException("Length runs past the end of the frame");
+        }
+        return count;
+    }
+
+    private long argument(int info) throws JSONException {
+        if (info < 24) {
+            return info;
+        }
+
+        switch (info) {
+            case 24:
+                return fixed(1);
+            case 25:
+                return fixed(2);
+            case 26:
+                return fixed(4);
+            case 27:
+                return fixed(8);
+            default:
+                throw new JSONException("Malformed item argument " + info);
+        }
+    }
+
+    private long fixed(int length) throws JSONException {
+        long value = 0;
+
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | read();
+        }
+        return value;
+    }
+
+    private boolean atBreak() throws JSONException {
+        if (m_offset >= m_data.length) {
+            throw new JSONException("Missing break at the end of the frame");
+        }
+        if ((m_data[m_offset] & 0xFF) == BREAK) {
+            m_offset++;
+            return true;
+        }
+        return false;
+    }
+
+    private int read() throws JSONException {
+        if (m_offset >= m_data.length) {
+            throw new JSONException("Truncated frame");
+        }
+        return m_data[m_offset++] & 0xFF;
+    }
+
+    private static Object number(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+}
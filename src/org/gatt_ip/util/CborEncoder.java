@@ -0,0 +1,269 @@
+package org.gatt_ip.util;
+
+import org.gatt_ip.Constants;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Compact binary form of GATT-IP messages: CBOR (RFC 7049) with the short protocol codes from
+ * Constants as map keys. Objects and arrays are written with indefinite length so messages can
+ * be streamed, and binary values go out as byte strings instead of hex text, which halves them.
+ *
+ * An encoder is not thread-safe; keep one per thread and reset() it for every message.
+ */
+public final class CborEncoder implements MessageEncoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int BREAK = 0xFF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int DOUBLE = 0xFB;
+
+    // keys whose string values are hex encoded binary data
+    private static final HashSet<String> HEX_KEYS = new HashSet<>(Arrays.asList(
+            Constants.kValue,
+            Constants.kRawAdvertisementData));
+
+    // keys whose values are objects of hex encoded binary data
+    private static final HashSet<String> HEX_MAP_KEYS = new HashSet<>(Arrays.asList(
+            Constants.kCBAdvertisementDataManufacturerDataKey,
+            Constants.kCBAdvertisementDataServiceDataKey));
+
+    private byte[] m_buffer;
+    private int m_length;
+
+    public CborEncoder() {
+        this(256);
+    }
+
+    public CborEncoder(int capacity) {
+        m_buffer = new byte[capacity];
+    }
+
+    // a whole org.json message, with the hex values of the known binary fields as byte strings
+    public static byte[] encode(Object message) throws JSONException {
+        return new CborEncoder().message(message).toByteArray();
+    }
+
+    // appends a whole org.json message, the same way encode() writes it
+    public CborEncoder message(Object message) throws JSONException {
+        json(message, false);
+        return this;
+    }
+
+    @Override
+    public CborEncoder reset() {
+        m_length = 0;
+        return this;
+    }
+
+    @Override
+    public CborEncoder beginObject() {
+        write(INDEFINITE_MAP);
+        return this;
+    }
+
+    @Override
+    public CborEncoder endObject() {
+        write(BREAK);
+        return this;
+    }
+
+    @Override
+    public CborEncoder beginArray() {
+        write(INDEFINITE_ARRAY);
+        return this;
+    }
+
+    @Override
+    public CborEncoder endArray() {
+        write(BREAK);
+        return this;
+    }
+
+    @Override
+    public CborEncoder key(String key) {
+        return value(key);
+    }
+
+    @Override
+    public CborEncoder value(String value) {
+        if (value == null) {
+            write(NULL);
+            return this;
+        }
+
+        int length = value.length();
+        boolean ascii = true;
+
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+
+        if (ascii) {
+            head(MAJOR_TEXT, length);
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                m_buffer[m_length++] = (byte) value.charAt(i);
+            }
+        } else {
+            byte[] utf8 = value.getBytes(UTF_8);
+            head(MAJOR_TEXT, utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+        return this;
+    }
+
+    @Override
+    public CborEncoder value(long value) {
+        if (value < 0) {
+            head(MAJOR_NEGATIVE, -1 - value);
+        } else {
+            head(MAJOR_UNSIGNED, value);
+        }
+        return this;
+    }
+
+    @Override
+    public CborEncoder value(boolean value) {
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public CborEncoder hexValue(byte[] value) {
+        return hexValue(value, 0, value == null ? 0 : value.length);
+    }
+
+    @Override
+    public CborEncoder hexValue(byte[] value, int offset, int length) {
+        head(MAJOR_BYTES, length);
+        if (length > 0) {
+            write(value, offset, length);
+        }
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return m_length;
+    }
+
+    // the backing array without copying it; the frame is its first length() bytes until the encoder is used again
+    public byte[] buffer() {
+        return m_buffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(m_buffer, m_length);
+    }
+
+    private void json(Object value, boolean hex) throws JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            write(NULL);
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            Iterator<String> keys = object.keys();
+
+            beginObject();
+            while (keys.hasNext()) {
+                String key = keys.next();
+
+                key(key);
+                // members of a hex map are hex themselves
+                json(object.get(key), hex || HEX_KEYS.contains(key) || HEX_MAP_KEYS.contains(key));
+            }
+            endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+
+            beginArray();
+            for (int i = 0; i < array.length(); i++) {
+                json(array.get(i), false);
+            }
+            endArray();
+        } else if (value instanceof String) {
+            String string = (String) value;
+
+            int length = hex ? HexCodec.decodedLength(string) : -1;
+
+            if (length >= 0) {
+                // decoded straight into the frame
+                head(MAJOR_BYTES, length);
+                ensure(length);
+                m_length += HexCodec.decode(string, m_buffer, m_length);
+            } else {
+                value(string);
+            }
+        } else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            write(DOUBLE);
+            long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (bits >>> shift));
+            }
+        } else {
+            value(value.toString());
+        }
+    }
+
+    // initial byte and argument of a data item, in the shortest form
+    private void head(int major, long argument) {
+        int type = major << 5;
+
+        if (argument < 24) {
+            write(type | (int) argument);
+        } else if (argument <= 0xFF) {
+            write(type | 24);
+            write((int) argument);
+        } else if (argument <= 0xFFFF) {
+            write(type | 25);
+            write((int) (argument >> 8));
+            write((int) argument);
+        } else if (argument <= 0xFFFFFFFFL) {
+            write(type | 26);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                write((int) (argument >>> shift));
+            }
+        } else {
+            write(type | 27);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (argument >>> shift));
+            }
+        }
+    }
+
+    private void write(int b) {
+        ensure(1);
+        m_buffer[m_length++] = (byte) b;
+    }
+
+    private void write(byte[] data, int offset, int length) {
+        ensure(length);
+        System.arraycopy(data, offset, m_buffer, m_length, length);
+        m_length += length;
+    }
+
+    private void ensure(int extra) {
+        if (m_length + extra > m_buffer.length) {
+            m_buffer = Arrays.copyOf(m_buffer, Math.max(m_buffer.length * 2, m_length + extra));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.gatt_ip.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Hex encoding of binary values, the way GATT-IP carries them: two upper case digits per byte.
+ * Encoding looks the digits up in HexDump's table and decoding in a reverse table, so neither
+ * goes through String.format, regular expressions or Character.digit. Every method can write
+ * into an array or builder the caller already has.
+ *
+ * Decoding accepts either case and skips whitespace between digits, as clients have always
+ * been allowed to send.
+ */
+public final class HexCodec {
+    private static final char[] HEX_DIGITS = HexDump.HEX_DIGITS;
+
+    // value of each ASCII character as a hex digit, -1 if it is none, -2 for whitespace
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    private static final int NOT_A_DIGIT = -1;
+    private static final int WHITESPACE = -2;
+
+    static {
+        for (int i = 0; i < DIGIT_VALUES.length; i++) {
+            DIGIT_VALUES[i] = NOT_A_DIGIT;
+        }
+        for (int i = 0; i < HEX_DIGITS.length; i++) {
+            DIGIT_VALUES[HEX_DIGITS[i]] = (byte) i;
+            DIGIT_VALUES[Character.toLowerCase(HEX_DIGITS[i])] = (byte) i;
+        }
+        for (char c : new char[] {' ', '\t', '\n', '\r', '\f', 0x0B}) {
+            DIGIT_VALUES[c] = WHITESPACE;
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    // the bytes as hex, empty for null or no data
+    public static String encode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return "";
+        }
+        return encode(data, 0, data.length);
+    }
+
+    public static String encode(byte[] data, int offset, int length) {
+        char[] hex = new char[length * 2];
+        encode(data, offset, length, hex, 0);
+        return new String(hex);
+    }
+
+    // writes the hex digits into out and returns how many were written
+    public static int encode(byte[] data, int offset, int length, char[] out, int outOffset) {
+        int position = outOffset;
+
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i];
+            out[position++] = HEX_DIGITS[(b >> 4) & 0x0F];
+            out[position++] = HEX_DIGITS[b & 0x0F];
+        }
+        return position - outOffset;
+    }
+
+    // the digits as ASCII bytes, for messages that are written as bytes; returns how many were written
+    public static int encode(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        int position = outOffset;
+
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i];
+            out[position++] = (byte) HEX_DIGITS[(b >> 4) & 0x0F];
+            out[position++] = (byte) HEX_DIGITS[b & 0x0F];
+        }
+        return position - outOffset;
+    }
+
+    public static StringBuilder append(StringBuilder out, byte[] data) {
+        return data == null ? out : append(out, data, 0, data.length);
+    }
+
+    public static StringBuilder append(StringBuilder out, byte[] data, int offset, int length) {
+        out.ensureCapacity(out.length() + length * 2);
+
+        for (int i = offset; i < offset + length; i++) {
+            append(out, data[i]);
+        }
+        return out;
+    }
+
+    // the two digits of a single byte
+    public static StringBuilder append(StringBuilder out, int b) {
+        return out.append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+    }
+
+    // number of bytes the hex text decodes to, or -1 if it has a character that is not a digit or an odd number of digits
+    public static int decodedLength(CharSequence hex) {
+        int digits = 0;
+
+        for (int i = 0; i < hex.length(); i++) {
+            int value = valueOf(hex.charAt(i));
+
+            if (value == NOT_A_DIGIT) {
+                return -1;
+            }
+            if (value != WHITESPACE) {
+                digits++;
+            }
+        }
+        return digits % 2 == 0 ? digits / 2 : -1;
+    }
+
+    public static boolean isValid(CharSequence hex) {
+        return hex != null && decodedLength(hex) >= 0;
+    }
+
+    public static byte[] decode(CharSequence hex) {
+        int length = decodedLength(hex);
+
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid hex value: " + hex);
+        }
+
+        byte[] data = new byte[length];
+        decode(hex, data, 0);
+        return data;
+    }
+
+    // decodes valid hex text into out and returns the number of bytes written
+    public static int decode(CharSequence hex, byte[] out, int outOffset) {
+        int position = outOffset;
+        int high = -1;
+
+        for (int i = 0; i < hex.length(); i++) {
+            int value = valueOf(hex.charAt(i));
+
+            if (value == WHITESPACE) {
+                continue;
+            }
+            if (value == NOT_A_DIGIT) {
+                throw new IllegalArgumentException("Invalid hex digit '" + hex.charAt(i) + "'");
+            }
+
+            if (high < 0) {
+                high = value;
+            } else {
+                out[position++] = (byte) ((high << 4) | value);
+                high = -1;
+            }
+        }
+
+        if (high >= 0) {
+            throw new IllegalArgumentException("Odd number of hex digits");
+        }
+        return position - outOffset;
+    }
+
+    // decodes valid hex text into the buffer at its position, which is advanced past the bytes
+    public static int decode(CharSequence hex, ByteBuffer out) {
+        int length = decodedLength(hex);
+
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid hex value: " + hex);
+        }
+        if (length > out.remaining()) {
+            throw new BufferOverflowException();
+        }
+
+        if (out.hasArray()) {
+            decode(hex, out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + length);
+        } else {
+            out.put(decode(hex));
+        }
+        return length;
+    }
+
+    // value of a single hex digit, -1 if the character is not one
+    public static int digit(char c) {
+        int value = valueOf(c);
+        return value < 0 ? -1 : value;
+    }
+
+    private static int valueOf(char c) {
+        return c < DIGIT_VALUES.length ? DIGIT_VALUES[c] : NOT_A_DIGIT;
+    }
+}
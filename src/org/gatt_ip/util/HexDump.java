@@ -21,7 +21,7 @@ package org.gatt_ip.util;
  * only.
  */
 public class HexDump {
-    private final static char[] HEX_DIGITS = {
+    final static char[] HEX_DIGITS = {
             '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
     };
 
@@ -0,0 +1,225 @@
+package org.gatt_ip.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * Streaming JSON writer over a reusable buffer, for messages that are sent often enough that
+ * building org.json trees for them shows up in the GC. Keys are written as they are, so they
+ * must not need escaping; the protocol codes in Constants and hex UUIDs never do.
+ *
+ * An encoder is not thread-safe; keep one per thread and reset() it for every message.
+ */
+public final class JsonEncoder implements MessageEncoder {
+    private final StringBuilder m_buffer;
+
+    // whether the next key or value has to be separated from the previous one
+    private boolean m_separate;
+
+    public JsonEncoder() {
+        this(512);
+    }
+
+    public JsonEncoder(int capacity) {
+        m_buffer = new StringBuilder(capacity);
+    }
+
+    // appends a whole org.json message, as its toString() would write it but without the copies
+    public JsonEncoder message(Object message) throws JSONException {
+        json(message);
+        return this;
+    }
+
+    @Override
+    public JsonEncoder reset() {
+        m_buffer.setLength(0);
+        m_separate = false;
+        return this;
+    }
+
+    @Override
+    public JsonEncoder beginObject() {
+        separate();
+        m_buffer.append('{');
+        m_separate = false;
+        return this;
+    }
+
+    @Override
+    public JsonEncoder endObject() {
+        m_buffer.append('}');
+        m_separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonEncoder beginArray() {
+        separate();
+        m_buffer.append('[');
+        m_separate = false;
+        return this;
+    }
+
+    @Override
+    public JsonEncoder endArray() {
+        m_buffer.append(']');
+        m_separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonEncoder key(String key) {
+        separate();
+        m_buffer.append('"').append(key).append('"').append(':');
+        m_separate = false;
+        return this;
+    }
+
+    @Override
+    public JsonEncoder value(String value) {
+        separate();
+
+        if (value == null) {
+            m_buffer.append("null");
+        } else {
+            quote(value);
+        }
+        m_separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonEncoder value(long value) {
+        separate();
+        m_buffer.append(value);
+        m_separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonEncoder value(boolean value) {
+        separate();
+        m_buffer.append(value);
+        m_separate = true;
+        return this;
+    }
+
+    // the bytes as an upper case hex string, the way GATT-IP carries binary values
+    @Override
+    public JsonEncoder hexValue(byte[] value) {
+        return value == null ? hexValue(null, 0, 0) : hexValue(value, 0, value.length);
+    }
+
+    @Override
+    public JsonEncoder hexValue(byte[] value, int offset, int length) {
+        separate();
+        m_buffer.append('"');
+
+        if (length > 0) {
+            HexCodec.append(m_buffer, value, offset, length);
+        }
+
+        m_buffer.append('"');
+        m_separate = true;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return m_buffer.length();
+    }
+
+    // the message so far without copying it; only valid until the encoder is used again
+    public CharSequence chars() {
+        return m_buffer;
+    }
+
+    @Override
+    public String toString() {
+        return m_buffer.toString();
+    }
+
+    private void json(Object value) throws JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            separate();
+            m_buffer.append("null");
+            m_separate = true;
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            Iterator<String> keys = object.keys();
+
+            beginObject();
+            while (keys.hasNext()) {
+                String key = keys.next();
+
+                // keys of a parsed or relayed message may need escaping, unlike those given to key()
+                separate();
+                quote(key);
+                m_buffer.append(':');
+                m_separate = false;
+                json(object.get(key));
+            }
+            endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+
+            beginArray();
+            for (int i = 0; i < array.length(); i++) {
+                json(array.get(i));
+            }
+            endArray();
+        } else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            separate();
+            m_buffer.append(JSONObject.numberToString((Number) value));
+            m_separate = true;
+        } else {
+            value(value.toString());
+        }
+    }
+
+    private void separate() {
+        if (m_separate) {
+            m_buffer.append(',');
+        }
+    }
+
+    private void quote(String value) {
+        m_buffer.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '"':
+                case '\\':
+                    m_buffer.append('\\').append(c);
+                    break;
+                case '\n':
+                    m_buffer.append("\\n");
+                    break;
+                case '\r':
+                    m_buffer.append("\\r");
+                    break;
+                case '\t':
+                    m_buffer.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        HexCodec.append(m_buffer.append("\\u00"), c);
+                    } else {
+                        m_buffer.append(c);
+                    }
+                    break;
+            }
+        }
+
+        m_buffer.append('"');
+    }
+}
@@ -0,0 +1,207 @@
+package org.gatt_ip.util;
+
+import org.gatt_ip.Constants;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Rewrites the GATT-IP messages in a gateway log with readable names in place of the short
+ * codes, leaving the rest of the log as it is. The log is decoded in one streaming pass that
+ * holds no more than the string being read, so logs of any size can be decoded offline:
+ *
+ *     java -cp gatt-ip.jar org.gatt_ip.util.LogDecoder gateway.log [decoded.log]
+ *
+ * Object keys are named from the key codes, the method or result of a message from the method
+ * codes, and other string values from the value codes. Free text values, such as names and
+ * attribute values, are never translated.
+ */
+public final class LogDecoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // longer than any protocol code or JSON-RPC member name
+    private static final int MAX_CODE_LENGTH = 16;
+
+    private static final int TEXT = 0;
+    private static final int STRING = 1;
+    private static final int ESCAPE = 2;
+    private static final int AFTER_STRING = 3;
+
+    private final Writer m_out;
+
+    // contents of the string being read, as it appears in the log
+    private final StringBuilder m_string = new StringBuilder();
+
+    // whitespace after the string, held until it is known whether the string was a key
+    private final StringBuilder m_pending = new StringBuilder();
+
+    private int m_state = TEXT;
+
+    // code of the key whose value comes next
+    private String m_key;
+
+    public LogDecoder(Writer out) {
+        m_out = out;
+    }
+
+    public static void decode(Reader in, Writer out) throws IOException {
+        LogDecoder decoder = new LogDecoder(out);
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            decoder.write(buffer, 0, read);
+        }
+        decoder.finish();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: LogDecoder <gateway log> [decoded log]");
+            System.exit(2);
+        }
+
+        Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), UTF_8), BUFFER_SIZE);
+        Writer out = new BufferedWriter(args.length > 1
+                ? new OutputStreamWriter(new FileOutputStream(args[1]), UTF_8)
+                : new OutputStreamWriter(System.out, UTF_8), BUFFER_SIZE);
+
+        try {
+            decode(in, out);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    // decodes the next part of the log; messages may be split anywhere between calls
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            write(chars[i]);
+        }
+    }
+
+    // writes out what is still held back at the end of the log, and flushes
+    public void finish() throws IOException {
+        if (m_state == AFTER_STRING) {
+            emitString(false);
+        } else if (m_state != TEXT) {
+            // a string the log cut off
+            m_out.write('"');
+            m_out.append(m_string);
+        }
+        m_state = TEXT;
+        m_out.flush();
+    }
+
+    private void write(char c) throws IOException {
+        switch (m_state) {
+            case STRING:
+                if (c == '"') {
+                    m_state = AFTER_STRING;
+                } else if (c == '\n') {
+                    // JSON strings never span lines, so this was a quote in plain log text
+                    m_out.write('"');
+                    m_out.append(m_string);
+                    m_out.write(c);
+                    m_state = TEXT;
+                } else {
+                    m_string.append(c);
+                    if (c == '\\') {
+                        m_state = ESCAPE;
+                    }
+                }
+                break;
+            case ESCAPE:
+                m_string.append(c);
+                m_state = STRING;
+                break;
+            case AFTER_STRING:
+                if (c == ' ' || c == '\t') {
+                    m_pending.append(c);
+                    break;
+                }
+                emitString(c == ':');
+                m_state = TEXT;
+                text(c);
+                break;
+            default:
+                text(c);
+                break;
+        }
+    }
+
+    private void text(char c) throws IOException {
+        if (c == '"') {
+            m_string.setLength(0);
+            m_state = STRING;
+        } else {
+            if (c == '\n') {
+                m_key = null;
+            }
+            m_out.write(c);
+        }
+    }
+
+    private void emitString(boolean isKey) throws IOException {
+        m_out.write('"');
+
+        if (m_string.length() > MAX_CODE_LENGTH) {
+            // hex values and names are copied without making a String of them
+            m_out.append(m_string);
+            if (isKey) {
+                m_key = null;
+            }
+        } else {
+            String string = m_string.toString();
+            String name;
+
+            if (isKey) {
+                name = ProtocolDictionary.keyName(string);
+                m_key = string;
+            } else {
+                name = valueName(string);
+            }
+            m_out.write(name != null ? name : string);
+        }
+
+        m_out.write('"');
+        m_out.append(m_pending);
+        m_pending.setLength(0);
+    }
+
+    private String valueName(String value) {
+        String key = m_key;
+
+        if (key == null) {
+            return null;
+        }
+
+        switch (key) {
+            case Constants.kMethod:
+            case Constants.kResult:
+                return ProtocolDictionary.methodName(value);
+            case Constants.kRequestId:
+            case Constants.kRequestSessionId:
+            case Constants.kMessageField:
+            case Constants.kPeripheralName:
+            case Constants.kPeripheralUUID:
+            case Constants.kPeripheralBtAddress:
+            case Constants.kValue:
+            case Constants.kRawAdvertisementData:
+                return null;
+            default:
+                return ProtocolDictionary.valueName(value);
+        }
+    }
+}
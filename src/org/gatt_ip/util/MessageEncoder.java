@@ -0,0 +1,32 @@
+package org.gatt_ip.util;
+
+/**
+ * Streaming writer for GATT-IP messages, implemented for each wire format the gateway speaks.
+ * Calls mirror the structure of the message: objects hold key/value pairs, arrays hold values.
+ */
+public interface MessageEncoder {
+    MessageEncoder reset();
+
+    MessageEncoder beginObject();
+
+    MessageEncoder endObject();
+
+    MessageEncoder beginArray();
+
+    MessageEncoder endArray();
+
+    MessageEncoder key(String key);
+
+    MessageEncoder value(String value);
+
+    MessageEncoder value(long value);
+
+    MessageEncoder value(boolean value);
+
+    // binary data, carried as hex text in JSON
+    MessageEncoder hexValue(byte[] value);
+
+    MessageEncoder hexValue(byte[] value, int offset, int length);
+
+    int length();
+}
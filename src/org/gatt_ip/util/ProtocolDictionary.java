@@ -0,0 +1,196 @@
+package org.gatt_ip.util;
+
+import org.gatt_ip.Constants;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Readable names of the short codes GATT-IP uses for methods, keys and values, looked up in
+ * either direction. The tables list every short code in Constants under the section it is
+ * declared in there, and are built once and never change afterwards; the JSON-RPC members,
+ * error codes and AD types are spelled out on the wire and have no entry.
+ * A code is looked up among the methods first, then the keys, then the values, since the
+ * same code can name one of each.
+ */
+public final class ProtocolDictionary {
+    private static final Map<String, String> METHOD_NAMES;
+    private static final Map<String, String> KEY_NAMES;
+    private static final Map<String, String> VALUE_NAMES;
+    private static final Map<String, String> CODES;
+
+    static {
+        HashMap<String, String> methods = new HashMap<>();
+        HashMap<String, String> keys = new HashMap<>();
+        HashMap<String, String> values = new HashMap<>();
+
+        methods.put(Constants.kConfigure, "Configure");
+        methods.put(Constants.kScanForPeripherals, "ScanForPeripherals");
+        methods.put(Constants.kStopScanning, "StopScanning");
+        methods.put(Constants.kConnect, "Connect");
+        methods.put(Constants.kDisconnect, "Disconnect");
+        methods.put(Constants.kCentralState, "CentralState");
+        methods.put(Constants.kGetConnectedPeripherals, "GetConnectedPeripherals");
+        methods.put(Constants.kGetPerhipheralsWithServices, "GetPerhipheralsWithServices");
+        methods.put(Constants.kGetPerhipheralsWithIdentifiers, "GetPerhipheralsWithIdentifiers");
+        methods.put(Constants.kGetServices, "GetServices");
+        methods.put(Constants.kGetIncludedServices, "GetIncludedServices");
+        methods.put(Constants.kGetCharacteristics, "GetCharacteristics");
+        methods.put(Constants.kGetDescriptors, "GetDescriptors");
+        methods.put(Constants.kGetCharacteristicValue, "GetCharacteristicValue");
+        methods.put(Constants.kGetDescriptorValue, "GetDescriptorValue");
+        methods.put(Constants.kWriteCharacteristicValue, "WriteCharacteristicValue");
+        methods.put(Constants.kWriteDescriptorValue, "WriteDescriptorValue");
+        methods.put(Constants.kSetValueNotification, "SetValueNotification");
+        methods.put(Constants.kGetPeripheralState, "GetPeripheralState");
+        methods.put(Constants.kGetRSSI, "GetRSSI");
+        methods.put(Constants.kInvalidatedServices, "InvalidatedServices");
+        methods.put(Constants.kPeripheralNameUpdate, "peripheralNameUpdate");
+        methods.put(Constants.kRequestMTU, "RequestMTU");
+        methods.put(Constants.kSetConnectionPriority, "SetConnectionPriority");
+        methods.put(Constants.kOpenWriteStream, "OpenWriteStream");
+        methods.put(Constants.kCloseWriteStream, "CloseWriteStream");
+        methods.put(Constants.kMessage, "Message");
+
+        keys.put(Constants.kCentralUUID, "centralUUID");
+        keys.put(Constants.kPeripheralUUID, "PeripheralUUID");
+        keys.put(Constants.kPeripheralName, "PeripheralName");
+        keys.put(Constants.kPeripheralUUIDs, "PeripheralUUIDs");
+        keys.put(Constants.kServiceUUID, "ServiceUUID");
+        keys.put(Constants.kServiceUUIDs, "ServiceUUIDs");
+        keys.put(Constants.kPeripherals, "peripherals");
+        keys.put(Constants.kIncludedServiceUUIDs, "IncludedServiceUUIDs");
+        keys.put(Constants.kCharacteristicUUID, "CharacteristicUUID");
+        keys.put(Constants.kCharacteristicUUIDs, "CharacteristicUUIDs");
+        keys.put(Constants.kDescriptorUUID, "DescriptorUUID");
+        keys.put(Constants.kServices, "Services");
+        keys.put(Constants.kCharacteristics, "Characteristics");
+        keys.put(Constants.kDescriptors, "Descriptors");
+        keys.put(Constants.kProperties, "Properties");
+        keys.put(Constants.kValue, "Value");
+        keys.put(Constants.kState, "State");
+        keys.put(Constants.kStateInfo, "StateInfo");
+        keys.put(Constants.kStateField, "StateField");
+        keys.put(Constants.kWriteType, "WriteType");
+        keys.put(Constants.kRSSIkey, "RSSIkey");
+        keys.put(Constants.kIsPrimaryKey, "IsPrimaryKey");
+        keys.put(Constants.kIsBroadcasted, "IsBroadcasted");
+        keys.put(Constants.kIsNotifying, "IsNotifying");
+        keys.put(Constants.kShowPowerAlert, "ShowPowerAlert");
+        keys.put(Constants.kIdentifierKey, "IdentifierKey");
+        keys.put(Constants.kScanOptionAllowDuplicatesKey, "ScanOptionAllowDuplicatesKey");
+        keys.put(Constants.kScanOptionSolicitedServiceUUIDs, "ScanOptionSolicitedServiceUUIDs");
+        keys.put(Constants.kScanOptionManufacturerIds, "ScanOptionManufacturerIds");
+        keys.put(Constants.kScanOptionPeripheralAddresses, "ScanOptionPeripheralAddresses");
+        keys.put(Constants.kScanOptionReportDelay, "ScanOptionReportDelay");
+        keys.put(Constants.kScanOptionPolicy, "ScanOptionPolicy");
+        keys.put(Constants.kDeadline, "Deadline");
+        keys.put(Constants.kAdvertisementDataKey, "AdvertisementDataKey");
+        keys.put(Constants.kCBAdvertisementDataManufacturerDataKey, "CBAdvertisementDataManufacturerDataKey");
+        keys.put(Constants.kCBAdvertisementDataServiceUUIDsKey, "CBAdvertisementDataServiceUUIDsKey");
+        keys.put(Constants.kCBAdvertisementDataServiceDataKey, "CBAdvertisementDataServiceDataKey");
+        keys.put(Constants.kCBAdvertisementDataOverflowServiceUUIDsKey, "CBAdvertisementDataOverflowServiceUUIDsKey");
+        keys.put(Constants.kCBAdvertisementDataSolicitedServiceUUIDsKey, "CBAdvertisementDataSolicitedServiceUUIDsKey");
+        keys.put(Constants.kCBAdvertisementDataIsConnectable, "CBAdvertisementDataIsConnectable");
+        keys.put(Constants.kCBAdvertisementDataTxPowerLevel, "CBAdvertisementDataTxPowerLevel");
+        keys.put(Constants.kCBCentralManagerRestoredStatePeripheralsKey, "CBCentralManagerRestoredStatePeripheralsKey");
+        keys.put(Constants.kCBCentralManagerRestoredStateScanServicesKey, "CBCentralManagerRestoredStateScanServicesKey");
+        keys.put(Constants.kPeripheralBtAddress, "BTAddress");
+        keys.put(Constants.kRawAdvertisementData, "RawAdvertisingdata");
+        keys.put(Constants.kScanRecord, "ScanRecord");
+        keys.put(Constants.kPriority, "Priority");
+        keys.put(Constants.kCoalesced, "Coalesced");
+        keys.put(Constants.kMTU, "MTU");
+        keys.put(Constants.kConnectionPriority, "ConnectionPriority");
+        keys.put(Constants.kWindow, "Window");
+        keys.put(Constants.kCredits, "Credits");
+
+        values.put(Constants.kWriteWithResponse, "WriteWithResponse");
+        values.put(Constants.kWriteWithoutResponse, "WriteWithoutResponse");
+        values.put(Constants.kNotifyOnConnection, "NotifyOnConnection");
+        values.put(Constants.kNotifyOnDisconnection, "NotifyOnDisconnection");
+        values.put(Constants.kNotifyOnNotification, "NotifyOnNotification");
+        values.put(Constants.kDisconnected, "Disconnected");
+        values.put(Constants.kConnecting, "Connecting");
+        values.put(Constants.kConnected, "Connected");
+        values.put(Constants.kUnknown, "Unknown");
+        values.put(Constants.kResetting, "Resetting");
+        values.put(Constants.kUnsupported, "Unsupported");
+        values.put(Constants.kUnauthorized, "Unauthorized");
+        values.put(Constants.kPoweredOff, "PoweredOff");
+        values.put(Constants.kPoweredOn, "PoweredOn");
+        values.put(Constants.kPriorityControl, "PriorityControl");
+        values.put(Constants.kPriorityInteractive, "PriorityInteractive");
+        values.put(Constants.kPriorityBulk, "PriorityBulk");
+        values.put(Constants.kConnectionPriorityBalanced, "ConnectionPriorityBalanced");
+        values.put(Constants.kConnectionPriorityHigh, "ConnectionPriorityHigh");
+        values.put(Constants.kConnectionPriorityLowPower, "ConnectionPriorityLowPower");
+        values.put(Constants.kScanPolicyContinuous, "ScanPolicyContinuous");
+        values.put(Constants.kScanPolicyWindowed, "ScanPolicyWindowed");
+        values.put(Constants.kScanPolicyAdaptive, "ScanPolicyAdaptive");
+
+        // names map back to codes with the same precedence as the lookup by code
+        HashMap<String, String> codes = new HashMap<>();
+        invertInto(codes, values);
+        invertInto(codes, keys);
+        invertInto(codes, methods);
+
+        METHOD_NAMES = Collections.unmodifiableMap(methods);
+        KEY_NAMES = Collections.unmodifiableMap(keys);
+        VALUE_NAMES = Collections.unmodifiableMap(values);
+        CODES = Collections.unmodifiableMap(codes);
+    }
+
+    private ProtocolDictionary() {
+    }
+
+    // name of a method code, or null if it is none
+    public static String methodName(String code) {
+        return METHOD_NAMES.get(code);
+    }
+
+    public static String keyName(String code) {
+        return KEY_NAMES.get(code);
+    }
+
+    public static String valueName(String code) {
+        return VALUE_NAMES.get(code);
+    }
+
+    // name of a method, key or value code, in that order; null if the code is unknown
+    public static String name(String code) {
+        String name = METHOD_NAMES.get(code);
+
+        if (name == null) {
+            name = KEY_NAMES.get(code);
+        }
+        if (name == null) {
+            name = VALUE_NAMES.get(code);
+        }
+        return name;
+    }
+
+    // the code a name stands for, or null if it names none
+    public static String code(String name) {
+        return CODES.get(name);
+    }
+
+    public static Map<String, String> methodNames() {
+        return METHOD_NAMES;
+    }
+
+    public static Map<String, String> keyNames() {
+        return KEY_NAMES;
+    }
+
+    public static Map<String, String> valueNames() {
+        return VALUE_NAMES;
+    }
+
+    private static void invertInto(HashMap<String, String> codes, Map<String, String> names) {
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            codes.put(entry.getValue(), entry.getKey());
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.gatt_ip.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Conversions between the 16, 32 and 128 bit forms of Bluetooth UUIDs. A UUID is worked on as
+ * its two longs: the short forms are the top 32 bits of a UUID whose remaining bits are those of
+ * the Bluetooth base UUID, 0000xxxx-0000-1000-8000-00805F9B34FB.
+ *
+ * The forms are those the BigInteger conversions in Util used to give. A short form is written
+ * without leading zeros, so 0x0001 is "1" and a 32 bit form has up to 8 digits; the long form is
+ * the canonical 36 character one. Unlike those conversions, only the exact base UUID counts as
+ * Bluetooth, and a 128 bit UUID is read with its dashes in the canonical places or with none.
+ * Short forms of 1 to 8 digits are all accepted.
+ *
+ * The same few services and characteristics come up in every request and callback, so every
+ * form converted is kept in a bounded intern table together with its canonical UUID and upper
+ * case strings. A repeated conversion is a table lookup that allocates nothing.
+ */
+public final class UUIDCodec {
+    // low 32 bits of the most significant half, and the least significant half, of the base UUID
+    private static final long BASE_MSB_LOW = 0x0000000000001000L;
+    public static final long BASE_LSB = 0x800000805F9B34FBL;
+
+    public static final UUID BLUETOOTH_BASE_UUID = new UUID(BASE_MSB_LOW, BASE_LSB);
+
+    static final int MAX_INTERNED = 512;
+
+    private static final char[] HEX_DIGITS = HexDump.HEX_DIGITS;
+
+    // forms last converted from a pair of longs, by a hash of the pair; a slot may be overwritten at any time
+    private static final Forms[] RECENT_PAIRS = new Forms[256];
+
+    // canonical forms, by every string and UUID they were looked up with; least recently used go first
+    private static final LinkedHashMap<Object, Forms> INTERNED = new LinkedHashMap<Object, Forms>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Forms> eldest) {
+            return size() > MAX_INTERNED;
+        }
+    };
+
+    private UUIDCodec() {
+    }
+
+    // the UUID for any of the forms
+    public static UUID toUUID(String uuid) {
+        return formsOf(uuid).m_uuid;
+    }
+
+    // the 128 bit form, in upper case
+    public static String longForm(String uuid) {
+        return formsOf(uuid).m_long;
+    }
+
+    public static String longForm(UUID uuid) {
+        return formsOf(uuid).m_long;
+    }
+
+    // the 16 or 32 bit form of a Bluetooth UUID, without leading zeros, and the 128 bit form of any
+    // other, in upper case
+    public static String shortForm(String uuid) {
+        return formsOf(uuid).m_short;
+    }
+
+    public static String shortForm(UUID uuid) {
+        return formsOf(uuid).m_short;
+    }
+
+    // the UUID with the given halves, shared with every other conversion of it
+    public static UUID toUUID(long msb, long lsb) {
+        return formsOf(msb, lsb).m_uuid;
+    }
+
+    public static String longForm(long msb, long lsb) {
+        return formsOf(msb, lsb).m_long;
+    }
+
+    public static String shortForm(long msb, long lsb) {
+        return formsOf(msb, lsb).m_short;
+    }
+
+    // the most significant half of the Bluetooth UUID with a 16 or 32 bit form; the other half is BASE_LSB
+    public static long bluetoothMsb(long shortUuid) {
+        return shortUuid << 32 | BASE_MSB_LOW;
+    }
+
+    public static boolean isBluetoothUUID(UUID uuid) {
+        return isBase(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    // whether the form is in the intern table, without counting as a use of it
+    static boolean isInterned(Object form) {
+        synchronized (INTERNED) {
+            return INTERNED.containsKey(form);
+        }
+    }
+
+    static int internedCount() {
+        synchronized (INTERNED) {
+            return INTERNED.size();
+        }
+    }
+
+    private static Forms formsOf(String uuid) {
+        Forms forms;
+
+        synchronized (INTERNED) {
+            forms = INTERNED.get(uuid);
+        }
+        if (forms != null) {
+            return forms;
+        }
+
+        forms = intern(parse(uuid));
+
+        synchronized (INTERNED) {
+            INTERNED.put(uuid, forms);
+        }
+        return forms;
+    }
+
+    private static Forms formsOf(UUID uuid) {
+        Forms forms;
+
+        synchronized (INTERNED) {
+            forms = INTERNED.get(uuid);
+        }
+        return forms != null ? forms : intern(uuid);
+    }
+
+    // looks in a small direct mapped table first, so the UUIDs read out of advertisements do not
+    // allocate a key for the intern table
+    private static Forms formsOf(long msb, long lsb) {
+        long mixed = msb ^ lsb;
+        int slot = (int) (mixed ^ mixed >>> 32);
+        slot ^= slot >>> 16;
+        slot = (slot ^ slot >>> 8) & (RECENT_PAIRS.length - 1);
+
+        Forms forms = RECENT_PAIRS[slot];
+
+        if (forms == null || forms.m_uuid.getMostSignificantBits() != msb
+                || forms.m_uuid.getLeastSignificantBits() != lsb) {
+            forms = formsOf(new UUID(msb, lsb));
+            RECENT_PAIRS[slot] = forms;
+        }
+        return forms;
+    }
+
+    // the forms of the UUID, shared with every other way of writing it
+    private static Forms intern(UUID uuid) {
+        Forms forms = new Forms(uuid);
+
+        synchronized (INTERNED) {
+            Forms interned = INTERNED.get(uuid);
+
+            if (interned != null) {
+                return interned;
+            }
+            INTERNED.put(uuid, forms);
+        }
+        return forms;
+    }
+
+    // a 128 bit UUID in the canonical form or as 32 digits, or a short form of up to 8 digits;
+    // throws NumberFormatException for anything else, as the BigInteger conversion used to
+    private static UUID parse(String uuid) {
+        int length = uuid.length();
+
+        if (length > 0 && length <= 8) {
+            return new UUID(parseDigits(uuid) << 32 | BASE_MSB_LOW, BASE_LSB);
+        }
+
+        boolean dashed = length == 36;
+
+        if (!dashed && length != 32) {
+            throw new NumberFormatException("Invalid UUID: " + uuid);
+        }
+
+        long msb = 0, lsb = 0;
+        int digits = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = uuid.charAt(i);
+
+            if (dashed && (i == 8 || i == 13 || i == 18 || i == 23)) {
+                if (c != '-') {
+                    throw new NumberFormatException("Invalid UUID: " + uuid);
+                }
+                continue;
+            }
+
+            int value = HexCodec.digit(c);
+
+            if (value < 0) {
+                throw new NumberFormatException("Invalid UUID: " + uuid);
+            }
+            if (digits++ < 16) {
+                msb = msb << 4 | value;
+            } else {
+                lsb = lsb << 4 | value;
+            }
+        }
+        return new UUID(msb, lsb);
+    }
+
+    private static long parseDigits(String digits) {
+        long value = 0;
+
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = HexCodec.digit(digits.charAt(i));
+
+            if (digit < 0) {
+                throw new NumberFormatException("Invalid UUID: " + digits);
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static boolean isBase(long msb, long lsb) {
+        return (msb & 0xFFFFFFFFL) == BASE_MSB_LOW && lsb == BASE_LSB;
+    }
+
+    private static String format(UUID uuid) {
+        char[] text = new char[36];
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+
+        digits(msb >>> 32, text, 0, 8);
+        text[8] = '-';
+        digits(msb >>> 16, text, 9, 4);
+        text[13] = '-';
+        digits(msb, text, 14, 4);
+        text[18] = '-';
+        digits(lsb >>> 48, text, 19, 4);
+        text[23] = '-';
+        digits(lsb, text, 24, 12);
+        return new String(text);
+    }
+
+    private static String formatShort(long value) {
+        char[] text = new char[Math.max(1, (67 - Long.numberOfLeadingZeros(value)) / 4)];
+        digits(value, text, 0, text.length);
+        return new String(text);
+    }
+
+    // the low count digits of value, most significant first
+    private static void digits(long value, char[] text, int offset, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            text[i] = HEX_DIGITS[(int) (value & 0x0F)];
+            value >>>= 4;
+        }
+    }
+
+    private static final class Forms {
+        final UUID m_uuid;
+        final String m_long;
+        final String m_short;
+
+        Forms(UUID uuid) {
+            m_uuid = uuid;
+            m_long = format(uuid);
+
+            long msb = uuid.getMostSignificantBits();
+            m_short = isBase(msb, uuid.getLeastSignificantBits()) ? formatShort(msb >>> 32) : m_long;
+        }
+    }
+}
@@ -22,8 +22,6 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.UUID;
-import java.math.BigInteger;
-import java.math.BigDecimal;
 
 public class Util {
 
@@ -158,9 +156,8 @@ public class Util {
                 isPrimary = 1;
             else
                 isPrimary = 0;
-            String serviceUUIDString = service.getUuid().toString().toUpperCase(Locale.getDefault());
             try {
-                jsonObj.put(Constants.kServiceUUID, ConvertUUID_128bitInto16bit(serviceUUIDString));
+                jsonObj.put(Constants.kServiceUUID, UUIDCodec.shortForm(service.getUuid()));
                 jsonObj.put(Constants.kIsPrimaryKey, isPrimary);
                 jsonList.add(jsonObj);
 
@@ -179,12 +176,11 @@ public class Util {
         while (iterator.hasNext()) {
             JSONObject jsonObj = new JSONObject();
             BluetoothGattCharacteristic characteristic = iterator.next();
-            String characterisUUIDString = characteristic.getUuid().toString().toUpperCase(Locale.getDefault());
             String characteristcProperty = ""+characteristic.getProperties();
             if(characteristcProperty.equals("34"))
                 characteristcProperty = "18";
             try {
-                jsonObj.put(Constants.kCharacteristicUUID, ConvertUUID_128bitInto16bit(characterisUUIDString));
+                jsonObj.put(Constants.kCharacteristicUUID, UUIDCodec.shortForm(characteristic.getUuid()));
                 jsonObj.put(Constants.kIsNotifying, 0);
                 jsonObj.put(Constants.kProperties, characteristcProperty);
                 jsonObj.put(Constants.kValue, "");
@@ -204,9 +200,8 @@ public class Util {
         while (iterator.hasNext()) {
             JSONObject jsonObj = new JSONObject();
             BluetoothGattDescriptor descriptor = iterator.next();
-            String descriptorUUIDString = descriptor.getUuid().toString().toUpperCase(Locale.getDefault());
             try {
-                jsonObj.put(Constants.kDescriptorUUID, ConvertUUID_128bitInto16bit(descriptorUUIDString));
+                jsonObj.put(Constants.kDescriptorUUID, UUIDCodec.shortForm(descriptor.getUuid()));
                 jsonList.add(jsonObj);
             } catch (JSONException e) {
                 e.printStackTrace();
@@ -219,7 +214,7 @@ public class Util {
 
         JSONArray serviceUUIDsArray = new JSONArray();
         for(int i = 0; i < listOfServiceUUIDStrings.size(); i++) {
-            String servcieUUID = ConvertUUID_128bitInto16bit(listOfServiceUUIDStrings.get(i).toString());
+            String servcieUUID = UUIDCodec.shortForm(listOfServiceUUIDStrings.get(i).getUuid());
             serviceUUIDsArray.put(servcieUUID);
         }
         return serviceUUIDsArray;
@@ -313,27 +308,15 @@ public class Util {
             return Constants.kWriteWithResponse;
     }
 
+    // kept for applications built against it; the gateway itself uses HexCodec
     public static String byteArrayToHex(byte[] data)
     {
-        String hex = "";
-        if (data != null && data.length > 0) {
-            final StringBuilder hexStr = new StringBuilder(data.length);
-            for (byte byteChar : data)
-                hexStr.append(String.format("%02X", byteChar));
-            hex = new String(hexStr);
-        }
-        return hex;
+        return HexCodec.encode(data);
     }
 
     public static byte[] hexStringToByteArray(String hex)
     {
-        hex = hex.replaceAll("\\s","");
-        int len = hex.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4) + Character.digit(hex.charAt(i+1), 16));
-        }
-        return data;
+        return HexCodec.decode(hex);
     }
 
     public static String hexToASCII(String hexValue)
@@ -347,152 +330,23 @@ public class Util {
         return output.toString();
     }
 
+    // kept for applications built against them; the gateway itself uses UUIDCodec
     public static String ConvertUUID_128bitInto16bit(String UUIDString) {
-        //String _UUIDString = UUIDString;
-        String reqValueFinal_16bit = "";
-        String BluetoothBaseUUID = ("00000000-0000-1000-8000-00805F9B34FB").toString().replaceAll("-", "");
-        BigInteger _BluetoothBaseUUIDInIntFormat = new BigInteger(BluetoothBaseUUID ,16);
-        String _UUIDString = UUIDString.replaceAll("-", "");
-        BigInteger UUIDInIntFormat = new BigInteger(_UUIDString , 16);
-        BigInteger ResultToCheckDefinedUUID = UUIDInIntFormat.and(_BluetoothBaseUUIDInIntFormat);
-        if(ResultToCheckDefinedUUID.equals(_BluetoothBaseUUIDInIntFormat)) {
-            BigDecimal base = new BigDecimal("2");
-            BigInteger divisor = base.pow(96).toBigInteger();
-            BigInteger reqValue16bit = (UUIDInIntFormat.subtract(_BluetoothBaseUUIDInIntFormat)).divide(divisor);
-
-            reqValueFinal_16bit = reqValue16bit.toString(16);
-        } else {
-            reqValueFinal_16bit = UUIDString;
-        }
-        return reqValueFinal_16bit.toUpperCase(Locale.getDefault());
+        return UUIDCodec.shortForm(UUIDString);
     }
 
     public static String ConvertUUID_16bitInto128bit(String UUIDString) {
-        String _UUIDString = UUIDString;
-        String reqValueFinal_128bit = "";
-
-        if(UUIDString.length() == 4) {
-            String BluetoothBaseUUID = ("00000000-0000-1000-8000-00805F9B34FB").toString().replaceAll("-", "");
-            BigInteger bluetoothBaseInIntegerFormat = new BigInteger(BluetoothBaseUUID, 16);
-            BigInteger UUIDInIntFormat = new BigInteger(UUIDString, 16);
-            BigDecimal base = new BigDecimal("2");
-            BigInteger multiplier = base.pow(96).toBigInteger();
-            BigInteger reqValue_128bit = (UUIDInIntFormat.multiply(multiplier)).add(bluetoothBaseInIntegerFormat);
-            reqValueFinal_128bit = "0000" + reqValue_128bit.toString(16).toUpperCase(Locale.getDefault());
-
-            String str1 = reqValueFinal_128bit.substring(0, 8);
-            String str2 = reqValueFinal_128bit.substring(8, 12);
-            String str3 = reqValueFinal_128bit.substring(12, 16);
-            String str4 = reqValueFinal_128bit.substring(16, 20);
-            String str5 = reqValueFinal_128bit.substring(20);
-            reqValueFinal_128bit = str1 + "-" + str2 + "-" + str3 + "-" + str4 + "-" + str5;
-        }
-        else {
-            reqValueFinal_128bit = _UUIDString;
-        }
-        return reqValueFinal_128bit.toUpperCase(Locale.getDefault());
+        return UUIDCodec.longForm(UUIDString);
     }
 
     public static String humanReadableFormatFromHex(String hexString)
     {
-        HashMap<String, String> methods = new HashMap<String, String>();
-        methods.put(Constants.kConfigure, "Configure");
-        methods.put(Constants.kScanForPeripherals, "ScanForPeripherals");
-        methods.put(Constants.kStopScanning, "StopScanning");
-        methods.put(Constants.kConnect, "Connect");
-        methods.put(Constants.kDisconnect, "Disconnect");
-        methods.put(Constants.kCentralState, "CentralState");
-        methods.put(Constants.kGetConnectedPeripherals, "GetConnectedPeripherals");
-        methods.put(Constants.kGetPerhipheralsWithServices, "GetPerhipheralsWithServices");
-        methods.put(Constants.kGetPerhipheralsWithIdentifiers, "GetPerhipheralsWithIdentifiers");
-        methods.put(Constants.kGetServices, "GetServices");
-        methods.put(Constants.kGetIncludedServices, "GetIncludedServices");
-        methods.put(Constants.kGetCharacteristics, "GetCharacteristics");
-        methods.put(Constants.kGetDescriptors, "GetDescriptors");
-        methods.put(Constants.kGetCharacteristicValue, "GetCharacteristicValue");
-        methods.put(Constants.kGetDescriptorValue, "GetDescriptorValue");
-        methods.put(Constants.kWriteCharacteristicValue, "WriteCharacteristicValue");
-        methods.put(Constants.kWriteDescriptorValue, "WriteDescriptorValue");
-        methods.put(Constants.kSetValueNotification, "SetValueNotification");
-        methods.put(Constants.kGetPeripheralState, "GetPeripheralState");
-        methods.put(Constants.kGetRSSI, "GetRSSI");
-        methods.put(Constants.kInvalidatedServices, "InvalidatedServices");
-        methods.put(Constants.kPeripheralNameUpdate, "peripheralNameUpdate");
-
-        HashMap<String, String> keys = new HashMap<String, String>();
-        keys.put(Constants.kCentralUUID, "centralUUID");
-        keys.put(Constants.kPeripheralUUID, "PeripheralUUID");
-        keys.put(Constants.kPeripheralName, "PeripheralName");
-        keys.put(Constants.kPeripheralUUIDs, "PeripheralUUIDs");
-        keys.put(Constants.kServiceUUID, "ServiceUUID");
-        keys.put(Constants.kServiceUUIDs, "ServiceUUIDs");
-        keys.put(Constants.kPeripherals, "peripherals");
-        keys.put(Constants.kIncludedServiceUUIDs, "IncludedServiceUUIDs");
-        keys.put(Constants.kCharacteristicUUID, "CharacteristicUUID");
-        keys.put(Constants.kCharacteristicUUIDs, "CharacteristicUUIDs");
-        keys.put(Constants.kDescriptorUUID, "DescriptorUUID");
-        keys.put(Constants.kServices, "Services");
-        keys.put(Constants.kCharacteristics, "Characteristics");
-        keys.put(Constants.kDescriptors, "Descriptors");
-        keys.put(Constants.kProperties, "Properties");
-        keys.put(Constants.kValue, "Value");
-        keys.put(Constants.kState, "State");
-        keys.put(Constants.kStateInfo, "StateInfo");
-        keys.put(Constants.kStateField, "StateField");
-        keys.put(Constants.kWriteType, "WriteType");
-        keys.put(Constants.kRSSIkey, "RSSIkey");
-        keys.put(Constants.kIsPrimaryKey, "IsPrimaryKey");
-        keys.put(Constants.kIsBroadcasted, "IsBroadcasted");
-        keys.put(Constants.kIsNotifying, "IsNotifying");
-        keys.put(Constants.kShowPowerAlert, "ShowPowerAlert");
-        keys.put(Constants.kIdentifierKey, "IdentifierKey");
-        keys.put(Constants.kScanOptionAllowDuplicatesKey, "ScanOptionAllowDuplicatesKey");
-        keys.put(Constants.kScanOptionSolicitedServiceUUIDs, "ScanOptionSolicitedServiceUUIDs");
-        keys.put(Constants.kAdvertisementDataKey, "AdvertisementDataKey");
-        keys.put(Constants.kCBAdvertisementDataManufacturerDataKey, "CBAdvertisementDataManufacturerDataKey");
-        keys.put(Constants.kCBAdvertisementDataServiceUUIDsKey, "CBAdvertisementDataServiceUUIDsKey");
-        keys.put(Constants.kCBAdvertisementDataServiceDataKey, "CBAdvertisementDataServiceDataKey");
-        keys.put(Constants.kCBAdvertisementDataOverflowServiceUUIDsKey, "CBAdvertisementDataOverflowServiceUUIDsKey");
-        keys.put(Constants.kCBAdvertisementDataSolicitedServiceUUIDsKey, "CBAdvertisementDataSolicitedServiceUUIDsKey");
-        keys.put(Constants.kCBAdvertisementDataIsConnectable, "CBAdvertisementDataIsConnectable");
-        keys.put(Constants.kCBAdvertisementDataTxPowerLevel, "CBAdvertisementDataTxPowerLevel");
-        keys.put(Constants.kCBCentralManagerRestoredStatePeripheralsKey, "CBCentralManagerRestoredStatePeripheralsKey");
-        keys.put(Constants.kCBCentralManagerRestoredStateScanServicesKey, "CBCentralManagerRestoredStateScanServicesKey");
-        keys.put(Constants.kPeripheralBtAddress, "BTAddress");
-        keys.put(Constants.kRawAdvertisementData, "RawAdvertisingdata");
-        keys.put(Constants.kScanRecord, "ScanRecord");
-
-        HashMap<String, String> values = new HashMap<String, String>();
-        values.put(Constants.kWriteWithResponse, "WriteWithResponse");
-        values.put(Constants.kWriteWithoutResponse, "WriteWithoutResponse");
-        values.put(Constants.kNotifyOnConnection, "NotifyOnConnection");
-        values.put(Constants.kNotifyOnDisconnection, "NotifyOnDisconnection");
-        values.put(Constants.kNotifyOnNotification, "NotifyOnNotification");
-        values.put(Constants.kDisconnected, "Disconnected");
-        values.put(Constants.kConnecting, "Connecting");
-        values.put(Constants.kConnected, "Connected");
-        values.put(Constants.kUnknown, "Unknown");
-        values.put(Constants.kResetting, "Resetting");
-        values.put(Constants.kUnsupported, "Unsupported");
-        values.put(Constants.kUnsupported, "Unauthorized");
-        values.put(Constants.kPoweredOff, "PoweredOff");
-        values.put(Constants.kPoweredOn, "PoweredOn");
-
-        if(methods.get(hexString) != null)
-        {
-            return methods.get(hexString);
-        } else if(keys.get(hexString) != null)
-        {
-            return keys.get(hexString);
-        } else if(values.get(hexString) != null)
-        {
-            return values.get(hexString);
-        } else if(hexString != null)
-        {
-            return hexString;
-        } else
-            return "";
+        String name = hexString == null ? null : ProtocolDictionary.name(hexString);
 
+        if (name != null) {
+            return name;
+        }
+        return hexString != null ? hexString : "";
     }
 
 }
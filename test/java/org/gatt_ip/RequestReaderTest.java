@@ -0,0 +1,293 @@
+package org.gatt_ip;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestReaderTest {
+    private static final String PERIPHERAL = "00:11:22:33:AA:BB";
+    private static final String CHARACTERISTIC = "2a37";
+
+    private final RequestReader m_reader = new RequestReader();
+
+    @Test
+    public void readsWhatTheFullParseReads() throws JSONException {
+        JSONObject params = new JSONObject()
+                .put(Constants.kPeripheralUUID, PERIPHERAL)
+                .put(Constants.kServiceUUID, "180d")
+                .put(Constants.kCharacteristicUUID, CHARACTERISTIC)
+                .put(Constants.kDescriptorUUID, "2902")
+                .put(Constants.kValue, "0102")
+                .put(Constants.kWriteType, "bulk")
+                .put(Constants.kIsNotifying, true)
+                .put(Constants.kScanOptionAllowDuplicatesKey, "true")
+                .put(Constants.kServiceUUIDs, new JSONArray().put("180d").put(42))
+                .put(Constants.kScanOptionManufacturerIds, new JSONArray().put(76).put("004c"))
+                .put(Constants.kScanOptionPeripheralAddresses, new JSONArray().put(PERIPHERAL))
+                .put(Constants.kScanOptionReportDelay, 250)
+                .put(Constants.kScanOptionPolicy, "adaptive")
+                .put(Constants.kMTU, "185")
+                .put(Constants.kConnectionPriority, 1)
+                .put(Constants.kWindow, 4.0)
+                .put(Constants.kPriority, "bulk")
+                .put(Constants.kDeadline, 3000000000L);
+
+        for (String method : methods()) {
+            assertReadAsParsed(request(method, params).toString());
+        }
+        assertReadAsParsed("{\"method\":\"aq\",\"id\":17,\"session_id\":\"s\"}");
+        assertReadAsParsed("  {\"params\":{},\"method\":\"ab\"}  ");
+        assertReadAsParsed("{}");
+    }
+
+    @Test
+    public void resolvesEscapes() throws JSONException {
+        String text = "{\"method\":\"a\\u0071\",\"id\":\"a\\\"b\\\\c\\/d\\n\",\"params\":{\"bp\":\"\\t01\\u00e9\",\"bb\":\"x\\by\\fz\\r\"}}";
+        RequestRecord record = assertReadAsParsed(text);
+
+        assertEquals(Constants.kWriteCharacteristicValue, record.method);
+        assertEquals("a\"b\\c/d\n", record.id);
+        assertEquals("\t01\u00e9", record.value);
+        assertEquals("x\by\fz\r", record.peripheral);
+    }
+
+    @Test
+    public void skipsNestedUnknownFields() throws JSONException {
+        String text = "{\"x\":{\"y\":[1,{\"z\":\"]}\"},[]],\"w\":null},\"method\":\"ao\","
+                + "\"params\":{\"u\":[{\"a\":[true,false,-1.5e3]}],\"bb\":\"" + PERIPHERAL + "\",\"v\":{},\"bi\":\"2a37\"},"
+                + "\"trailing\":[\"{\"]}";
+        RequestRecord record = assertReadAsParsed(text);
+
+        assertEquals(PERIPHERAL, record.peripheral);
+        assertEquals("2A37", record.characteristic);
+    }
+
+    @Test
+    public void fallsBackOnMismatchedUnknownFields() {
+        assertNull(m_reader.read("{\"x\":{\"y\":[1}],\"method\":\"ao\"}"));
+        assertNull(m_reader.read("{\"x\":nope,\"method\":\"ao\"}"));
+        assertNull(m_reader.read("{\"method\":\"ao\"} trailing"));
+        assertNull(m_reader.read("{\"method\":\"ao\""));
+    }
+
+    @Test
+    public void readsRequestsWithoutParams() throws JSONException {
+        RequestRecord record = assertReadAsParsed("{\"method\":\"ac\",\"id\":\"1\"}");
+
+        assertFalse(record.hasParams);
+        assertEquals(0, record.fields);
+    }
+
+    @Test
+    public void leavesParamsThatAreNotAnObjectToTheFullParse() throws JSONException {
+        for (String params : Arrays.asList("null", "\"bb\"", "[]", "7")) {
+            String text = "{\"method\":\"ad\",\"params\":" + params + "}";
+            RequestRecord record = RequestRecord.of(new JSONObject(text));
+
+            assertNull(params, m_reader.read(text));
+            assertTrue(params, record.hasParams);
+            assertEquals(params, 0, record.fields);
+        }
+    }
+
+    @Test
+    public void leavesFieldsOfTheWrongTypeToTheFullParse() throws JSONException {
+        String text = "{\"method\":\"aq\",\"params\":{\"bi\":{\"x\":1},\"bp\":\"01\"}}";
+
+        assertNull(m_reader.read(text));
+        assertNull(m_reader.read("{\"method\":[\"aq\"]}"));
+        assertNull(m_reader.read("{\"method\":\"ab\",\"params\":{\"bf\":[[\"180d\"]]}}"));
+        // the full parse takes it as getString did, as the object's text
+        assertEquals("{\"X\":1}", RequestRecord.of(new JSONObject(text)).characteristic);
+    }
+
+    @Test
+    public void leavesDuplicateKeysToTheFullParse() {
+        assertNull(m_reader.read("{\"method\":\"ao\",\"method\":\"aq\"}"));
+        assertNull(m_reader.read("{\"method\":\"ao\",\"id\":1,\"id\":2}"));
+        assertNull(m_reader.read("{\"method\":\"ao\",\"params\":{},\"params\":{}}"));
+        assertNull(m_reader.read("{\"method\":\"ao\",\"params\":{\"bb\":\"a\",\"bb\":\"b\"}}"));
+        assertNull(m_reader.read("{\"method\":\"ab\",\"params\":{\"bf\":[],\"bf\":[]}}"));
+    }
+
+    @Test
+    public void readsDuplicateUnknownKeys() throws JSONException {
+        assertReadAsParsed("{\"method\":\"ao\",\"x\":1,\"x\":2,\"params\":{\"y\":[],\"y\":{}}}");
+    }
+
+    @Test
+    public void handsTheRecordOver() {
+        RequestRecord first = m_reader.read("{\"method\":\"ao\",\"id\":\"1\"}");
+        RequestRecord second = m_reader.read("{\"method\":\"aq\",\"id\":\"2\"}");
+
+        assertNotSame(first, second);
+        assertEquals("1", first.id);
+        assertEquals(Constants.kGetCharacteristicValue, first.method);
+    }
+
+    @Test
+    public void readsBatchMembers() throws JSONException {
+        String text = " [{\"method\":\"ao\",\"id\":1}, 5, {\"method\":\"aq\",\"method\":\"ao\",\"id\":2}, null,"
+                + " {\"id\":3,\"params\":{\"bb\":\"" + PERIPHERAL + "\"},\"method\":\"ad\"}] ";
+        List<RequestRecord> records = m_reader.readBatch(text);
+        JSONArray parsed = new JSONArray(text);
+
+        assertNotNull(records);
+        assertEquals(parsed.length(), records.size());
+        assertSameRecord(RequestRecord.of(parsed.getJSONObject(0)), records.get(0));
+        assertNull(records.get(1));
+        assertSameRecord(RequestRecord.of(parsed.getJSONObject(2)), records.get(2));
+        assertNull(records.get(3));
+        assertSameRecord(RequestRecord.of(parsed.getJSONObject(4)), records.get(4));
+    }
+
+    @Test
+    public void leavesMalformedBatchesToTheFullParse() {
+        assertEquals(0, m_reader.readBatch(" [ ] ").size());
+        assertNull(m_reader.readBatch("[{\"method\":\"ao\"}"));
+        assertNull(m_reader.readBatch("[{\"method\":\"ao\"},]"));
+        assertNull(m_reader.readBatch("[{\"method\" \"ao\"}]"));
+        assertNull(m_reader.readBatch("[{\"method\":\"ao\"}] x"));
+        assertNull(m_reader.readBatch("{\"method\":\"ao\"}"));
+    }
+
+    @Test
+    public void masksFieldsTheMethodDoesNotRead() throws JSONException {
+        int any = RequestRecord.PRIORITY | RequestRecord.DEADLINE;
+        int attribute = RequestRecord.PERIPHERAL | RequestRecord.SERVICE | RequestRecord.CHARACTERISTIC;
+        int scan = RequestRecord.ALLOW_DUPLICATES | RequestRecord.SERVICE_UUIDS | RequestRecord.MANUFACTURER_IDS
+                | RequestRecord.ADDRESSES | RequestRecord.REPORT_DELAY | RequestRecord.SCAN_POLICY;
+        Map<String, Integer> masks = new HashMap<>();
+
+        masks.put(Constants.kConfigure, any);
+        masks.put(Constants.kCentralState, any);
+        masks.put(Constants.kStopScanning, any);
+        masks.put(Constants.kScanForPeripherals, any | scan);
+        masks.put(Constants.kConnect, any | RequestRecord.PERIPHERAL);
+        masks.put(Constants.kDisconnect, any | RequestRecord.PERIPHERAL);
+        masks.put(Constants.kGetServices, any | RequestRecord.PERIPHERAL);
+        masks.put(Constants.kGetPeripheralState, any | RequestRecord.PERIPHERAL);
+        masks.put(Constants.kGetRSSI, any | RequestRecord.PERIPHERAL);
+        masks.put(Constants.kGetCharacteristics, any | RequestRecord.PERIPHERAL | RequestRecord.SERVICE);
+        masks.put(Constants.kGetDescriptors, any | attribute);
+        masks.put(Constants.kGetCharacteristicValue, any | attribute);
+        masks.put(Constants.kCloseWriteStream, any | attribute);
+        masks.put(Constants.kWriteCharacteristicValue, any | attribute | RequestRecord.VALUE | RequestRecord.WRITE_TYPE);
+        masks.put(Constants.kSetValueNotification, any | attribute | RequestRecord.NOTIFYING);
+        masks.put(Constants.kGetDescriptorValue, any | attribute | RequestRecord.DESCRIPTOR);
+        masks.put(Constants.kWriteDescriptorValue, any | attribute | RequestRecord.DESCRIPTOR | RequestRecord.VALUE);
+        masks.put(Constants.kRequestMTU, any | RequestRecord.PERIPHERAL | RequestRecord.MTU);
+        masks.put(Constants.kSetConnectionPriority, any | RequestRecord.PERIPHERAL | RequestRecord.CONNECTION_PRIORITY);
+        masks.put(Constants.kOpenWriteStream, any | attribute | RequestRecord.WINDOW);
+        masks.put("unknown", any);
+        masks.put(null, any);
+
+        JSONObject params = allFields();
+
+        for (Map.Entry<String, Integer> mask : masks.entrySet()) {
+            RequestRecord record = m_reader.read(request(mask.getKey(), params).toString());
+
+            assertNotNull(mask.getKey(), record);
+            for (int field = 1; field <= RequestRecord.SCAN_POLICY; field <<= 1) {
+                assertEquals(mask.getKey() + " field " + Integer.toBinaryString(field),
+                        (mask.getValue() & field) != 0, record.has(field));
+            }
+        }
+    }
+
+    @Test
+    public void comparesOnlyTheFieldsTheMethodReads() throws JSONException {
+        RequestRecord read = m_reader.read("{\"method\":\"ad\",\"id\":1,\"params\":{\"bb\":\"A\",\"bp\":\"01\"}}");
+        RequestRecord other = m_reader.read("{\"method\":\"ad\",\"id\":2,\"params\":{\"bb\":\"A\",\"bp\":\"02\"}}");
+        RequestRecord elsewhere = m_reader.read("{\"method\":\"ad\",\"params\":{\"bb\":\"B\"}}");
+
+        assertTrue(read.sameParams(other));
+        assertFalse(read.sameParams(elsewhere));
+    }
+
+    private static JSONObject allFields() throws JSONException {
+        return new JSONObject()
+                .put(Constants.kPeripheralUUID, PERIPHERAL)
+                .put(Constants.kServiceUUID, "180d")
+                .put(Constants.kCharacteristicUUID, CHARACTERISTIC)
+                .put(Constants.kDescriptorUUID, "2902")
+                .put(Constants.kValue, "01")
+                .put(Constants.kWriteType, "w")
+                .put(Constants.kIsNotifying, true)
+                .put(Constants.kScanOptionAllowDuplicatesKey, true)
+                .put(Constants.kServiceUUIDs, new JSONArray().put("180d"))
+                .put(Constants.kMTU, 185)
+                .put(Constants.kConnectionPriority, "c")
+                .put(Constants.kWindow, 4)
+                .put(Constants.kPriority, "bulk")
+                .put(Constants.kDeadline, 100)
+                .put(Constants.kScanOptionManufacturerIds, new JSONArray().put(76))
+                .put(Constants.kScanOptionPeripheralAddresses, new JSONArray().put(PERIPHERAL))
+                .put(Constants.kScanOptionReportDelay, 10)
+                .put(Constants.kScanOptionPolicy, "windowed");
+    }
+
+    private static JSONObject request(String method, JSONObject params) throws JSONException {
+        return new JSONObject()
+                .putOpt(Constants.kMethod, method)
+                .put(Constants.kRequestId, "7")
+                .put(Constants.kParams, params);
+    }
+
+    private static List<String> methods() {
+        return Arrays.asList(Constants.kConfigure, Constants.kCentralState, Constants.kScanForPeripherals,
+                Constants.kStopScanning, Constants.kConnect, Constants.kDisconnect, Constants.kGetServices,
+                Constants.kGetCharacteristics, Constants.kGetDescriptors, Constants.kGetCharacteristicValue,
+                Constants.kGetDescriptorValue, Constants.kWriteCharacteristicValue, Constants.kWriteDescriptorValue,
+                Constants.kSetValueNotification, Constants.kGetPeripheralState, Constants.kGetRSSI,
+                Constants.kRequestMTU, Constants.kSetConnectionPriority, Constants.kOpenWriteStream,
+                Constants.kCloseWriteStream);
+    }
+
+    private RequestRecord assertReadAsParsed(String text) throws JSONException {
+        RequestRecord read = m_reader.read(text);
+
+        assertNotNull(text, read);
+        assertSameRecord(RequestRecord.of(new JSONObject(text)), read);
+        return read;
+    }
+
+    private static void assertSameRecord(RequestRecord expected, RequestRecord actual) {
+        assertEquals(expected.method, actual.method);
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.sessionId, actual.sessionId);
+        assertEquals(expected.hasParams, actual.hasParams);
+        assertEquals(expected.fields, actual.fields);
+        assertEquals(expected.peripheral, actual.peripheral);
+        assertEquals(expected.service, actual.service);
+        assertEquals(expected.characteristic, actual.characteristic);
+        assertEquals(expected.descriptor, actual.descriptor);
+        assertEquals(expected.value, actual.value);
+        assertEquals(expected.writeType, actual.writeType);
+        assertEquals(expected.priority, actual.priority);
+        assertEquals(expected.connectionPriority, actual.connectionPriority);
+        assertEquals(expected.scanPolicy, actual.scanPolicy);
+        assertEquals(expected.notifying, actual.notifying);
+        assertEquals(expected.allowDuplicates, actual.allowDuplicates);
+        assertEquals(expected.deadline, actual.deadline);
+        assertEquals(expected.mtu, actual.mtu);
+        assertEquals(expected.window, actual.window);
+        assertEquals(expected.reportDelay, actual.reportDelay);
+        assertEquals(expected.serviceUUIDs, actual.serviceUUIDs);
+        assertEquals(expected.addresses, actual.addresses);
+        assertEquals(expected.manufacturerIds, actual.manufacturerIds);
+    }
+}
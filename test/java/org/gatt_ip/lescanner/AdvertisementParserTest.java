@@ -0,0 +1,207 @@
+package org.gatt_ip.lescanner;
+
+import org.gatt_ip.util.UUIDCodec;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisementParserTest {
+    private static final String VENDOR = "6E400001-B5A3-F393-E0A9-E50E24DCCA9E";
+
+    @Test
+    public void decodesTheCommonTypes() {
+        byte[] record = record(
+                0x02, 0x01, 0x06,
+                0x02, 0x0A, 0xF4,
+                0x03, 0x19, 0x41, 0x03,
+                0x05, 0x03, 0x0D, 0x18, 0x0F, 0x18,
+                0x04, 0x09, 'a', 'b', 'c',
+                0x04, 0x16, 0x0F, 0x18, 0x64,
+                0x05, 0xFF, 0x4C, 0x00, 0x01, 0x02);
+        Advertisement advertisement = AdvertisementParser.parse(record, new Advertisement());
+
+        assertEquals(0x06, advertisement.flags());
+        assertEquals(-12, advertisement.txPowerLevel());
+        assertEquals(0x0341, advertisement.appearance());
+        assertEquals("abc", advertisement.localName());
+        assertEquals(2, advertisement.serviceUUIDCount());
+        assertEquals(UUIDCodec.bluetoothMsb(0x180D), advertisement.serviceUUIDMsb(0));
+        assertEquals(UUIDCodec.BASE_LSB, advertisement.serviceUUIDLsb(0));
+        assertEquals(UUIDCodec.bluetoothMsb(0x180F), advertisement.serviceUUIDMsb(1));
+        assertEquals(1, advertisement.serviceDataCount());
+        assertEquals(UUIDCodec.bluetoothMsb(0x180F), advertisement.serviceDataUUIDMsb(0));
+        assertEquals(1, advertisement.serviceDataLength(0));
+        assertEquals(0x64, record[advertisement.serviceDataOffset(0)]);
+        assertEquals(1, advertisement.manufacturerDataCount());
+        assertEquals(0x004C, advertisement.manufacturerId(0));
+        assertEquals(2, advertisement.manufacturerDataLength(0));
+        assertEquals(0x01, record[advertisement.manufacturerDataOffset(0)]);
+    }
+
+    @Test
+    public void keepsTheFieldsBeforeATruncatedStructure() {
+        byte[] record = record(
+                0x02, 0x01, 0x06,
+                0x03, 0x03, 0x0D, 0x18,
+                0x09, 0x09, 'a', 'b');
+        Advertisement advertisement = AdvertisementParser.parse(record, new Advertisement());
+
+        assertEquals(0x06, advertisement.flags());
+        assertEquals(1, advertisement.serviceUUIDCount());
+        assertFalse(advertisement.hasLocalName());
+        assertEquals(1, AdvertisementParser.serviceUUIDs(record, new long[2]));
+
+        // a length byte with nothing after it
+        advertisement = AdvertisementParser.parse(record(0x02, 0x01, 0x06, 0x05), advertisement);
+        assertEquals(0x06, advertisement.flags());
+        assertEquals(0, advertisement.serviceUUIDCount());
+    }
+
+    @Test
+    public void stopsAtAZeroLength() {
+        byte[] record = record(
+                0x03, 0x03, 0x0D, 0x18,
+                0x00,
+                0x03, 0x03, 0x0F, 0x18,
+                0x00, 0x00);
+        Advertisement advertisement = AdvertisementParser.parse(record, new Advertisement());
+
+        assertEquals(1, advertisement.serviceUUIDCount());
+        assertEquals(1, AdvertisementParser.serviceUUIDs(record, new long[4]));
+
+        advertisement = AdvertisementParser.parse(new byte[31], advertisement);
+        assertEquals(Advertisement.NONE, advertisement.flags());
+        assertEquals(0, advertisement.serviceUUIDCount());
+        assertEquals(0, AdvertisementParser.parse(new byte[0], advertisement).serviceUUIDCount());
+        assertNull(AdvertisementParser.parse(null, advertisement).record());
+        assertEquals(0, AdvertisementParser.serviceUUIDs(null, new long[2]));
+    }
+
+    @Test
+    public void ignoresStructuresTooShortForTheirType() {
+        byte[] record = record(
+                0x01, 0x01,
+                0x01, 0x0A,
+                0x02, 0x19, 0x41,
+                0x01, 0x09);
+        Advertisement advertisement = AdvertisementParser.parse(record, new Advertisement());
+
+        assertEquals(Advertisement.NONE, advertisement.flags());
+        assertEquals(Integer.MIN_VALUE, advertisement.txPowerLevel());
+        assertEquals(Advertisement.NONE, advertisement.appearance());
+        assertTrue(advertisement.hasLocalName());
+        assertEquals("", advertisement.localName());
+    }
+
+    @Test
+    public void leavesOutPartialUUIDs() {
+        byte[] record = record(
+                0x04, 0x03, 0x0D, 0x18, 0x0F,
+                0x07, 0x05, 0x78, 0x56, 0x34, 0x12, 0xAA, 0xBB,
+                0x14, 0x07, 0x9E, 0xCA, 0xDC, 0x24, 0x0E, 0xE5, 0xA9, 0xE0,
+                0x93, 0xF3, 0xA3, 0xB5, 0x01, 0x00, 0x40, 0x6E, 0x01, 0x02, 0x03);
+        Advertisement advertisement = AdvertisementParser.parse(record, new Advertisement());
+        UUID vendor = UUID.fromString(VENDOR);
+
+        assertEquals(3, advertisement.serviceUUIDCount());
+        assertEquals(UUIDCodec.bluetoothMsb(0x180D), advertisement.serviceUUIDMsb(0));
+        assertEquals(UUIDCodec.bluetoothMsb(0x12345678), advertisement.serviceUUIDMsb(1));
+        assertEquals(UUIDCodec.BASE_LSB, advertisement.serviceUUIDLsb(1));
+        assertEquals(vendor.getMostSignificantBits(), advertisement.serviceUUIDMsb(2));
+        assertEquals(vendor.getLeastSignificantBits(), advertisement.serviceUUIDLsb(2));
+
+        assertEquals(Arrays.asList(UUIDCodec.toUUID("180D"), UUIDCodec.toUUID("12345678"), vendor),
+                AdvertisementParser.serviceUUIDs(record, new ArrayList<UUID>()));
+        assertEquals(Arrays.asList("180D", "12345678", VENDOR),
+                AdvertisementParser.serviceUUIDStrings(record, new ArrayList<String>()));
+    }
+
+    @Test
+    public void leavesOutListsShorterThanOneUUID() {
+        byte[] record = record(
+                0x02, 0x02, 0x0D,
+                0x04, 0x04, 0x01, 0x02, 0x03,
+                0x10, 0x06, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+        assertEquals(0, AdvertisementParser.parse(record, new Advertisement()).serviceUUIDCount());
+        assertEquals(0, AdvertisementParser.serviceUUIDs(record, new long[2]));
+        assertTrue(AdvertisementParser.serviceUUIDStrings(record, new ArrayList<String>()).isEmpty());
+    }
+
+    @Test
+    public void ignoresServiceDataShorterThanItsUUID() {
+        byte[] record = record(
+                0x02, 0x16, 0x0F,
+                0x04, 0x20, 0x01, 0x02, 0x03,
+                0x10, 0x21, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                0x03, 0x16, 0x0F, 0x18);
+        Advertisement advertisement = AdvertisementParser.parse(record, new Advertisement());
+
+        // only the last entry has a whole UUID, and no data after it
+        assertEquals(1, advertisement.serviceDataCount());
+        assertEquals(UUIDCodec.bluetoothMsb(0x180F), advertisement.serviceDataUUIDMsb(0));
+        assertEquals(0, advertisement.serviceDataLength(0));
+        assertEquals(record.length, advertisement.serviceDataOffset(0));
+    }
+
+    @Test
+    public void ignoresManufacturerDataWithoutACompanyIdentifier() {
+        byte[] record = record(
+                0x01, 0xFF,
+                0x02, 0xFF, 0x4C,
+                0x03, 0xFF, 0x59, 0x00);
+        Advertisement advertisement = AdvertisementParser.parse(record, new Advertisement());
+
+        assertEquals(1, advertisement.manufacturerDataCount());
+        assertEquals(0x0059, advertisement.manufacturerId(0));
+        assertEquals(0, advertisement.manufacturerDataLength(0));
+    }
+
+    @Test
+    public void countsUUIDsPastTheRoomInPairs() {
+        byte[] record = record(0x07, 0x03, 0x0D, 0x18, 0x0F, 0x18, 0x0A, 0x18);
+        long[] pairs = new long[3];
+
+        assertEquals(3, AdvertisementParser.serviceUUIDs(record, pairs));
+        assertArrayEquals(new long[] {UUIDCodec.bluetoothMsb(0x180D), UUIDCodec.BASE_LSB, 0}, pairs);
+        assertEquals(3, AdvertisementParser.serviceUUIDs(record, new long[0]));
+
+        pairs = new long[6];
+        assertEquals(3, AdvertisementParser.serviceUUIDs(record, pairs));
+        assertEquals(UUIDCodec.bluetoothMsb(0x180A), pairs[4]);
+    }
+
+    @Test
+    public void reusesTheView() {
+        Advertisement advertisement = new Advertisement();
+        List<Integer> counts = new ArrayList<>();
+
+        for (byte[] record : new byte[][] {
+                record(0x05, 0x03, 0x0D, 0x18, 0x0F, 0x18, 0x02, 0x01, 0x06),
+                record(0x03, 0x03, 0x0A, 0x18)}) {
+            counts.add(AdvertisementParser.parse(record, advertisement).serviceUUIDCount());
+        }
+
+        assertEquals(Arrays.asList(2, 1), counts);
+        assertEquals(Advertisement.NONE, advertisement.flags());
+        assertEquals(UUIDCodec.bluetoothMsb(0x180A), advertisement.serviceUUIDMsb(0));
+    }
+
+    private static byte[] record(int... bytes) {
+        byte[] record = new byte[bytes.length];
+
+        for (int i = 0; i < bytes.length; i++) {
+            record[i] = (byte) bytes[i];
+        }
+        return record;
+    }
+}
@@ -0,0 +1,186 @@
+package org.gatt_ip.lescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSchedulerTest {
+
+    @Test
+    public void allowsFiveStartsInThirtySeconds() {
+        ScanScheduler.StartBudget budget = new ScanScheduler.StartBudget();
+
+        for (long now = 0; now < 5000; now += 1000) {
+            assertEquals(0, budget.delay(now));
+            budget.record(now);
+        }
+
+        // the first start has to leave the period, with a second to spare
+        assertEquals(27000, budget.delay(4000));
+        assertEquals(1, budget.delay(30999));
+        assertEquals(0, budget.delay(31000));
+
+        budget.record(31000);
+        assertEquals(1000, budget.delay(31000));
+        assertEquals(0, budget.delay(32000));
+    }
+
+    @Test
+    public void sharesTheBudgetBetweenScanners() {
+        ScanScheduler.StartBudget budget = new ScanScheduler.StartBudget();
+        ScanScheduler first = new ScanScheduler(ScanScheduler.Policy.CONTINUOUS, budget);
+        ScanScheduler second = new ScanScheduler(ScanScheduler.Policy.WINDOWED, budget);
+
+        for (int i = 0; i < 3; i++) {
+            first.onStarted(i, ScanScheduler.SCAN_MODE_LOW_LATENCY);
+        }
+        second.onStarted(3, ScanScheduler.SCAN_MODE_BALANCED);
+        assertEquals(0, second.startDelay(4));
+        second.onStarted(4, ScanScheduler.SCAN_MODE_BALANCED);
+
+        assertEquals(30995, first.startDelay(5));
+    }
+
+    @Test
+    public void restartsEachWindowWithinTheBudget() {
+        ScanScheduler scheduler = new ScanScheduler(ScanScheduler.Policy.CONTINUOUS, new ScanScheduler.StartBudget());
+        long now = 0;
+
+        scheduler.setRestartEachWindow(true);
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(0, scheduler.startDelay(now));
+            scheduler.onStarted(now, scheduler.scanMode());
+            now += scheduler.window();
+            assertEquals(0, scheduler.windowEnded(now));
+            scheduler.onStopped();
+        }
+    }
+
+    @Test
+    public void pausesBetweenWindows() {
+        ScanScheduler scheduler = new ScanScheduler(ScanScheduler.Policy.WINDOWED, new ScanScheduler.StartBudget());
+
+        assertEquals(ScanScheduler.SCAN_MODE_BALANCED, scheduler.scanMode());
+        scheduler.onStarted(0, ScanScheduler.SCAN_MODE_BALANCED);
+        assertEquals(5000, scheduler.window());
+        assertEquals(5000, scheduler.windowEnded(5000));
+    }
+
+    @Test
+    public void stepsDownWhileNothingNewTurnsUp() {
+        ScanScheduler scheduler = new ScanScheduler(ScanScheduler.Policy.ADAPTIVE, new ScanScheduler.StartBudget());
+        int[] modes = {
+                ScanScheduler.SCAN_MODE_BALANCED,
+                ScanScheduler.SCAN_MODE_LOW_POWER,
+                ScanScheduler.SCAN_MODE_LOW_POWER,
+                ScanScheduler.SCAN_MODE_LOW_POWER,
+                ScanScheduler.SCAN_MODE_LOW_POWER,
+                ScanScheduler.SCAN_MODE_LOW_POWER,
+                ScanScheduler.SCAN_MODE_LOW_POWER,
+                ScanScheduler.SCAN_MODE_LOW_POWER};
+        long[] pauses = {0, 0, 5000, 10000, 20000, 40000, 60000, 60000};
+        long now = 0;
+
+        assertEquals(ScanScheduler.SCAN_MODE_LOW_LATENCY, scheduler.scanMode());
+
+        for (int i = 0; i < modes.length; i++) {
+            scheduler.onStarted(now, scheduler.scanMode());
+            now += scheduler.window();
+
+            long pause = scheduler.windowEnded(now);
+
+            assertEquals("window " + i, pauses[i], pause);
+            assertEquals("window " + i, modes[i], scheduler.scanMode());
+            scheduler.onStopped();
+            now += pause;
+            assertEquals("window " + i, 0, scheduler.startDelay(now));
+        }
+    }
+
+    @Test
+    public void stepsBackUpWhenANewDeviceTurnsUp() {
+        ScanScheduler scheduler = new ScanScheduler(ScanScheduler.Policy.ADAPTIVE, new ScanScheduler.StartBudget());
+        long now = 0;
+
+        for (int i = 0; i < 4; i++) {
+            scheduler.onStarted(now, scheduler.scanMode());
+            now += scheduler.window();
+            now += scheduler.windowEnded(now);
+        }
+        assertEquals(ScanScheduler.SCAN_MODE_LOW_POWER, scheduler.scanMode());
+
+        scheduler.onStarted(now, scheduler.scanMode());
+        assertTrue(scheduler.onDeviceSeen("00:11:22:33:44:55"));
+        assertEquals(0, scheduler.windowEnded(now + scheduler.window()));
+        assertEquals(ScanScheduler.SCAN_MODE_LOW_LATENCY, scheduler.scanMode());
+    }
+
+    @Test
+    public void runsOnWhileDevicesKeepTurningUp() {
+        ScanScheduler scheduler = new ScanScheduler(ScanScheduler.Policy.ADAPTIVE, new ScanScheduler.StartBudget());
+
+        scheduler.onStarted(0, ScanScheduler.SCAN_MODE_LOW_LATENCY);
+        assertTrue(scheduler.onDeviceSeen("00:11:22:33:44:55"));
+        assertEquals(-1, scheduler.windowEnded(10000));
+
+        // a device seen before is not new
+        assertFalse(scheduler.onDeviceSeen("00:11:22:33:44:55"));
+        assertEquals(0, scheduler.windowEnded(20000));
+        assertEquals(ScanScheduler.SCAN_MODE_BALANCED, scheduler.scanMode());
+    }
+
+    @Test
+    public void keepsScanningWhenTheBudgetDeniesARestart() {
+        ScanScheduler.StartBudget budget = full();
+        ScanScheduler continuous = new ScanScheduler(ScanScheduler.Policy.CONTINUOUS, budget);
+
+        continuous.setRestartEachWindow(true);
+        continuous.onStarted(0, ScanScheduler.SCAN_MODE_LOW_LATENCY);
+        assertEquals(-1, continuous.windowEnded(6200));
+
+        ScanScheduler windowed = new ScanScheduler(ScanScheduler.Policy.WINDOWED, budget);
+
+        windowed.onStarted(0, ScanScheduler.SCAN_MODE_BALANCED);
+        assertEquals(-1, windowed.windowEnded(5000));
+        // a pause that outlasts the wait is allowed
+        assertEquals(5000, windowed.windowEnded(26000));
+    }
+
+    @Test
+    public void holdsItsModeWhenTheBudgetDeniesAStepDown() {
+        ScanScheduler scheduler = new ScanScheduler(ScanScheduler.Policy.ADAPTIVE, full());
+
+        scheduler.onStarted(0, ScanScheduler.SCAN_MODE_LOW_LATENCY);
+        assertEquals(-1, scheduler.windowEnded(10000));
+        assertEquals(ScanScheduler.SCAN_MODE_LOW_LATENCY, scheduler.scanMode());
+
+        // once the budget allows, the step down goes ahead
+        assertEquals(0, scheduler.windowEnded(31000));
+        assertEquals(ScanScheduler.SCAN_MODE_BALANCED, scheduler.scanMode());
+    }
+
+    @Test
+    public void restartsOnlyToChangeModeWhereThereAreModes() {
+        ScanScheduler scheduler = new ScanScheduler(ScanScheduler.Policy.ADAPTIVE, new ScanScheduler.StartBudget());
+
+        scheduler.setScanModesSupported(false);
+        scheduler.onStarted(0, ScanScheduler.SCAN_MODE_LOW_LATENCY);
+        assertEquals(-1, scheduler.windowEnded(10000));
+        assertEquals(-1, scheduler.windowEnded(20000));
+        // the pauses still need a restart
+        assertEquals(5000, scheduler.windowEnded(30000));
+    }
+
+    // a budget spent by five starts at time 0
+    private static ScanScheduler.StartBudget full() {
+        ScanScheduler.StartBudget budget = new ScanScheduler.StartBudget();
+
+        for (int i = 0; i < ScanScheduler.MAX_STARTS; i++) {
+            budget.record(0);
+        }
+        return budget;
+    }
+}
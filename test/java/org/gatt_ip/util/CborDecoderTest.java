@@ -0,0 +1,114 @@
+package org.gatt_ip.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CborDecoderTest {
+
+    @Test
+    public void decodesWhatTheEncoderWrites() throws JSONException {
+        JSONObject message = new JSONObject("{\"a\":\"b\",\"n\":[1,-2,true,null],\"m\":{\"x\":\"y\"}}");
+        JSONObject decoded = (JSONObject) CborDecoder.decode(CborEncoder.encode(message));
+
+        assertEquals("b", decoded.getString("a"));
+        assertEquals(-2, decoded.getJSONArray("n").getInt(1));
+        assertEquals("y", decoded.getJSONObject("m").getString("x"));
+    }
+
+    @Test
+    public void decodesIndefiniteStrings() throws JSONException {
+        // (_ "ab" "c")
+        assertEquals("abc", CborDecoder.decode(frame(0x7F, 0x62, 'a', 'b', 0x61, 'c', 0xFF)));
+        // (_ h'01' h'02')
+        assertEquals("0102", CborDecoder.decode(frame(0x5F, 0x41, 0x01, 0x41, 0x02, 0xFF)));
+    }
+
+    @Test
+    public void rejectsTruncatedFrames() {
+        assertMalformed(frame());
+        assertMalformed(frame(0x18));
+        assertMalformed(frame(0x19, 0x01));
+        assertMalformed(frame(0x63, 'a', 'b'));
+        assertMalformed(frame(0x82, 0x01));
+        assertMalformed(frame(0xA1, 0x61, 'a'));
+        assertMalformed(frame(0x9F, 0x01));
+        assertMalformed(frame(0x7F, 0x61, 'a'));
+        assertMalformed(frame(0xFB, 0x00, 0x00));
+    }
+
+    @Test
+    public void rejectsLengthsPastTheFrame() {
+        assertMalformed(frame(0x5B, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF));
+        assertMalformed(frame(0x5B, 0x80, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x10, 0x01));
+        assertMalformed(frame(0x7A, 0x7F, 0xFF, 0xFF, 0xFF, 'a'));
+        assertMalformed(frame(0x42, 0x01));
+        assertMalformed(frame(0x5F, 0x5A, 0xFF, 0xFF, 0xFF, 0xFF, 0x01, 0xFF));
+    }
+
+    @Test
+    public void rejectsCountsPastTheFrame() {
+        assertMalformed(frame(0x9B, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF));
+        assertMalformed(frame(0x9B, 0x80, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01));
+        assertMalformed(frame(0xBA, 0x7F, 0xFF, 0xFF, 0xFF, 0x61, 'a', 0x01));
+        assertMalformed(frame(0x83, 0x01, 0x02));
+    }
+
+    @Test
+    public void rejectsTrailingBytes() {
+        assertMalformed(frame(0x01, 0x02));
+    }
+
+    @Test
+    public void acceptsNestingUpToTheLimit() throws JSONException {
+        Object value = CborDecoder.decode(nested(CborDecoder.MAX_DEPTH));
+
+        for (int i = 0; i < CborDecoder.MAX_DEPTH; i++) {
+            value = ((JSONArray) value).get(0);
+        }
+        assertEquals(0, value);
+    }
+
+    @Test
+    public void rejectsNestingPastTheLimit() {
+        assertMalformed(nested(CborDecoder.MAX_DEPTH + 1));
+        assertMalformed(nested(100000));
+    }
+
+    @Test
+    public void rejectsNonTextMapKeys() {
+        assertMalformed(frame(0xA1, 0x01, 0x02));
+    }
+
+    // arrays of one element, depth deep around a 0
+    private static byte[] nested(int depth) {
+        byte[] frame = new byte[depth + 1];
+
+        for (int i = 0; i < depth; i++) {
+            frame[i] = (byte) 0x81;
+        }
+        return frame;
+    }
+
+    private static byte[] frame(int... bytes) {
+        byte[] frame = new byte[bytes.length];
+
+        for (int i = 0; i < bytes.length; i++) {
+            frame[i] = (byte) bytes[i];
+        }
+        return frame;
+    }
+
+    private static void assertMalformed(byte[] frame) {
+        try {
+            CborDecoder.decode(frame);
+            fail("Decoded a malformed frame");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+}
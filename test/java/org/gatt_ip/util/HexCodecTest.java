@@ -0,0 +1,135 @@
+package org.gatt_ip.util;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HexCodecTest {
+
+    @Test
+    public void roundTripsEveryByte() {
+        byte[] data = new byte[256];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        String hex = HexCodec.encode(data);
+
+        assertEquals(512, hex.length());
+        assertTrue(hex.startsWith("000102"));
+        assertTrue(hex.endsWith("FDFEFF"));
+        assertEquals(256, HexCodec.decodedLength(hex));
+        assertArrayEquals(data, HexCodec.decode(hex));
+        assertArrayEquals(data, HexCodec.decode(hex.toLowerCase()));
+    }
+
+    @Test
+    public void encodesIntoTheCallersBuffers() {
+        byte[] data = {0x00, 0x7F, (byte) 0x80, (byte) 0xFF};
+        char[] chars = new char[10];
+        byte[] bytes = new byte[10];
+
+        assertEquals(4, HexCodec.encode(data, 1, 2, chars, 3));
+        assertEquals("7F80", new String(chars, 3, 4));
+        assertEquals(4, HexCodec.encode(data, 2, 2, bytes, 0));
+        assertEquals("80FF", new String(bytes, 0, 4));
+        assertEquals("", HexCodec.encode(null));
+        assertEquals("", HexCodec.encode(new byte[0]));
+    }
+
+    @Test
+    public void appendsDigits() {
+        StringBuilder out = new StringBuilder("x");
+
+        HexCodec.append(out, new byte[] {0x0A, (byte) 0xBC});
+        HexCodec.append(out, 0x5);
+        HexCodec.append(out, new byte[] {1, 2, 3}, 1, 1);
+        HexCodec.append(out, null);
+
+        assertEquals("x0ABC0502", out.toString());
+    }
+
+    @Test
+    public void skipsWhitespaceBetweenDigits() {
+        String hex = " 01\t02\n0 3\r\f\u000B";
+
+        assertEquals(3, HexCodec.decodedLength(hex));
+        assertArrayEquals(new byte[] {1, 2, 3}, HexCodec.decode(hex));
+        assertEquals(0, HexCodec.decodedLength("   "));
+        assertEquals(0, HexCodec.decode("").length);
+    }
+
+    @Test
+    public void rejectsOddNumbersOfDigits() {
+        assertEquals(-1, HexCodec.decodedLength("123"));
+        assertEquals(-1, HexCodec.decodedLength("1 2 3"));
+        assertFalse(HexCodec.isValid("A"));
+        assertInvalid("ABC");
+
+        try {
+            HexCodec.decode("ABC", new byte[2], 0);
+            fail("Decoded an odd number of digits");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsCharactersThatAreNotDigits() {
+        for (String hex : new String[] {"0G", "0x01", "01-02", "zz", "0\u00e9", "\u0660\u0661", "01\u0000"}) {
+            assertEquals(hex, -1, HexCodec.decodedLength(hex));
+            assertFalse(hex, HexCodec.isValid(hex));
+            assertInvalid(hex);
+        }
+        assertFalse(HexCodec.isValid(null));
+    }
+
+    @Test
+    public void readsSingleDigits() {
+        assertEquals(0, HexCodec.digit('0'));
+        assertEquals(10, HexCodec.digit('a'));
+        assertEquals(15, HexCodec.digit('F'));
+        assertEquals(-1, HexCodec.digit('g'));
+        assertEquals(-1, HexCodec.digit(' '));
+        assertEquals(-1, HexCodec.digit('\u00ff'));
+    }
+
+    @Test
+    public void decodesIntoBuffers() {
+        ByteBuffer heap = ByteBuffer.allocate(4);
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+
+        heap.put((byte) 9);
+        assertEquals(2, HexCodec.decode("0A0B", heap));
+        assertEquals(3, heap.position());
+        assertArrayEquals(new byte[] {9, 10, 11, 0}, heap.array());
+
+        assertEquals(2, HexCodec.decode("0C 0D", direct));
+        assertEquals(2, direct.position());
+        assertEquals(0x0C, direct.get(0));
+
+        try {
+            HexCodec.decode("010203", ByteBuffer.allocate(2));
+            fail("Decoded past the buffer");
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+    }
+
+    private static void assertInvalid(String hex) {
+        try {
+            HexCodec.decode(hex);
+            fail("Decoded " + hex);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.gatt_ip.util;
+
+import org.gatt_ip.Constants;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProtocolDictionaryTest {
+    // the constants that are not short codes
+    private static final List<String> NOT_CODES = Arrays.asList(
+            "kJsonrpcVersion", "kJsonrpc", "kMethod", "kParams", "kError", "kCode", "kMessageField",
+            "kResult", "kRequestId", "kRequestSessionId", "kInvalidRequest", "kMethodNotFound",
+            "kInvalidParams", "kParseError");
+
+    @Test
+    public void namesMethodsAsBefore() {
+        Map<String, String> methods = new HashMap<>();
+
+        methods.put(Constants.kConfigure, "Configure");
+        methods.put(Constants.kScanForPeripherals, "ScanForPeripherals");
+        methods.put(Constants.kStopScanning, "StopScanning");
+        methods.put(Constants.kConnect, "Connect");
+        methods.put(Constants.kDisconnect, "Disconnect");
+        methods.put(Constants.kCentralState, "CentralState");
+        methods.put(Constants.kGetConnectedPeripherals, "GetConnectedPeripherals");
+        methods.put(Constants.kGetPerhipheralsWithServices, "GetPerhipheralsWithServices");
+        methods.put(Constants.kGetPerhipheralsWithIdentifiers, "GetPerhipheralsWithIdentifiers");
+        methods.put(Constants.kGetServices, "GetServices");
+        methods.put(Constants.kGetIncludedServices, "GetIncludedServices");
+        methods.put(Constants.kGetCharacteristics, "GetCharacteristics");
+        methods.put(Constants.kGetDescriptors, "GetDescriptors");
+        methods.put(Constants.kGetCharacteristicValue, "GetCharacteristicValue");
+        methods.put(Constants.kGetDescriptorValue, "GetDescriptorValue");
+        methods.put(Constants.kWriteCharacteristicValue, "WriteCharacteristicValue");
+        methods.put(Constants.kWriteDescriptorValue, "WriteDescriptorValue");
+        methods.put(Constants.kSetValueNotification, "SetValueNotification");
+        methods.put(Constants.kGetPeripheralState, "GetPeripheralState");
+        methods.put(Constants.kGetRSSI, "GetRSSI");
+        methods.put(Constants.kInvalidatedServices, "InvalidatedServices");
+        methods.put(Constants.kPeripheralNameUpdate, "peripheralNameUpdate");
+
+        for (Map.Entry<String, String> method : methods.entrySet()) {
+            assertEquals(method.getValue(), ProtocolDictionary.methodName(method.getKey()));
+            assertEquals(method.getValue(), Util.humanReadableFormatFromHex(method.getKey()));
+        }
+    }
+
+    @Test
+    public void namesKeysAsBefore() {
+        Map<String, String> keys = new HashMap<>();
+
+        keys.put(Constants.kCentralUUID, "centralUUID");
+        keys.put(Constants.kPeripheralUUID, "PeripheralUUID");
+        keys.put(Constants.kPeripheralName, "PeripheralName");
+        keys.put(Constants.kPeripheralUUIDs, "PeripheralUUIDs");
+        keys.put(Constants.kServiceUUID, "ServiceUUID");
+        keys.put(Constants.kServiceUUIDs, "ServiceUUIDs");
+        keys.put(Constants.kPeripherals, "peripherals");
+        keys.put(Constants.kIncludedServiceUUIDs, "IncludedServiceUUIDs");
+        keys.put(Constants.kCharacteristicUUID, "CharacteristicUUID");
+        keys.put(Constants.kCharacteristicUUIDs, "CharacteristicUUIDs");
+        keys.put(Constants.kDescriptorUUID, "DescriptorUUID");
+        keys.put(Constants.kServices, "Services");
+        keys.put(Constants.kCharacteristics, "Characteristics");
+        keys.put(Constants.kDescriptors, "Descriptors");
+        keys.put(Constants.kProperties, "Properties");
+        keys.put(Constants.kValue, "Value");
+        keys.put(Constants.kState, "State");
+        keys.put(Constants.kStateInfo, "StateInfo");
+        keys.put(Constants.kStateField, "StateField");
+        keys.put(Constants.kWriteType, "WriteType");
+        keys.put(Constants.kRSSIkey, "RSSIkey");
+        keys.put(Constants.kIsPrimaryKey, "IsPrimaryKey");
+        keys.put(Constants.kIsBroadcasted, "IsBroadcasted");
+        keys.put(Constants.kIsNotifying, "IsNotifying");
+        keys.put(Constants.kShowPowerAlert, "ShowPowerAlert");
+        keys.put(Constants.kIdentifierKey, "IdentifierKey");
+        keys.put(Constants.kScanOptionAllowDuplicatesKey, "ScanOptionAllowDuplicatesKey");
+        keys.put(Constants.kScanOptionSolicitedServiceUUIDs, "ScanOptionSolicitedServiceUUIDs");
+        keys.put(Constants.kAdvertisementDataKey, "AdvertisementDataKey");
+        keys.put(Constants.kCBAdvertisementDataManufacturerDataKey, "CBAdvertisementDataManufacturerDataKey");
+        keys.put(Constants.kCBAdvertisementDataServiceUUIDsKey, "CBAdvertisementDataServiceUUIDsKey");
+        keys.put(Constants.kCBAdvertisementDataServiceDataKey, "CBAdvertisementDataServiceDataKey");
+        keys.put(Constants.kCBAdvertisementDataOverflowServiceUUIDsKey, "CBAdvertisementDataOverflowServiceUUIDsKey");
+        keys.put(Constants.kCBAdvertisementDataSolicitedServiceUUIDsKey, "CBAdvertisementDataSolicitedServiceUUIDsKey");
+        keys.put(Constants.kCBAdvertisementDataIsConnectable, "CBAdvertisementDataIsConnectable");
+        keys.put(Constants.kCBAdvertisementDataTxPowerLevel, "CBAdvertisementDataTxPowerLevel");
+        keys.put(Constants.kCBCentralManagerRestoredStatePeripheralsKey, "CBCentralManagerRestoredStatePeripheralsKey");
+        keys.put(Constants.kCBCentralManagerRestoredStateScanServicesKey, "CBCentralManagerRestoredStateScanServicesKey");
+        keys.put(Constants.kPeripheralBtAddress, "BTAddress");
+        keys.put(Constants.kRawAdvertisementData, "RawAdvertisingdata");
+        keys.put(Constants.kScanRecord, "ScanRecord");
+
+        for (Map.Entry<String, String> key : keys.entrySet()) {
+            assertEquals(key.getValue(), ProtocolDictionary.keyName(key.getKey()));
+            assertEquals(key.getValue(), Util.humanReadableFormatFromHex(key.getKey()));
+        }
+    }
+
+    @Test
+    public void namesValuesAsBefore() {
+        Map<String, String> values = new HashMap<>();
+
+        values.put(Constants.kWriteWithResponse, "WriteWithResponse");
+        values.put(Constants.kWriteWithoutResponse, "WriteWithoutResponse");
+        values.put(Constants.kNotifyOnConnection, "NotifyOnConnection");
+        values.put(Constants.kNotifyOnDisconnection, "NotifyOnDisconnection");
+        values.put(Constants.kNotifyOnNotification, "NotifyOnNotification");
+        values.put(Constants.kDisconnected, "Disconnected");
+        values.put(Constants.kConnecting, "Connecting");
+        values.put(Constants.kConnected, "Connected");
+        values.put(Constants.kUnknown, "Unknown");
+        values.put(Constants.kResetting, "Resetting");
+        values.put(Constants.kPoweredOff, "PoweredOff");
+        values.put(Constants.kPoweredOn, "PoweredOn");
+        // the old table named kUnsupported "Unauthorized" and left kUnauthorized out
+        values.put(Constants.kUnsupported, "Unsupported");
+        values.put(Constants.kUnauthorized, "Unauthorized");
+
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            assertEquals(value.getValue(), ProtocolDictionary.valueName(value.getKey()));
+            assertEquals(value.getValue(), Util.humanReadableFormatFromHex(value.getKey()));
+        }
+    }
+
+    @Test
+    public void namesEveryShortCode() throws IllegalAccessException {
+        for (Field field : Constants.class.getDeclaredFields()) {
+            if (!isShortCode(field)) {
+                continue;
+            }
+
+            String code = (String) field.get(null);
+            String name = ProtocolDictionary.name(code);
+
+            assertNotNull(field.getName(), name);
+            assertEquals(field.getName(), code, ProtocolDictionary.code(name));
+        }
+    }
+
+    @Test
+    public void givesEachCodeOneCategoryAndOneName() {
+        Set<String> codes = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        int entries = 0;
+
+        for (Map<String, String> table : Arrays.asList(ProtocolDictionary.methodNames(),
+                ProtocolDictionary.keyNames(), ProtocolDictionary.valueNames())) {
+            codes.addAll(table.keySet());
+            names.addAll(table.values());
+            entries += table.size();
+        }
+
+        assertEquals(entries, codes.size());
+        assertEquals(entries, names.size());
+    }
+
+    @Test
+    public void leavesUnknownCodesAlone() {
+        assertNull(ProtocolDictionary.name("qq"));
+        assertNull(ProtocolDictionary.methodName(Constants.kPeripheralUUID));
+        assertNull(ProtocolDictionary.code("NoSuchName"));
+        assertEquals("qq", Util.humanReadableFormatFromHex("qq"));
+        assertEquals("", Util.humanReadableFormatFromHex(null));
+    }
+
+    private static boolean isShortCode(Field field) {
+        String name = field.getName();
+
+        return Modifier.isStatic(field.getModifiers()) && field.getType() == String.class
+                && name.startsWith("k") && !name.startsWith("kError") && !name.startsWith("kGAP_")
+                && !NOT_CODES.contains(name);
+    }
+}
@@ -0,0 +1,134 @@
+package org.gatt_ip.util;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UUIDCodecTest {
+    private static final String HEART_RATE = "0000180D-0000-1000-8000-00805F9B34FB";
+
+    @Test
+    public void expandsShortForms() {
+        assertEquals(HEART_RATE, UUIDCodec.longForm("180D"));
+        assertEquals(HEART_RATE, UUIDCodec.longForm("180d"));
+        assertEquals(HEART_RATE, UUIDCodec.longForm("0000180d"));
+        assertEquals("00000001-0000-1000-8000-00805F9B34FB", UUIDCodec.longForm("1"));
+        assertEquals("12345678-0000-1000-8000-00805F9B34FB", UUIDCodec.longForm("12345678"));
+        assertEquals(UUID.fromString(HEART_RATE), UUIDCodec.toUUID("180D"));
+    }
+
+    @Test
+    public void shortensBluetoothUUIDsWithoutLeadingZeros() {
+        assertEquals("180D", UUIDCodec.shortForm(HEART_RATE));
+        assertEquals("180D", UUIDCodec.shortForm(HEART_RATE.toLowerCase()));
+        assertEquals("180D", UUIDCodec.shortForm("0000180D00001000800000805F9B34FB"));
+        assertEquals("2A37", UUIDCodec.shortForm(UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb")));
+        assertEquals("1", UUIDCodec.shortForm("00000001-0000-1000-8000-00805F9B34FB"));
+        assertEquals("0", UUIDCodec.shortForm("00000000-0000-1000-8000-00805F9B34FB"));
+        assertEquals("FE", UUIDCodec.shortForm("00fe"));
+        assertEquals("10000", UUIDCodec.shortForm("00010000-0000-1000-8000-00805F9B34FB"));
+        assertEquals("FFFFFFFF", UUIDCodec.shortForm("FFFFFFFF-0000-1000-8000-00805F9B34FB"));
+    }
+
+    @Test
+    public void keepsOtherUUIDsLong() {
+        String vendor = "6E400001-B5A3-F393-E0A9-E50E24DCCA9E";
+
+        assertEquals(vendor, UUIDCodec.shortForm(vendor.toLowerCase()));
+        assertEquals(vendor, UUIDCodec.longForm(vendor.toLowerCase()));
+        assertFalse(UUIDCodec.isBluetoothUUID(UUID.fromString(vendor)));
+
+        // only the exact base counts as Bluetooth
+        String nearBase = "0000180D-0000-1000-8000-00805F9B34FC";
+        assertEquals(nearBase, UUIDCodec.shortForm(nearBase));
+        assertEquals("0000180D-0001-1000-8000-00805F9B34FB", UUIDCodec.shortForm("0000180D-0001-1000-8000-00805F9B34FB"));
+    }
+
+    @Test
+    public void convertsPairsOfLongs() {
+        long msb = UUIDCodec.bluetoothMsb(0x2A37);
+
+        assertEquals("2A37", UUIDCodec.shortForm(msb, UUIDCodec.BASE_LSB));
+        assertEquals("00002A37-0000-1000-8000-00805F9B34FB", UUIDCodec.longForm(msb, UUIDCodec.BASE_LSB));
+        assertTrue(UUIDCodec.isBluetoothUUID(UUIDCodec.toUUID(msb, UUIDCodec.BASE_LSB)));
+        assertSame(UUIDCodec.toUUID(msb, UUIDCodec.BASE_LSB), UUIDCodec.toUUID(msb, UUIDCodec.BASE_LSB));
+        assertEquals(UUIDCodec.BLUETOOTH_BASE_UUID, UUIDCodec.toUUID(UUIDCodec.bluetoothMsb(0), UUIDCodec.BASE_LSB));
+    }
+
+    @Test
+    public void sharesTheFormsOfEveryWayOfWritingAUUID() {
+        assertSame(UUIDCodec.longForm("2a38"), UUIDCodec.longForm("00002A38-0000-1000-8000-00805F9B34FB"));
+        assertSame(UUIDCodec.shortForm("2A38"), UUIDCodec.shortForm(UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb")));
+        assertSame(UUIDCodec.toUUID("2a38"), UUIDCodec.toUUID("2A38"));
+    }
+
+    @Test
+    public void rejectsDashesOutOfPlace() {
+        assertInvalid("0000180D0-000-1000-8000-00805F9B34FB");
+        assertInvalid("0000-180D-0000-1000-8000-00805F9B34FB");
+        assertInvalid("0000180D-0000-1000-8000-00805F9B34F-");
+        assertInvalid("0000180D-0000-1000-800000805F9B34FB");
+        assertInvalid("-0000180D00001000800000805F9B34FB");
+        assertInvalid("18-D");
+    }
+
+    @Test
+    public void rejectsWhatIsNotAUUID() {
+        assertInvalid("");
+        assertInvalid("123456789");
+        assertInvalid("0000180D-0000-1000-8000-00805F9B34FBAA");
+        assertInvalid("0000180G-0000-1000-8000-00805F9B34FB");
+        assertInvalid("xyz");
+        assertInvalid("0x180D");
+    }
+
+    @Test
+    public void boundsTheInternTable() {
+        for (int i = 0; i < UUIDCodec.MAX_INTERNED * 2; i++) {
+            UUIDCodec.longForm(Integer.toHexString(0x10000000 + i));
+            assertTrue(UUIDCodec.internedCount() <= UUIDCodec.MAX_INTERNED);
+        }
+        assertEquals(UUIDCodec.MAX_INTERNED, UUIDCodec.internedCount());
+    }
+
+    @Test
+    public void dropsTheLeastRecentlyUsedForms() {
+        String used = "20000000";
+        String unused = "20000001";
+
+        UUIDCodec.longForm(used);
+        UUIDCodec.longForm(unused);
+        assertTrue(UUIDCodec.isInterned(used));
+        assertTrue(UUIDCodec.isInterned(unused));
+
+        // each new short form takes two entries, the string and its UUID
+        for (int i = 0; i < UUIDCodec.MAX_INTERNED; i++) {
+            UUIDCodec.longForm(Integer.toHexString(0x30000000 + i));
+
+            if (i % 64 == 0) {
+                UUIDCodec.shortForm(used);
+            }
+        }
+
+        assertTrue(UUIDCodec.isInterned(used));
+        assertFalse(UUIDCodec.isInterned(unused));
+
+        // a form that was dropped converts the same as before
+        assertEquals("20000001-0000-1000-8000-00805F9B34FB", UUIDCodec.longForm(unused));
+    }
+
+    private static void assertInvalid(String uuid) {
+        try {
+            UUIDCodec.toUUID(uuid);
+            fail("Converted " + uuid);
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+}